@@ -0,0 +1,146 @@
+package com.carlink.video;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decode-chain admission for the H264-Feeder. [IDR_ADMISSION]
+ *
+ * Tracks whether the decoder's reference chain is intact. Any frame that never reaches the
+ * codec (staging queue full, oversized, no input buffer, getInputBuffer null, queueInputBuffer
+ * failure) breaks it; only the next sync point (SPS-led keyframe bundle or bare IDR) repairs it.
+ * While broken:
+ *  - protective (default): dependent P-frames are discarded, so the last good picture stays
+ *    on screen ("frozen" time) instead of P-frames smeared over missing references
+ *  - legacy: they are fed as before and the interval until repair counts as "corrupted" time
+ * Protective mode also holds sync points longer for a codec input buffer and lets the feeder
+ * collapse a staging backlog to its newest sync point.
+ *
+ * Feeder thread only, except the stats getters. Times are taken at queueInputBuffer, so
+ * decode latency falls out at both ends of an interval.
+ */
+final class FrameAdmissionPolicy {
+    // How long a sync point may wait for a codec input buffer. At 60 fps this freezes ~9 frames,
+    // against a full GOP (often 1s+) of broken pictures if the keyframe is dropped.
+    static final long SYNC_HOLD_NS = 150_000_000L;
+
+    private volatile boolean protective = true;
+
+    // Chain state (feeder thread)
+    private boolean broken = false;
+    private long brokenSinceNs = 0;
+    private long corruptSinceNs = 0;  // First dependent frame fed while broken (legacy), 0 = none
+
+    // Session totals
+    private final AtomicLong chainBreaks = new AtomicLong(0);
+    private final AtomicLong dependentDiscards = new AtomicLong(0);
+    private final AtomicLong syncPointsLost = new AtomicLong(0);
+    private final AtomicLong syncPointsHeld = new AtomicLong(0);
+    private final AtomicLong syncPointsRescued = new AtomicLong(0);
+    private final AtomicLong backlogCollapses = new AtomicLong(0);
+    private final AtomicLong collapsedFrames = new AtomicLong(0);
+    private final AtomicLong frozenNs = new AtomicLong(0);
+    private final AtomicLong corruptedNs = new AtomicLong(0);
+
+    void setProtective(boolean protective) {
+        this.protective = protective;
+    }
+
+    boolean isProtective() {
+        return protective;
+    }
+
+    boolean isChainBroken() {
+        return broken;
+    }
+
+    /** Extra time [syncPoint] may wait for a codec input buffer (0 = policy adds none). */
+    long holdNs(boolean syncPoint) {
+        return protective && syncPoint ? SYNC_HOLD_NS : 0;
+    }
+
+    /**
+     * Decide whether a staged frame goes to the codec.
+     *
+     * @param afterGap the USB thread dropped at least one frame right before this one
+     * @return false to discard it (dependent frame of a broken chain, protective mode)
+     */
+    boolean admit(boolean syncPoint, boolean afterGap, long nowNs) {
+        if (afterGap) breakChain(nowNs);
+        if (syncPoint || !broken) return true;
+        if (protective) {
+            dependentDiscards.incrementAndGet();
+            return false;
+        }
+        if (corruptSinceNs == 0) corruptSinceNs = nowNs;
+        return true;
+    }
+
+    /** Frame was queued to the codec; a sync point repairs the chain. */
+    void onQueued(boolean syncPoint, long nowNs) {
+        if (!syncPoint || !broken) return;
+        closeInterval(nowNs);
+    }
+
+    /** Frame was admitted but never reached the codec. */
+    void onLost(boolean syncPoint, long nowNs) {
+        if (syncPoint) syncPointsLost.incrementAndGet();
+        breakChain(nowNs);
+    }
+
+    /** A sync point had to wait for an input buffer; [rescued] = one became free in time. */
+    void onSyncHold(boolean rescued) {
+        syncPointsHeld.incrementAndGet();
+        if (rescued) syncPointsRescued.incrementAndGet();
+    }
+
+    void onBacklogCollapsed(int skippedFrames) {
+        backlogCollapses.incrementAndGet();
+        collapsedFrames.addAndGet(skippedFrames);
+    }
+
+    /** Codec recreated: close any open interval; the pre-sync gate takes over. */
+    void resetChain(long nowNs) {
+        if (broken) closeInterval(nowNs);
+    }
+
+    private void breakChain(long nowNs) {
+        if (broken) return;
+        broken = true;
+        brokenSinceNs = nowNs;
+        corruptSinceNs = 0;
+        chainBreaks.incrementAndGet();
+    }
+
+    private void closeInterval(long nowNs) {
+        long corruptFrom = corruptSinceNs != 0 ? corruptSinceNs : nowNs;
+        frozenNs.addAndGet(corruptFrom - brokenSinceNs);
+        corruptedNs.addAndGet(nowNs - corruptFrom);
+        broken = false;
+        corruptSinceNs = 0;
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("protective", protective);
+        stats.put("chainBreaks", chainBreaks.get());
+        stats.put("dependentDiscards", dependentDiscards.get());
+        stats.put("syncPointsLost", syncPointsLost.get());
+        stats.put("syncPointsHeld", syncPointsHeld.get());
+        stats.put("syncPointsRescued", syncPointsRescued.get());
+        stats.put("backlogCollapses", backlogCollapses.get());
+        stats.put("collapsedFrames", collapsedFrames.get());
+        stats.put("frozenMs", frozenNs.get() / 1_000_000L);
+        stats.put("corruptedMs", corruptedNs.get() / 1_000_000L);
+        return stats;
+    }
+
+    long getCorruptedMs() {
+        return corruptedNs.get() / 1_000_000L;
+    }
+
+    long getFrozenMs() {
+        return frozenNs.get() / 1_000_000L;
+    }
+}
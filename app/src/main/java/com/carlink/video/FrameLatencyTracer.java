@@ -0,0 +1,112 @@
+package com.carlink.video;
+
+import com.carlink.util.Log2Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-frame USB-to-glass latency tracing. [FRAME_LATENCY]
+ *
+ * Every staged frame gets System.nanoTime() stamps at five points. The stamps are correlated by
+ * the synthetic PTS that H264Renderer assigns from frameCounter and passes to queueInputBuffer,
+ * which MediaCodec hands back in BufferInfo and in onFrameRendered. The five points are:
+ *  - usb:      entry to feedDirect()/commitStagingBuffer(); the read loop calls these right
+ *              after the transfer completes
+ *  - staged:   offered to the staging ring (USB thread)
+ *  - queued:   queueInputBuffer returned (feeder thread)
+ *  - decoded:  onOutputBufferAvailable (codec callback thread)
+ *  - rendered: the display time that OnFrameRenderedListener reports, same clock as nanoTime
+ *
+ * Stamps live in a fixed ring of {@link #SLOTS} entries indexed by PTS (~4s at 60 fps), with
+ * no allocation per frame. Each stage writes only its own stamp, after the previous stage's
+ * hand-off (staging ring, codec), so plain arrays are enough. The PTS tag on each slot
+ * discards reads from a recycled slot. Frames dropped on the way just never complete their
+ * chain; every stage, usb→staged included, counts only frames that reached the codec. The
+ * histograms are session totals, with 8 linear sub-buckets per power of two so a reported
+ * percentile is at most 12.5% above the true value (plain log2 buckets could be 2x off,
+ * too coarse to compare stages or runs).
+ */
+final class FrameLatencyTracer {
+    private static final int SLOTS = 256;  // Power of two
+    private static final int SUB_BUCKET_BITS = 3;  // 8 per power of two: ≤ 12.5% error
+
+    private final long[] tags = new long[SLOTS];  // pts + 1, 0 = empty
+    private final long[] usbNs = new long[SLOTS];
+    private final long[] stagedNs = new long[SLOTS];
+    private final long[] queuedNs = new long[SLOTS];
+    private final long[] decodedNs = new long[SLOTS];
+
+    private final Log2Histogram usbToStaged = new Log2Histogram(SUB_BUCKET_BITS);
+    private final Log2Histogram stagedToQueued = new Log2Histogram(SUB_BUCKET_BITS);
+    private final Log2Histogram queuedToDecoded = new Log2Histogram(SUB_BUCKET_BITS);
+    private final Log2Histogram decodedToRendered = new Log2Histogram(SUB_BUCKET_BITS);
+    private final Log2Histogram usbToRendered = new Log2Histogram(SUB_BUCKET_BITS);
+
+    /** USB thread, before the staging offer publishes the frame: [pts] read at [usb], staged at [staged]. */
+    void onStaged(long pts, long usb, long staged) {
+        int slot = (int) (pts & (SLOTS - 1));
+        usbNs[slot] = usb;
+        stagedNs[slot] = staged;
+        queuedNs[slot] = 0;
+        decodedNs[slot] = 0;
+        tags[slot] = pts + 1;
+    }
+
+    /** Feeder thread: queueInputBuffer returned. */
+    void onQueued(long pts, long now) {
+        int slot = (int) (pts & (SLOTS - 1));
+        if (tags[slot] != pts + 1) return;
+        queuedNs[slot] = now;
+        usbToStaged.record(stagedNs[slot] - usbNs[slot]);
+        stagedToQueued.record(now - stagedNs[slot]);
+    }
+
+    /** Codec callback thread: output buffer for [pts] available. */
+    void onDecoded(long pts, long now) {
+        int slot = (int) (pts & (SLOTS - 1));
+        if (tags[slot] != pts + 1 || queuedNs[slot] == 0) return;
+        decodedNs[slot] = now;
+        queuedToDecoded.record(now - queuedNs[slot]);
+    }
+
+    /** Frame-rendered listener: [pts] was displayed at [renderedNs] (System.nanoTime() clock). */
+    void onRendered(long pts, long renderedNs) {
+        int slot = (int) (pts & (SLOTS - 1));
+        if (tags[slot] != pts + 1 || decodedNs[slot] == 0) return;
+        tags[slot] = 0;  // Chain complete; a repeated callback must not count twice
+        decodedToRendered.record(renderedNs - decodedNs[slot]);
+        usbToRendered.record(renderedNs - usbNs[slot]);
+    }
+
+    /** Staging offer → queueInputBuffer (us). */
+    Map<String, Long> getStagedToQueuedStats() {
+        return stagedToQueued.snapshot(1000);
+    }
+
+    /** Per-stage latency (us): count, mean, p50, p90, p95, p99, max per stage, plus end to end. */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("usbToStagedUs", usbToStaged.snapshot(1000));
+        stats.put("stagedToQueuedUs", stagedToQueued.snapshot(1000));
+        stats.put("queuedToDecodedUs", queuedToDecoded.snapshot(1000));
+        stats.put("decodedToRenderedUs", decodedToRendered.snapshot(1000));
+        stats.put("usbToRenderedUs", usbToRendered.snapshot(1000));
+        return stats;
+    }
+
+    /** One line for the periodic stats log: p50/p95/p99/max in us per stage. */
+    String summary() {
+        return "usb→stage " + quantiles(usbToStaged)
+                + ", stage→queue " + quantiles(stagedToQueued)
+                + ", queue→decode " + quantiles(queuedToDecoded)
+                + ", decode→display " + quantiles(decodedToRendered)
+                + ", usb→display " + quantiles(usbToRendered)
+                + " (n=" + usbToRendered.getTotal() + ")";
+    }
+
+    private static String quantiles(Log2Histogram h) {
+        return h.percentile(0.50) / 1000 + "/" + h.percentile(0.95) / 1000 + "/"
+                + h.percentile(0.99) / 1000 + "/" + h.getMaximum() / 1000;
+    }
+}
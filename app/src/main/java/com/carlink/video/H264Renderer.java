@@ -19,6 +19,7 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -43,6 +44,9 @@ public class H264Renderer {
         final byte[] data;
         int length;
         long timestamp;
+        long stagedNs;  // System.nanoTime() when offered to the staging queue
+        boolean syncPoint;  // SPS-led keyframe bundle or IDR
+        boolean afterGap;   // USB thread dropped the frame(s) right before this one
         StagedFrame(int capacity) {
             this.data = new byte[capacity];
         }
@@ -51,10 +55,16 @@ public class H264Renderer {
     private volatile MediaCodec mCodec;
     private final MediaCodec.Callback codecCallback;
     private MediaCodecInfo codecInfo;
-    private final ConcurrentLinkedQueue<Integer> codecAvailableBufferIndexes = new ConcurrentLinkedQueue<>();
-    private int width;
-    private int height;
-    private Surface surface;
+    // Free codec input slots: codec callback thread → feeder thread (SPSC, no boxing).
+    // Indices the feeder could not use go to retryInputIndexes (feeder thread only) and are
+    // used after fresh ones, as the old re-offer to the queue tail did.
+    private static final int INPUT_INDEX_CAPACITY = 64;  // Power of two, above any decoder's input buffer count
+    private final IntRingQueue codecAvailableBufferIndexes = new IntRingQueue(INPUT_INDEX_CAPACITY);
+    private final IntRingQueue retryInputIndexes = new IntRingQueue(INPUT_INDEX_CAPACITY);
+    private final AtomicLong inputIndexOverflow = new AtomicLong(0);
+    private volatile int width;   // Written under codecLock by reconfigure
+    private volatile int height;
+    private volatile Surface surface;  // Swapped by resume()/pause(); read by the watchdog tick
     private volatile boolean running = false;
     private volatile java.util.Timer retryTimer;  // Stored for cancellation in stop()
     private final LogCallback logCallback;
@@ -68,6 +78,8 @@ public class H264Renderer {
     private final AtomicLong codecResetCount = new AtomicLong(0);
     private static final long PERF_LOG_INTERVAL_MS = 30000;
     private long lastPerfLogTime = 0;
+    private long framesReceivedAtLastLog = 0;
+    private long framesDecodedAtLastLog = 0;
 
     // Pipeline diagnostic counters (debug builds only)
     // These help identify WHERE the pipeline breaks when video freezes
@@ -90,60 +102,24 @@ public class H264Renderer {
     // Accumulative IDR drop counter (not reset by logStats — for total session tracking)
     private final AtomicLong sessionIdrDrops = new AtomicLong(0);
 
-    // TODO [SELF_HEALING]: Auto-reset for frozen video pipeline.
-    //
-    // PROBLEM: Codec enters zombie state — alive by all observable metrics, internally dead.
-    //   mCodec != null, running == true, surface.isValid() == true, but:
-    //   - onInputBufferAvailable stops firing, OR
-    //   - getInputBuffer() returns null for recycled indices, OR
-    //   - onError callback never triggers (silent failure)
-    //   Evidence: H264_PIPELINE logged Rx:1330 Dec:0 for 65+ seconds without error callback.
-    //
-    // DETECTION — ScheduledExecutorService, 1-second tick, 2 consecutive failures = 2s window.
-    //   Reset when ALL true:
-    //   1. running && surface != null && surface.isValid()
-    //   2. framesReceived delta > 0 in window (USB delivering — rules out phone sleep/Siri)
-    //   3. totalFramesDecoded delta == 0 in window (codec producing nothing)
-    //   4. Cooldown elapsed (prevent reset loops)
-    //   5. Grace period (3s) elapsed since last start()/reset()/resume()
-    //
-    //   Use snapshot-based deltas: currentCounter - previousSnapshot per tick. O(1), no buffer.
-    //   Two consecutive ticks with received>0 && decoded==0 required to trigger.
-    //   Dispatch reset on executors.mediaCodec1() (not timer thread) — same as onError handler.
-    //
-    // ACTION: reset() — full codec recreation (stop+release+create+configure+start+requestKeyframe).
-    //   NOT flush(). Intel VPU (OMX.Intel.hw_vd.h264) does not reliably clear poisoned
-    //   reference surfaces on flush — documented in 15_REV57_DECODER_POISONING_ANALYSIS.md.
-    //   flush() requires start() afterward anyway in async mode, with CSD re-submission complexity.
-    //   reset() is proven (2 successful recoveries in field test, ~250ms total blackout).
-    //
-    // COOLDOWN — stepped, never give up:
-    //   Reset #1: 3s, #2: 5s, #3: 10s, #4+: 15s cap.
-    //   Reset watchdogConsecutiveResets to 0 after 30s of healthy output (decoded > 0).
-    //   No exponential backoff — frozen screen in a car is unacceptable at 32s+ intervals.
-    //   Log severe warning if >5 resets in 60s (persistent hardware fault indicator).
-    //
-    // FALSE POSITIVE MITIGATION:
-    //   - Siri/sleep: receivedInWindow == 0 → gate prevents trigger
-    //   - Surface recreation: running becomes false during restart → condition #1 prevents
-    //   - Post-start/reset: 3s grace period covers codec startup latency
-    //   - USB burst patterns: 2s window smooths jitter (documented P99: 7ms, max: 30ms)
-    //   - SPS/PPS changes: always bundled with IDR → decoded > 0
-    //
-    // THREAD SAFETY: Existing codecLock serializes lifecycle ops. feedDirect() try/catch
-    //   handles races with concurrent reset (stale buffer index → IllegalStateException → caught).
-    //   codecAvailableBufferIndexes.clear() in stop() handles stale indices from old codec instance.
-    //
-    // PRIOR ART: No commercial CarPlay app (AutoKit, Zlink, scrcpy, ExoPlayer) implements
-    //   this specific received>0/decoded==0 watchdog. All rely on onError callbacks (which
-    //   don't fire in silent zombie states) or manual user restart. This is novel but sound.
-    //
-    // PHASE 2 (NOT THIS TODO): Corrupted-but-outputting codec (decoded>0 but visually frozen/
-    //   pixelated). Requires frame content analysis or decode-time anomaly detection. Separate concern.
+    // Geometry reconfiguration (REMOTE_CX_CY). Session totals, not reset by logStats.
+    // Blackout = reconfigure start → first decoded frame at the new size.
+    private final AtomicLong reconfigureCount = new AtomicLong(0);
+    private final AtomicLong reconfigureBlackoutTotalMs = new AtomicLong(0);
+    private volatile long lastReconfigureBlackoutMs = -1;
+    private volatile long reconfigureStartNs = 0;  // 0 = no blackout in progress
+
+    // Self-healing [SELF_HEALING]: frozen-codec watchdog on snapshot deltas of framesReceived and
+    // totalFramesDecoded (both monotonic). Detection rules, cooldown steps and false-positive
+    // gates are in PipelineHealthMonitor; recovery is reset() on executors.mediaCodec1().
     //
     // GM AAOS comparison: GM avoids this entirely by using CINEMO software decoder (not MediaCodec).
     //   Direct function-call chain with full internal state control. We use MediaCodec as a black box —
     //   the watchdog is the correct compensating mechanism for opaque hardware decoder state.
+    //
+    // PHASE 2 (NOT COVERED): Corrupted-but-outputting codec (decoded>0 but visually frozen/
+    //   pixelated). Requires frame content analysis or decode-time anomaly detection. Separate concern.
+    private final PipelineHealthMonitor healthMonitor;
 
     // First-frame flag — survives logStats() counter resets
     private volatile boolean firstFrameLogged = false;
@@ -172,12 +148,28 @@ public class H264Renderer {
     private volatile int sqTail = 0;  // written by feeder thread only
     private final ConcurrentLinkedQueue<StagedFrame> framePool = new ConcurrentLinkedQueue<>();
     private StagedFrame writeFrame;                                // USB thread only
+    private StagedFrame leasedFrame;                               // USB thread only — borrowed, not yet committed
     private volatile Thread feederThread;
+
+    // Feeder wakeups [FEEDER_SIGNAL]: the feeder parks until stagingOffer() or
+    // onInputBufferAvailable() unparks it. Signallers only unpark while feederParked is set;
+    // the feeder sets it before re-checking its condition, so no signal is lost.
+    // eventDrivenFeeder=false restores the old 1ms park polling for comparison.
+    private static final long FEEDER_IDLE_TIMEOUT_NS = 100_000_000L;  // Loop still turns 10x/s when idle
+    private static final long FEEDER_POLL_NS = 1_000_000L;            // Legacy polling interval
+    private volatile boolean eventDrivenFeeder = true;
+    private volatile boolean feederParked = false;
+    private final AtomicLong feederWakeups = new AtomicLong(0);      // Session total
+    private long feederWakeupsAtLastLog = 0;
+    // USB → staged → queued → decoded → displayed stamps, correlated by PTS [FRAME_LATENCY]
+    private final FrameLatencyTracer latencyTracer = new FrameLatencyTracer();
     private final AtomicLong stagingDropCount = new AtomicLong(0);
     private final AtomicLong oversizedDropCount = new AtomicLong(0);
 
-    // Fix A: Reactive keyframe request after staging drops
-    private volatile boolean stagingOverwriteDetected = false;
+    // Fix A: Reactive keyframe request while the decode chain is broken — staging drops and
+    // feeder-side losses alike (FrameAdmissionPolicy), at most once per cooldown.
+    private boolean stagingGap = false;  // USB thread only — a frame was dropped since the last offer
+    private final FrameAdmissionPolicy admission = new FrameAdmissionPolicy();
     private volatile long lastReactiveKeyframeTimeNs = 0;
     private static final long REACTIVE_KEYFRAME_COOLDOWN_NS = 500_000_000L;  // 500ms
 
@@ -191,6 +183,16 @@ public class H264Renderer {
         this.preferredDecoderName = preferredDecoderName;
 
         codecCallback = createCallback();
+        healthMonitor = new PipelineHealthMonitor("H264", framesReceived::get, totalFramesDecoded::get,
+                this::isPipelineActive,
+                () -> executors.mediaCodec1().execute(() -> reset()),
+                logCallback);
+    }
+
+    /** Watchdog gate: running with a valid output surface. Reads the field — it is swapped on resume(). */
+    private boolean isPipelineActive() {
+        Surface current = this.surface;
+        return running && current != null && current.isValid();
     }
 
     public void setKeyframeRequestCallback(KeyframeRequestCallback callback) {
@@ -213,10 +215,10 @@ public class H264Renderer {
         if (running) return;
 
         running = true;
-        totalFramesDecoded.set(0);
         frameCounter.set(0);
         firstFrameLogged = false;
         syncAcquired = false;
+        admission.resetChain(System.nanoTime());
 
         log("start - " + width + "x" + height);
 
@@ -224,6 +226,7 @@ public class H264Renderer {
             initCodec(width, height, surface);
             mCodec.start();
             initStaging();
+            healthMonitor.onPipelineStarted();
             VideoDebugLogger.logCodecStarted();
             log("[VIDEO] codec started");
         } catch (Exception e) {
@@ -264,6 +267,7 @@ public class H264Renderer {
         if (!running) return;
 
         running = false;
+        healthMonitor.shutdown();
         stopStaging();  // Join feeder BEFORE stopping codec
 
         synchronized (codecLock) {
@@ -286,7 +290,7 @@ public class H264Renderer {
             }
         }
 
-        codecAvailableBufferIndexes.clear();
+        clearInputIndexes();
         surface = null;
     }
 
@@ -326,6 +330,7 @@ public class H264Renderer {
                 try {
                     mCodec.setOutputSurface(newSurface);
                     this.surface = newSurface;
+                    healthMonitor.onPipelineStarted();  // Grace period for the new surface
                     log("[LIFECYCLE] Surface swapped without restart");
                     return;
                 } catch (Exception e) {
@@ -348,6 +353,76 @@ public class H264Renderer {
         }
     }
 
+    /**
+     * Adapter announced the phone's stream geometry (REMOTE_CX_CY). Called on the USB thread.
+     *
+     * A size matching the current codec configuration is ignored. Before start() the new size
+     * is just recorded, so the codec is created at it. While running, the codec is recreated at
+     * the new size on the codec executor (like reset()) and a keyframe is requested, instead
+     * of waiting for the first frame at the new geometry to fail and trigger onError → reset().
+     */
+    public void onRemoteResolution(int newWidth, int newHeight) {
+        if (newWidth < MIN_DIMENSION || newHeight < MIN_DIMENSION
+                || newWidth > MAX_DIMENSION || newHeight > MAX_DIMENSION) {
+            log("[VIDEO] Ignoring remote resolution " + newWidth + "x" + newHeight);
+            return;
+        }
+        if (newWidth == width && newHeight == height) return;
+
+        if (!running) {
+            synchronized (codecLock) {
+                log("[VIDEO] Remote resolution " + newWidth + "x" + newHeight + " (was " + width + "x" + height
+                        + "), applied at next start");
+                width = newWidth;
+                height = newHeight;
+            }
+            return;
+        }
+
+        executors.mediaCodec1().execute(() -> reconfigure(newWidth, newHeight));
+    }
+
+    private void reconfigure(int newWidth, int newHeight) {
+        synchronized (codecLock) {
+            if (!running || (newWidth == width && newHeight == height)) return;
+
+            long count = reconfigureCount.incrementAndGet();
+            log("[VIDEO] reconfigure " + width + "x" + height + " -> " + newWidth + "x" + newHeight
+                    + " - count: " + count);
+            reconfigureStartNs = System.nanoTime();
+
+            Surface savedSurface = this.surface;
+            stop();
+            this.surface = savedSurface;
+            width = newWidth;
+            height = newHeight;
+            start();
+        }
+
+        if (keyframeCallback != null) {
+            try {
+                keyframeCallback.onKeyframeNeeded();
+            } catch (Exception e) {
+                log("[VIDEO_ERROR] Keyframe request failed: " + e);
+            }
+        }
+    }
+
+    /** Geometry reconfigurations this session. */
+    public long getReconfigureCount() {
+        return reconfigureCount.get();
+    }
+
+    /** Total ms without decoded output caused by reconfigurations this session. */
+    public long getReconfigureBlackoutTotalMs() {
+        return reconfigureBlackoutTotalMs.get();
+    }
+
+    /** Blackout of the most recent reconfiguration in ms, -1 if none completed. */
+    public long getLastReconfigureBlackoutMs() {
+        return lastReconfigureBlackoutMs;
+    }
+
     private void initCodec(int width, int height, Surface surface) throws IOException {
         log("init codec: " + width + "x" + height);
 
@@ -413,11 +488,21 @@ public class H264Renderer {
         VideoDebugLogger.logCodecInit(codecName, width, height);
 
         mCodec.setCallback(codecCallback);
-        codecAvailableBufferIndexes.clear();
+        // Display stamps for the latency tracer (null handler: framework-provided thread)
+        mCodec.setOnFrameRenderedListener((renderedCodec, presentationTimeUs, nanoTime) -> {
+            if (renderedCodec == mCodec) latencyTracer.onRendered(presentationTimeUs, nanoTime);
+        }, null);
+        clearInputIndexes();
         mCodec.configure(mediaformat, surface, null, 0);
         VideoDebugLogger.logSurfaceBound(surface != null && surface.isValid());
     }
 
+    /** Invalidate input indices of the previous codec instance. Feeder must not be running. */
+    private void clearInputIndexes() {
+        codecAvailableBufferIndexes.clear();
+        retryInputIndexes.clear();
+    }
+
     private MediaCodecInfo findCodecInfo(String codecName) {
         if (codecName == null) return null;
         MediaCodecList codecList = new MediaCodecList(MediaCodecList.ALL_CODECS);
@@ -440,7 +525,7 @@ public class H264Renderer {
         framePool.clear();
         stagingDropCount.set(0);
         oversizedDropCount.set(0);
-        stagingOverwriteDetected = false;
+        stagingGap = false;
         lastReactiveKeyframeTimeNs = 0;
 
         // Allocate 6 StagedFrames: 1 → writeFrame, 5 → framePool
@@ -509,12 +594,14 @@ public class H264Renderer {
             while (running) {
                 StagedFrame frame = stagingPoll();
                 if (frame != null) {
+                    if (admission.isProtective() && sqTail != sqHead) {
+                        frame = collapseToNewestSyncPoint(frame);
+                    }
                     feedFrameToCodec(frame);
                     framePool.offer(frame);
 
-                    // Fix A: After feeding, check if a staging drop occurred → request reactive keyframe
-                    if (stagingOverwriteDetected) {
-                        stagingOverwriteDetected = false;
+                    // Fix A: While the decode chain is broken → request reactive keyframe
+                    if (admission.isChainBroken()) {
                         long now = System.nanoTime();
                         if (now - lastReactiveKeyframeTimeNs > REACTIVE_KEYFRAME_COOLDOWN_NS) {
                             lastReactiveKeyframeTimeNs = now;
@@ -523,7 +610,7 @@ public class H264Renderer {
                                 executors.mediaCodec1().execute(() -> {
                                     try {
                                         cb.onKeyframeNeeded();
-                                        debugLog("[KEYFRAME] Reactive keyframe request after staging drop");
+                                        debugLog("[KEYFRAME] Reactive keyframe request, decode chain broken");
                                     } catch (Exception e) {
                                         debugLog("[KEYFRAME] Reactive request failed: " + e);
                                     }
@@ -532,7 +619,7 @@ public class H264Renderer {
                         }
                     }
                 } else {
-                    LockSupport.parkNanos(1_000_000L);  // 1ms — 0.5ms avg added latency
+                    parkFeeder(FEEDER_IDLE_TIMEOUT_NS, false);
                 }
             }
         } catch (Exception e) {
@@ -541,6 +628,128 @@ public class H264Renderer {
         debugLog("Feeder thread exited");
     }
 
+    /**
+     * Park the feeder until signalled or [timeoutNs] elapses. Feeder thread only.
+     * With [eventDrivenFeeder] off this is the old fixed 1ms poll.
+     *
+     * @param needIndex wait for a codec input index (else for a staged frame)
+     */
+    private void parkFeeder(long timeoutNs, boolean needIndex) {
+        if (!eventDrivenFeeder) {
+            feederWakeups.incrementAndGet();
+            LockSupport.parkNanos(FEEDER_POLL_NS);
+            return;
+        }
+        feederParked = true;
+        // Re-check after publishing feederParked: a signal sent before this point is seen here
+        if (needIndex ? !hasInputIndex() : sqHead == sqTail) {
+            feederWakeups.incrementAndGet();
+            LockSupport.parkNanos(timeoutNs);
+        }
+        feederParked = false;
+    }
+
+    /**
+     * Hold the current frame until the codec frees an input buffer (bounded — a stuck codec still drops).
+     * @return true if an input index is available
+     */
+    private boolean awaitInputIndex(long timeoutNs) {
+        long deadline = System.nanoTime() + timeoutNs;
+        long remaining;
+        while (running && !hasInputIndex() && (remaining = deadline - System.nanoTime()) > 0) {
+            parkFeeder(remaining, true);
+        }
+        return hasInputIndex();
+    }
+
+    /**
+     * Backlog collapse [IDR_ADMISSION]: if a sync point is queued behind [frame], skip [frame] and
+     * everything before that sync point — it replaces all their references, and the screen
+     * catches up to live instead of draining stale P-frames. Feeder thread only.
+     *
+     * @return the frame to feed ([frame] itself if nothing newer is decodable on its own)
+     */
+    private StagedFrame collapseToNewestSyncPoint(StagedFrame frame) {
+        int head = sqHead;
+        int newest = -1;
+        for (int i = sqTail; i != head; i = (i + 1) & (STAGING_QUEUE_SLOTS - 1)) {
+            if (stagingQueue[i].syncPoint) newest = i;
+        }
+        if (newest < 0) return frame;
+
+        int skipped = 1;
+        framePool.offer(frame);
+        while (sqTail != newest) {
+            framePool.offer(stagingPoll());
+            skipped++;
+        }
+        admission.onBacklogCollapsed(skipped);
+        debugLog("Backlog collapsed to newest sync point, skipped " + skipped + " frame(s)");
+        return stagingPoll();
+    }
+
+    /** Feeder thread only: stale indices from before clearInputIndexes() do not count. */
+    private boolean hasInputIndex() {
+        return !codecAvailableBufferIndexes.isEmpty() || !retryInputIndexes.isEmpty();
+    }
+
+    /** Wake the feeder if it is parked. Called by the USB and codec callback threads. */
+    private void signalFeeder() {
+        if (feederParked) {
+            Thread t = feederThread;
+            if (t != null) LockSupport.unpark(t);
+        }
+    }
+
+    /** Switch feeder wakeups between signalled (default) and legacy 1ms polling. Applies immediately. */
+    public void setEventDrivenFeeder(boolean eventDriven) {
+        eventDrivenFeeder = eventDriven;
+        Thread t = feederThread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    public boolean isEventDrivenFeeder() {
+        return eventDrivenFeeder;
+    }
+
+    /** Feeder park/poll wakeups this session. */
+    public long getFeederWakeups() {
+        return feederWakeups.get();
+    }
+
+    /**
+     * IDR-protective admission (default on): discard P-frames of a broken decode chain until the
+     * next sync point, hold sync points up to 150ms for an input buffer, collapse staging backlog
+     * to the newest sync point. false feeds everything as before. Applies immediately.
+     */
+    public void setIdrProtection(boolean protective) {
+        admission.setProtective(protective);
+    }
+
+    public boolean isIdrProtection() {
+        return admission.isProtective();
+    }
+
+    /** Decode-chain admission session totals (breaks, discards, sync point holds/losses, frozen/corrupted ms). */
+    public Map<String, Object> getAdmissionStats() {
+        return admission.getStats();
+    }
+
+    /** Frozen-codec watchdog session totals: incidents, recovered, time-to-detect/recover (ms). */
+    public Map<String, Object> getWatchdogStats() {
+        return healthMonitor.getStats();
+    }
+
+    /** Per-stage frame latency (us), USB read to display: count, mean, p50, p90, p95, p99, max. */
+    public Map<String, Object> getLatencyStats() {
+        return latencyTracer.getStats();
+    }
+
+    /** Staging offer → queueInputBuffer latency (us): count, mean, p50, p90, p95, p99, max. */
+    public Map<String, Long> getOfferToQueueStats() {
+        return latencyTracer.getStagedToQueuedStats();
+    }
+
     /** Feed a staged frame to the codec. Called only from feeder thread. */
     private void feedFrameToCodec(StagedFrame frame) {
         if (mCodec == null) return;
@@ -549,7 +758,7 @@ public class H264Renderer {
         // Adapter bundles SPS+PPS+IDR as one payload — getNalType() returns SPS (first NAL).
         if (!syncAcquired) {
             int nalType = getNalType(frame.data, 0, frame.length);
-            if (nalType == NAL_SPS || nalType == NAL_IDR) {
+            if (isSyncPoint(nalType)) {
                 syncAcquired = true;
                 log("[VIDEO] Sync acquired (" + nalTypeToString(nalType) + "), feeding to codec");
             } else {
@@ -558,12 +767,27 @@ public class H264Renderer {
             }
         }
 
-        Integer index = codecAvailableBufferIndexes.poll();
-        if (index == null) {
+        if (!admission.admit(frame.syncPoint, frame.afterGap, System.nanoTime())) {
+            return;  // Depends on a lost frame — keep the last good picture until the next sync point
+        }
+
+        // Only sync points wait for an input buffer; any other frame is dropped at once if the
+        // codec is busy, so the feeder never falls further behind live on a P-frame
+        long waitNs = admission.holdNs(frame.syncPoint);
+        if (waitNs > 0 && !hasInputIndex()) {
+            boolean rescued = awaitInputIndex(waitNs);
+            if (frame.syncPoint && admission.isProtective()) admission.onSyncHold(rescued);
+        }
+
+        int index = codecAvailableBufferIndexes.poll();
+        if (index == IntRingQueue.EMPTY) {
+            index = retryInputIndexes.poll();
+        }
+        if (index == IntRingQueue.EMPTY) {
             // Codec busy → drop. Track what we're dropping.
             totalDropCount.incrementAndGet();
-            int nalType = getNalType(frame.data, 0, frame.length);
-            if (nalType == NAL_IDR) {
+            admission.onLost(frame.syncPoint, System.nanoTime());
+            if (frame.syncPoint) {
                 long sessionTotal = sessionIdrDrops.incrementAndGet();
                 idrDropCount.incrementAndGet();
                 VideoDebugLogger.logIdrDrop(frame.length, sessionTotal);
@@ -582,23 +806,32 @@ public class H264Renderer {
                 if (count == 1 || count % 100 == 0) {
                     debugLog("feedFrameToCodec: getInputBuffer null (count=" + count + ")");
                 }
-                codecAvailableBufferIndexes.offer(index);
+                retryInputIndexes.offer(index);
+                admission.onLost(frame.syncPoint, System.nanoTime());
                 return;
             }
             inputBuffer.clear();
             inputBuffer.put(frame.data, 0, frame.length);
             mCodec.queueInputBuffer(index, 0, frame.length, frame.timestamp, 0);
             feedSuccesses.incrementAndGet();
+            long queuedNs = System.nanoTime();
+            latencyTracer.onQueued(frame.timestamp, queuedNs);
+            admission.onQueued(frame.syncPoint, queuedNs);
         } catch (Exception e) {
             long count = feedExceptionCount.incrementAndGet();
             lastFeedException = e.getClass().getSimpleName() + ": " + e.getMessage();
             if (count == 1 || count % 100 == 0) {
                 debugLog("feedFrameToCodec exception (count=" + count + "): " + lastFeedException);
             }
-            codecAvailableBufferIndexes.offer(index);
+            retryInputIndexes.offer(index);
+            admission.onLost(frame.syncPoint, System.nanoTime());
         }
     }
 
+    // Accepted REMOTE_CX_CY range; anything else is treated as a malformed message
+    private static final int MIN_DIMENSION = 64;
+    private static final int MAX_DIMENSION = 4096;
+
     // H.264 NAL unit types (ITU-T H.264 Table 7-1)
     private static final int NAL_SLICE = 1;       // Non-IDR slice (P/B frame)
     private static final int NAL_IDR = 5;         // IDR slice (keyframe)
@@ -630,6 +863,11 @@ public class H264Renderer {
         return -1;
     }
 
+    /** Decodable without earlier frames. The adapter bundles SPS+PPS+IDR, so the first NAL is SPS. */
+    private static boolean isSyncPoint(int nalType) {
+        return nalType == NAL_SPS || nalType == NAL_IDR;
+    }
+
     private static String nalTypeToString(int nalType) {
         switch (nalType) {
             case NAL_SLICE: return "P/B";
@@ -641,6 +879,63 @@ public class H264Renderer {
         }
     }
 
+    /**
+     * Borrow the current staging slot so the USB thread can read a frame straight into it.
+     * Called from USB-ReadLoop thread only. [ZERO_COPY_STAGING]
+     *
+     * USB → slot.data (no intermediate buffer) → commitStagingBuffer() → SPSC ring offer.
+     * Every successful borrow must be followed by commitStagingBuffer() or abortStagingBuffer().
+     * Counts the frame as received and applies the same oversize guard as feedDirect().
+     *
+     * @param length H.264 payload size (video header excluded)
+     * @return slot array to write from index 0, or null if the frame must be discarded
+     */
+    public byte[] borrowStagingBuffer(int length) {
+        if (!running) return null;
+        framesReceived.incrementAndGet();
+        logStats();
+
+        // Guard: reject frames exceeding staging capacity (corrupted USB data)
+        if (length > STAGED_FRAME_CAPACITY) {
+            oversizedDropCount.incrementAndGet();
+            stagingGap = true;
+            debugLog("DROP oversized frame: " + length + "B > " + STAGED_FRAME_CAPACITY + "B");
+            return null;
+        }
+
+        StagedFrame wf = writeFrame;
+        if (wf == null) {  // Staging not initialized or pool briefly empty
+            stagingGap = true;
+            return null;
+        }
+        leasedFrame = wf;
+        return wf.data;
+    }
+
+    /**
+     * Publish a borrowed slot holding {@code length} bytes of H.264 data.
+     * Called from USB-ReadLoop thread only.
+     *
+     * @return true if frame was staged, false if dropped (queue full or staging restarted during the lease)
+     */
+    public boolean commitStagingBuffer(int length) {
+        long usbNs = System.nanoTime();  // Read loop calls this as soon as the transfer completes
+        StagedFrame wf = leasedFrame;
+        leasedFrame = null;
+        // reset()/stop() may have rebuilt staging while the USB thread was reading — discard
+        if (wf == null || !running || wf != writeFrame) return false;
+
+        wf.length = length;
+        wf.timestamp = frameCounter.getAndIncrement();
+        return publishWriteFrame(wf, usbNs);
+    }
+
+    /** Release a borrowed slot without staging it (USB read failed). Slot is reused by the next frame. */
+    public void abortStagingBuffer() {
+        leasedFrame = null;
+        stagingGap = true;  // The frame is lost either way
+    }
+
     /**
      * Stage H.264 data for codec feeding. GC-immune USB thread fast path.
      * Called from USB-ReadLoop thread. [FIFO_STAGING] implementation.
@@ -651,6 +946,7 @@ public class H264Renderer {
      * @return true if frame was staged, false if dropped (oversized, no buffer, or queue full)
      */
     public boolean feedDirect(byte[] data, int offset, int length) {
+        long usbNs = System.nanoTime();
         if (!running) return false;
         framesReceived.incrementAndGet();
         logStats();
@@ -658,32 +954,47 @@ public class H264Renderer {
         // Guard: reject frames exceeding staging capacity (corrupted USB data)
         if (length > STAGED_FRAME_CAPACITY) {
             oversizedDropCount.incrementAndGet();
+            stagingGap = true;
             debugLog("DROP oversized frame: " + length + "B > " + STAGED_FRAME_CAPACITY + "B");
             return false;
         }
 
         StagedFrame wf = writeFrame;
-        if (wf == null) return false;  // Staging not initialized
+        if (wf == null) {  // Staging not initialized or pool briefly empty
+            stagingGap = true;
+            return false;
+        }
 
         // The only real work: memcpy into pre-allocated buffer
         System.arraycopy(data, offset, wf.data, 0, length);
         wf.length = length;
         wf.timestamp = frameCounter.getAndIncrement();
 
+        return publishWriteFrame(wf, usbNs);
+    }
+
+    /** Offer the filled writeFrame to the feeder and rotate in a pooled buffer. USB thread only.
+     *  Shared by feedDirect() and commitStagingBuffer() so drop accounting is identical. */
+    private boolean publishWriteFrame(StagedFrame wf, long usbNs) {
         // FIFO enqueue — feeder thread drains in order
+        wf.stagedNs = System.nanoTime();
+        wf.syncPoint = isSyncPoint(getNalType(wf.data, 0, wf.length));
+        wf.afterGap = stagingGap;
+        latencyTracer.onStaged(wf.timestamp, usbNs, wf.stagedNs);  // Before the offer publishes the frame
         if (stagingOffer(wf)) {
+            stagingGap = false;
+            signalFeeder();
             // Frame enqueued — get a fresh buffer from pool for next write
             writeFrame = framePool.poll();
             // writeFrame may be null briefly if feeder hasn't returned buffers yet.
-            // Next feedDirect() call will return false (null guard above). This is fine —
+            // Next feedDirect()/borrowStagingBuffer() call will return false/null. This is fine —
             // the feeder will return buffers to the pool within ~1ms.
         } else {
             // Queue full — drop incoming frame (preserves FIFO order of already-queued frames).
             // wf stays as writeFrame for reuse (data will be overwritten next call).
             stagingDropCount.incrementAndGet();
-            stagingOverwriteDetected = true;
-            int nalType = getNalType(wf.data, 0, wf.length);
-            if (nalType == NAL_IDR) {
+            stagingGap = true;
+            if (wf.syncPoint) {
                 long sessionTotal = sessionIdrDrops.incrementAndGet();
                 idrDropCount.incrementAndGet();
                 debugLog("STAGE queue-full IDR size=" + wf.length + " idrDrops=" + sessionTotal);
@@ -698,17 +1009,26 @@ public class H264Renderer {
     private void logStats() {
         long currentTime = System.currentTimeMillis();
         if (currentTime - lastPerfLogTime >= PERF_LOG_INTERVAL_MS) {
+            // Interval deltas — both counters are monotonic (the watchdog diffs them too)
+            long received = framesReceived.get();
+            long decoded = totalFramesDecoded.get();
+            long rx = received - framesReceivedAtLastLog;
+            long dec = decoded - framesDecodedAtLastLog;
+            framesReceivedAtLastLog = received;
+            framesDecodedAtLastLog = decoded;
+
             // Standard log (respects app log level)
-            log("[STATS] Decoded: " + totalFramesDecoded.get() + ", Resets: " + codecResetCount.get() +
-                    ", IDR drops(session): " + sessionIdrDrops.get());
+            log("[STATS] Decoded: " + dec + ", Resets: " + codecResetCount.get() +
+                    ", Reconfigures: " + reconfigureCount.get() + " (" + reconfigureBlackoutTotalMs.get() + "ms)" +
+                    ", IDR drops(session): " + sessionIdrDrops.get() +
+                    ", Frozen/corrupted(session): " + admission.getFrozenMs() + "/" + admission.getCorruptedMs() + "ms");
+            log("[LATENCY] p50/p95/p99/max us (session): " + latencyTracer.summary());
 
             // Pipeline diagnostic log (debug builds only, always outputs)
             // Format: Rx=received Dec=decoded InAvail=input_buffers Fed=successes
             //         LastIn/LastOut=ms since last callback, run/codec/surface=component states
-            long rx = framesReceived.getAndSet(0);
-            long dec = totalFramesDecoded.getAndSet(0);
             long successes = feedSuccesses.getAndSet(0);
-            int inAvail = codecAvailableBufferIndexes.size();
+            int inAvail = codecAvailableBufferIndexes.size() + retryInputIndexes.size();
             long lastInAge = lastInputCallbackTime > 0 ? currentTime - lastInputCallbackTime : -1;
             long lastOutAge = lastOutputCallbackTime > 0 ? currentTime - lastOutputCallbackTime : -1;
             boolean surfaceValid = surface != null && surface.isValid();
@@ -737,6 +1057,16 @@ public class H264Renderer {
               .append(" run=").append(running).append(" codec=").append(mCodec != null)
               .append(" surface=").append(surfaceValid);
 
+            // Feeder wakeups per second over the actual interval, and offer → queueInputBuffer latency
+            long wakeups = feederWakeups.get();
+            long intervalMs = lastPerfLogTime > 0 ? currentTime - lastPerfLogTime : PERF_LOG_INTERVAL_MS;
+            Map<String, Long> queueLat = latencyTracer.getStagedToQueuedStats();
+            sb.append(" FEEDER[").append(eventDrivenFeeder ? "signal" : "poll")
+              .append(" wake/s:").append((wakeups - feederWakeupsAtLastLog) * 1000 / Math.max(1, intervalMs))
+              .append(" q50:").append(queueLat.get("p50")).append("us")
+              .append(" q99:").append(queueLat.get("p99")).append("us]");
+            feederWakeupsAtLastLog = wakeups;
+
             // Staging drop counters (reset each interval)
             long stageDrops = stagingDropCount.getAndSet(0);
             long oversized = oversizedDropCount.getAndSet(0);
@@ -767,7 +1097,14 @@ public class H264Renderer {
             public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
                 if (codec != mCodec) return;
                 lastInputCallbackTime = System.currentTimeMillis();
-                codecAvailableBufferIndexes.offer(index);
+                if (codecAvailableBufferIndexes.offer(index)) {
+                    signalFeeder();
+                } else {
+                    long count = inputIndexOverflow.incrementAndGet();
+                    if (count == 1 || count % 100 == 0) {
+                        log("[VIDEO] Input index queue full, dropped index " + index + " (count=" + count + ")");
+                    }
+                }
                 // No feedCodec() — USB thread feeds directly via feedDirect()
             }
 
@@ -778,10 +1115,20 @@ public class H264Renderer {
 
                 if (info.size > 0) {
                     totalFramesDecoded.incrementAndGet();
+                    healthMonitor.onOutput();
+                    latencyTracer.onDecoded(info.presentationTimeUs, System.nanoTime());
                     if (!firstFrameLogged) {
                         firstFrameLogged = true;
                         log("[VIDEO] First frame decoded");
                     }
+                    long reconfigureStart = reconfigureStartNs;
+                    if (reconfigureStart != 0) {
+                        reconfigureStartNs = 0;
+                        long blackoutMs = (System.nanoTime() - reconfigureStart) / 1_000_000L;
+                        lastReconfigureBlackoutMs = blackoutMs;
+                        reconfigureBlackoutTotalMs.addAndGet(blackoutMs);
+                        log("[VIDEO] reconfigure blackout: " + blackoutMs + "ms");
+                    }
                 }
 
                 try {
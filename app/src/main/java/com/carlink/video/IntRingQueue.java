@@ -0,0 +1,89 @@
+package com.carlink.video;
+
+/**
+ * Bounded single-producer/single-consumer queue of non-negative ints.
+ *
+ * Replaces ConcurrentLinkedQueue&lt;Integer&gt; for the MediaCodec input-index handoff
+ * (codec callback thread → feeder thread): no boxing, no node per element, no CAS. The
+ * producer publishes a slot with one volatile write of {@code tail}, the consumer frees it
+ * with one volatile write of {@code head}.
+ *
+ * {@link #clear()} starts a new generation: every entry tagged before it — including one a
+ * producer is still publishing — is skipped by {@link #poll()} and {@link #isEmpty()}. This is
+ * what makes indices from a previous codec instance unusable after stop()/reset().
+ */
+final class IntRingQueue {
+    static final int EMPTY = -1;
+
+    private final int[] values;
+    private final int[] generations;
+    private final int mask;
+
+    private volatile long head = 0;  // written by consumer (and clear)
+    private volatile long tail = 0;  // written by producer
+    private volatile int generation = 0;
+
+    /** @param capacity power of two */
+    IntRingQueue(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        values = new int[capacity];
+        generations = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /** Producer thread only. @return false if full (value not queued) */
+    boolean offer(int value) {
+        long t = tail;
+        if (t - head >= values.length) return false;
+        int slot = (int) (t & mask);
+        values[slot] = value;
+        generations[slot] = generation;
+        tail = t + 1;  // volatile write publishes the slot
+        return true;
+    }
+
+    /** Consumer thread only. @return oldest value of the current generation, or {@link #EMPTY} */
+    int poll() {
+        long h = head;
+        while (h != tail) {
+            int slot = (int) (h & mask);
+            int value = values[slot];
+            boolean current = generations[slot] == generation;
+            head = ++h;
+            if (current) return value;
+            // Queued before the last clear() — stale, skip
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Consumer thread only. Discards stale entries at the head, so the answer matches what
+     * {@link #poll()} would return: false means poll() yields a value.
+     */
+    boolean isEmpty() {
+        long h = head;
+        long t = tail;
+        while (h != t) {
+            if (generations[(int) (h & mask)] == generation) break;
+            h++;  // Queued before the last clear() — stale, drop
+        }
+        if (h != head) head = h;
+        return h == t;
+    }
+
+    /** Approximate number of queued entries (stats only: may include stale ones; use isEmpty()). */
+    int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Invalidate everything queued so far. Call while the consumer is not polling
+     * (e.g. feeder stopped); callers serialize clear() among themselves (codecLock).
+     */
+    void clear() {
+        generation = generation + 1;
+        head = tail;
+    }
+}
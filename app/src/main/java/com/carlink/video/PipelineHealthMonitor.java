@@ -0,0 +1,233 @@
+package com.carlink.video;
+
+import com.carlink.util.Log2Histogram;
+import com.carlink.util.LogCallback;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Watchdog for a frozen decode pipeline. [SELF_HEALING]
+ *
+ * PROBLEM: A codec can enter a zombie state: alive by every observable metric, internally dead.
+ *   It is not null, it is running and its surface is valid, but:
+ *   - onInputBufferAvailable stops firing, OR
+ *   - getInputBuffer() returns null for recycled indices, OR
+ *   - onError never triggers (silent failure).
+ *   Evidence: H264_PIPELINE logged Rx:1330 Dec:0 for 65+ seconds without an error callback.
+ *
+ * DETECTION: a 1s tick takes snapshot deltas of two monotonic counters, input (frames received)
+ *   and output (frames decoded). This is O(1) with no buffer. Recovery is dispatched after
+ *   {@link #STALL_TICKS} consecutive ticks in which ALL of these hold:
+ *   1. the pipeline is active (caller's gate: running, surface valid)
+ *   2. input delta > 0 (frames are arriving, which rules out phone sleep and Siri)
+ *   3. output delta == 0 (the codec produces nothing)
+ *   4. the cooldown has elapsed
+ *   5. the grace period (3s) has elapsed since the last {@link #onPipelineStarted()}
+ *
+ * ACTION: the caller's recover runnable. H264Renderer dispatches reset() on the codec executor
+ *   (a full recreate), not flush(). Intel VPU (OMX.Intel.hw_vd.h264) does not reliably clear
+ *   poisoned reference surfaces on flush; see 15_REV57_DECODER_POISONING_ANALYSIS.md.
+ *
+ * COOLDOWN: stepped, never give up. After reset #1 wait 3s, after #2 5s, after #3 10s, then 15s.
+ *   The step count returns to 0 after 30s of healthy output. There is no exponential backoff,
+ *   because a frozen screen in a car is unacceptable at 32s+ intervals. More than 5 resets in
+ *   60s logs a severe warning, since that points to a persistent hardware fault.
+ *
+ * INCIDENTS: time-to-detect is measured from the start of the first stalled tick to dispatch.
+ *   Time-to-recover is measured from dispatch to the first output after it
+ *   ({@link #onOutput()}). Both are kept as histograms and logged for every incident.
+ *
+ * Plain JVM apart from the caller's suppliers; one daemon tick thread between
+ * onPipelineStarted() and shutdown().
+ */
+public final class PipelineHealthMonitor {
+    static final long TICK_MS = 1000;
+    static final int STALL_TICKS = 2;                      // 2s window smooths USB jitter (P99 7ms, max 30ms)
+    static final long GRACE_MS = 3000;                     // Covers codec startup latency
+    private static final long[] COOLDOWN_MS = {3000, 5000, 10000, 15000};
+    private static final long HEALTHY_RESET_MS = 30000;
+    private static final int STORM_RESETS = 5;
+    private static final long STORM_WINDOW_MS = 60000;
+
+    private final String name;
+    private final LongSupplier inputCounter;
+    private final LongSupplier outputCounter;
+    private final BooleanSupplier active;
+    private final Runnable recover;
+    private final LogCallback logCallback;
+
+    private ScheduledExecutorService scheduler;  // Guarded by this
+
+    // Tick state (tick thread only)
+    private long lastInput = 0;
+    private long lastOutput = 0;
+    private int stalledTicks = 0;
+    private long stallStartMs = 0;
+    private long healthySinceMs = 0;
+    private long lastRecoverMs = 0;
+    private final long[] recentRecoverMs = new long[STORM_RESETS + 1];  // Ring of dispatch times
+    private int recentRecoverCount = 0;
+
+    private volatile int consecutiveResets = 0;
+    private volatile long graceUntilMs = 0;
+    private volatile long recoveringSinceNs = 0;  // 0 = no incident awaiting output
+
+    // Session totals
+    private final AtomicLong incidents = new AtomicLong(0);
+    private final AtomicLong recovered = new AtomicLong(0);
+    private final Log2Histogram timeToDetectMs = new Log2Histogram();
+    private final Log2Histogram timeToRecoverMs = new Log2Histogram();
+    private volatile long lastTimeToDetectMs = -1;
+    private volatile long lastTimeToRecoverMs = -1;
+
+    /**
+     * @param inputCounter  monotonic count of units entering the pipeline
+     * @param outputCounter monotonic count of units leaving it
+     * @param active        false while the pipeline is legitimately idle (stopped, restarting, no surface)
+     * @param recover       called on the tick thread; should dispatch, not recover inline
+     */
+    public PipelineHealthMonitor(String name, LongSupplier inputCounter, LongSupplier outputCounter,
+                                 BooleanSupplier active, Runnable recover, LogCallback logCallback) {
+        this.name = name;
+        this.inputCounter = inputCounter;
+        this.outputCounter = outputCounter;
+        this.active = active;
+        this.recover = recover;
+        this.logCallback = logCallback;
+    }
+
+    /** Pipeline (re)started or its output rebound: start ticking if needed and begin a grace period. */
+    public synchronized void onPipelineStarted() {
+        graceUntilMs = nowMs() + GRACE_MS;
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, name + "-Watchdog");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Stop ticking. Cooldown state and incident stats are kept for the next onPipelineStarted(). */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /** A unit left the pipeline. Called per decoded frame — one volatile read when no incident is open. */
+    public void onOutput() {
+        long since = recoveringSinceNs;
+        if (since == 0) return;
+        recoveringSinceNs = 0;
+        long ms = (System.nanoTime() - since) / 1_000_000L;
+        recovered.incrementAndGet();
+        timeToRecoverMs.record(ms);
+        lastTimeToRecoverMs = ms;
+        log("Recovered: first output " + ms + "ms after reset #" + consecutiveResets);
+    }
+
+    private void tick() {
+        try {
+            long now = nowMs();
+            long input = inputCounter.getAsLong();
+            long output = outputCounter.getAsLong();
+            long inputDelta = input - lastInput;
+            long outputDelta = output - lastOutput;
+            lastInput = input;
+            lastOutput = output;
+
+            if (!active.getAsBoolean() || now < graceUntilMs) {
+                stalledTicks = 0;
+                return;
+            }
+
+            if (outputDelta > 0) {
+                stalledTicks = 0;
+                if (healthySinceMs == 0) {
+                    healthySinceMs = now;
+                } else if (consecutiveResets > 0 && now - healthySinceMs >= HEALTHY_RESET_MS) {
+                    log("Healthy for " + HEALTHY_RESET_MS / 1000 + "s, cooldown back to first step");
+                    consecutiveResets = 0;
+                }
+                return;
+            }
+            healthySinceMs = 0;
+
+            if (inputDelta <= 0) {  // Nothing arriving: source idle, not a frozen codec
+                stalledTicks = 0;
+                return;
+            }
+            if (stalledTicks++ == 0) stallStartMs = now - TICK_MS;
+            if (stalledTicks < STALL_TICKS) return;
+
+            int resets = consecutiveResets;
+            if (resets > 0 && now - lastRecoverMs < COOLDOWN_MS[Math.min(resets, COOLDOWN_MS.length) - 1]) {
+                return;  // Still stalled; dispatch once the cooldown allows
+            }
+            dispatchRecovery(now, inputDelta);
+        } catch (Exception e) {
+            log("Tick failed: " + e);
+        }
+    }
+
+    private void dispatchRecovery(long now, long inputDelta) {
+        long detectMs = now - stallStartMs;
+        int resets = consecutiveResets + 1;
+        consecutiveResets = resets;
+        lastRecoverMs = now;
+        stalledTicks = 0;
+        graceUntilMs = now + GRACE_MS;  // No second trigger before the reset has run
+
+        incidents.incrementAndGet();
+        timeToDetectMs.record(detectMs);
+        lastTimeToDetectMs = detectMs;
+        if (recoveringSinceNs != 0) {
+            log("Previous reset produced no output");
+        }
+        recoveringSinceNs = System.nanoTime();
+
+        recentRecoverMs[recentRecoverCount++ % recentRecoverMs.length] = now;
+        long nextCooldown = COOLDOWN_MS[Math.min(resets, COOLDOWN_MS.length) - 1];
+        log("Frozen pipeline: input +" + inputDelta + "/tick, no output for " + detectMs + "ms → reset #" + resets
+                + " (next cooldown " + nextCooldown / 1000 + "s)");
+        if (recentRecoverCount > STORM_RESETS
+                && now - recentRecoverMs[recentRecoverCount % recentRecoverMs.length] < STORM_WINDOW_MS) {
+            log("SEVERE: more than " + STORM_RESETS + " resets in " + STORM_WINDOW_MS / 1000
+                    + "s — persistent decoder fault likely");
+        }
+
+        recover.run();
+    }
+
+    /** Session totals: incidents, recovered, time-to-detect/recover (ms) histograms, current cooldown step. */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("incidents", incidents.get());
+        stats.put("recovered", recovered.get());
+        stats.put("recovering", recoveringSinceNs != 0);
+        stats.put("consecutiveResets", consecutiveResets);
+        stats.put("lastTimeToDetectMs", lastTimeToDetectMs);
+        stats.put("lastTimeToRecoverMs", lastTimeToRecoverMs);
+        stats.put("timeToDetectMs", timeToDetectMs.snapshot(1));
+        stats.put("timeToRecoverMs", timeToRecoverMs.snapshot(1));
+        return stats;
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    private void log(String message) {
+        logCallback.log("[WATCHDOG] " + name + ": " + message);
+    }
+}
@@ -4,8 +4,15 @@ import android.content.Context
 import android.hardware.usb.UsbManager
 import android.os.PowerManager
 import android.view.Surface
+import com.carlink.audio.AudioRingBuffer
 import com.carlink.audio.DualStreamAudioManager
 import com.carlink.audio.MicrophoneCaptureManager
+import com.carlink.capture.CaptureConfig
+import com.carlink.capture.CaptureRecorder
+import com.carlink.capture.CaptureReplaySink
+import com.carlink.capture.CaptureReplaySource
+import com.carlink.capture.CaptureReplayer
+import com.carlink.capture.ReplayTiming
 import com.carlink.logging.Logger
 import com.carlink.logging.logDebug
 import com.carlink.logging.logError
@@ -18,24 +25,35 @@ import com.carlink.platform.AudioConfig
 import com.carlink.platform.PlatformDetector
 import com.carlink.protocol.AdapterConfig
 import com.carlink.protocol.AdapterDriver
+import com.carlink.protocol.AdapterFileCache
 import com.carlink.protocol.AudioCommand
-import com.carlink.protocol.AudioDataMessage
+import com.carlink.protocol.AudioDataView
 import com.carlink.protocol.CommandMapping
 import com.carlink.protocol.CommandMessage
 import com.carlink.navigation.NavigationStateManager
+import com.carlink.protocol.InitPacing
 import com.carlink.protocol.MediaDataMessage
+import com.carlink.protocol.MediaJsonKey
 import com.carlink.protocol.MediaType
 import com.carlink.protocol.Message
 import com.carlink.protocol.MessageSerializer
 import com.carlink.protocol.PhoneType
 import com.carlink.protocol.PluggedMessage
+import com.carlink.protocol.RemoteCxCyMessage
+import com.carlink.protocol.RemoteDisplayMessage
+import com.carlink.protocol.SessionTelemetry
+import com.carlink.protocol.SessionTokenDecoder
+import com.carlink.protocol.SessionTokenMessage
 import com.carlink.protocol.UnpluggedMessage
 import com.carlink.protocol.VideoDataMessage
 import com.carlink.protocol.VideoStreamingSignal
+import com.carlink.transport.Transport
 import com.carlink.ui.settings.AdapterConfigPreference
 import com.carlink.ui.settings.MicSourceConfig
 import com.carlink.ui.settings.WiFiBandConfig
 import com.carlink.usb.UsbDeviceWrapper
+import com.carlink.usb.UsbReadEngine
+import com.carlink.usb.WriteCoalescing
 import com.carlink.util.AppExecutors
 import com.carlink.util.LogCallback
 import com.carlink.video.H264Renderer
@@ -46,6 +64,8 @@ import kotlinx.coroutines.cancel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import java.io.File
+import java.io.IOException
 import java.util.Timer
 import java.util.TimerTask
 import java.util.concurrent.atomic.AtomicReference
@@ -126,6 +146,10 @@ class CarlinkManager(
     private val currentState = AtomicReference(State.DISCONNECTED)
     val state: State get() = currentState.get()
 
+    // Phone/adapter telemetry from SESSION_TOKEN; null until the adapter sends it this session
+    private val currentTelemetry = AtomicReference<SessionTelemetry?>(null)
+    val sessionTelemetry: SessionTelemetry? get() = currentTelemetry.get()
+
     // Callback
     private var callback: Callback? = null
 
@@ -133,6 +157,53 @@ class CarlinkManager(
     private val usbManager = context.getSystemService(Context.USB_SERVICE) as UsbManager
     private var usbDevice: UsbDeviceWrapper? = null
 
+    /**
+     * USB IN read engine applied on the next start(). SYNC is the proven path;
+     * ASYNC keeps several UsbRequests in flight. Compare via usbStats.readEngine.
+     */
+    @Volatile var usbReadEngine: UsbReadEngine = UsbReadEngine.SYNC
+
+    /**
+     * USB OUT batching applied on the next start(); null sends one transfer per message.
+     * Tune maxBatchBytes/latencyBudgetUs against usbStats.writeQueues (transfersSaved, avgBatchWaitUs).
+     */
+    @Volatile var usbWriteCoalescing: WriteCoalescing? = null
+
+    /**
+     * Init sequence pacing applied on the next start(). The default keeps the 120ms gaps; compare
+     * shorter ones via the driver's connectToPluggedMs/connectToFirstVideoMs before changing it.
+     */
+    @Volatile var adapterInitPacing: InitPacing = InitPacing()
+
+    /**
+     * Raw USB session capture applied on the next start(); null (default) records nothing.
+     * Overhead and drops in usbStats.capture.
+     */
+    @Volatile var captureConfig: CaptureConfig? = null
+
+    /**
+     * H264-Feeder wakeups: true (default) blocks until a frame and a codec input buffer are
+     * signalled; false restores the 1ms poll. Applies immediately; compare via videoFeeder stats.
+     */
+    @Volatile var videoFeederEventDriven: Boolean = true
+        set(value) {
+            field = value
+            h264Renderer?.setEventDrivenFeeder(value)
+        }
+
+    /**
+     * IDR-protective video admission: after a lost frame, discard P-frames until the next
+     * keyframe, hold keyframes for a codec buffer, collapse backlog to the newest keyframe.
+     * false feeds everything as before. Applies immediately; frozen/corrupted time in videoAdmission stats.
+     */
+    @Volatile var videoIdrProtection: Boolean = true
+        set(value) {
+            field = value
+            h264Renderer?.setIdrProtection(value)
+        }
+    private var captureRecorder: CaptureRecorder? = null
+    private var captureReplayer: CaptureReplayer? = null
+
     // Wake lock to prevent CPU sleep during USB streaming
     // PARTIAL_WAKE_LOCK keeps CPU running but allows screen to turn off
     private val powerManager = context.getSystemService(Context.POWER_SERVICE) as PowerManager
@@ -224,6 +295,24 @@ class CarlinkManager(
     // Executors
     private val executors = AppExecutors()
 
+    // SESSION_TOKEN decryption, off the USB read thread
+    private val sessionTokenDecoder =
+        SessionTokenDecoder(
+            onTelemetry = { telemetry ->
+                // A token decoded after stop() belongs to the ended session
+                if (state != State.DISCONNECTED) {
+                    currentTelemetry.set(telemetry)
+                    logInfo(
+                        "[SESSION] ${telemetry.linkType} ${telemetry.phoneModel} (${telemetry.phoneOsVersion}), " +
+                            "conSpd=${telemetry.connectionSpeed}, conRate=${telemetry.connectionRate}, " +
+                            "box ${telemetry.boxModel} fw ${telemetry.boxFirmware}",
+                        tag = Logger.Tags.ADAPTR,
+                    )
+                }
+            },
+            onError = { error -> logWarn("[SESSION] $error", tag = Logger.Tags.ADAPTR) },
+        )
+
     // LogCallback for Java components
     private val logCallback = LogCallback { message -> log(message) }
 
@@ -353,6 +442,8 @@ class CarlinkManager(
                 executors,
                 platformInfo.hardwareH264DecoderName,
             )
+        h264Renderer?.setEventDrivenFeeder(videoFeederEventDriven)
+        h264Renderer?.setIdrProtection(videoIdrProtection)
 
         // Set keyframe callback - after codec reset, we need to request a new IDR frame
         // from the adapter. Without SPS/PPS + keyframe, the decoder cannot produce output.
@@ -472,6 +563,8 @@ class CarlinkManager(
         }
 
         log("Device found, opening")
+        device.readEngine = usbReadEngine
+        device.writeCoalescing = usbWriteCoalescing
         usbDevice = device
 
         if (!device.openWithPermission()) {
@@ -480,19 +573,34 @@ class CarlinkManager(
             return
         }
 
+        // Before the read loop starts, so the capture begins with the first transfer
+        captureRecorder = captureConfig?.let { CaptureRecorder(it, ::log).apply { start() } }
+        device.captureRecorder = captureRecorder
+
         // Create video processor for direct USB -> codec data flow
         // This bypasses message parsing for zero-copy performance (DIRECT_HANDOFF)
         val videoProcessor = createVideoProcessor()
+        val audioProcessor = createAudioProcessor()
 
         // Create and start adapter driver
         adapterDriver =
             AdapterDriver(
-                usbDevice = device,
+                transport = device,
                 messageHandler = ::handleMessage,
                 errorHandler = ::handleError,
                 logCallback = ::log,
                 videoProcessor = videoProcessor,
-            )
+                audioProcessor = audioProcessor,
+                audioDataHandler = ::handleAudioData,
+            ).also {
+                it.initPacing = adapterInitPacing
+                // Per-adapter upload cache keyed by VID:PID:serial (no serial → everything is sent)
+                it.fileCache =
+                    AdapterFileCache.open(
+                        context,
+                        device.serialNumber?.let { serial -> "%04x:%04x:%s".format(device.vendorId, device.productId, serial) },
+                    )
+            }
 
         // Determine initialization mode based on first-run state and pending changes
         val adapterConfigPref = AdapterConfigPreference.getInstance(context)
@@ -526,16 +634,17 @@ class CarlinkManager(
         log("[INIT] Mode: ${adapterConfigPref.getInitializationInfo()}")
         log("[INIT] Audio mode: ${if (refreshedConfig.audioTransferMode) "BLUETOOTH" else "ADAPTER"}")
 
-        adapterDriver?.start(refreshedConfig, initMode.name, pendingChanges)
-
-        // Mark first init completed and clear pending changes after successful start
-        // This runs in a coroutine to handle the suspend functions
-        CoroutineScope(Dispatchers.IO).launch {
-            if (initMode == AdapterConfigPreference.InitMode.FULL) {
-                adapterConfigPref.markFirstInitCompleted()
-            }
-            if (pendingChanges.isNotEmpty()) {
-                adapterConfigPref.clearPendingChanges()
+        // Mark first init completed and clear pending changes once the adapter has received the
+        // whole init sequence (start() returns before it is sent; an init cut short keeps both
+        // so the next connect repeats it). This runs in a coroutine to handle the suspend functions
+        adapterDriver?.start(refreshedConfig, initMode.name, pendingChanges) {
+            CoroutineScope(Dispatchers.IO).launch {
+                if (initMode == AdapterConfigPreference.InitMode.FULL) {
+                    adapterConfigPref.markFirstInitCompleted()
+                }
+                if (pendingChanges.isNotEmpty()) {
+                    adapterConfigPref.clearPendingChanges()
+                }
             }
         }
 
@@ -565,14 +674,22 @@ class CarlinkManager(
         currentPhoneType = null // Clear phone type on disconnect
         clearCachedMediaMetadata() // Clear stale metadata to prevent race conditions on reconnect
         activeVoiceMode = VoiceMode.NONE // Reset voice mode on disconnect
+        currentTelemetry.set(null)
         stopMicrophoneCapture()
 
+        captureReplayer?.stop()
+        captureReplayer = null
+
         adapterDriver?.stop()
         adapterDriver = null
 
         usbDevice?.close()
         usbDevice = null
 
+        // After the read loop has stopped: drain and finish the capture file
+        captureRecorder?.close()
+        captureRecorder = null
+
         // Stop audio
         if (audioInitialized) {
             audioManager?.release()
@@ -594,11 +711,15 @@ class CarlinkManager(
 
     /**
      * Send a key command.
+     *
+     * @return true if queued for the adapter (not yet transferred)
      */
     fun sendKey(command: CommandMapping): Boolean = adapterDriver?.sendCommand(command) ?: false
 
     /**
      * Send a multi-touch event.
+     *
+     * @return true if queued for the adapter (not yet transferred)
      */
     fun sendMultiTouch(touches: List<MessageSerializer.TouchPoint>): Boolean = adapterDriver?.sendMultiTouch(touches) ?: false
 
@@ -621,6 +742,8 @@ class CarlinkManager(
         CarlinkMediaBrowserService.mediaSessionToken = null
         mediaSessionManager = null
 
+        sessionTokenDecoder.shutdown()
+
         // Cancel coroutine scope to stop any in-flight coroutines that hold
         // references to this manager and its context
         scope.cancel()
@@ -634,6 +757,28 @@ class CarlinkManager(
     fun getPerformanceStats(): Map<String, Any> =
         buildMap {
             put("state", state.name)
+            sessionTelemetry?.let { put("sessionTelemetry", it.toString()) }
+            h264Renderer?.let {
+                put(
+                    "videoReconfigure",
+                    mapOf(
+                        "count" to it.reconfigureCount,
+                        "blackoutTotalMs" to it.reconfigureBlackoutTotalMs,
+                        "lastBlackoutMs" to it.lastReconfigureBlackoutMs,
+                    ),
+                )
+                put(
+                    "videoFeeder",
+                    mapOf(
+                        "eventDriven" to it.isEventDrivenFeeder,
+                        "wakeups" to it.feederWakeups,
+                        "offerToQueueUs" to it.offerToQueueStats,
+                    ),
+                )
+                put("videoAdmission", it.admissionStats)
+                put("videoWatchdog", it.watchdogStats)
+                put("videoLatency", it.latencyStats)
+            }
             adapterDriver?.getPerformanceStats()?.let { putAll(it) }
         }
 
@@ -658,6 +803,48 @@ class CarlinkManager(
         handleError("USB device physically disconnected")
     }
 
+    /**
+     * Replay a recorded capture (CaptureRecorder .bin + .json) through the live pipeline
+     * instead of the adapter: video into the renderer, audio into the audio manager,
+     * everything else through handleMessage. Ends any USB session first.
+     *
+     * @return false if the capture could not be opened
+     */
+    fun startCaptureReplay(
+        bin: File,
+        timing: ReplayTiming = ReplayTiming.Original,
+    ): Boolean {
+        stop()
+
+        val source =
+            try {
+                CaptureReplaySource.open(bin)
+            } catch (e: IOException) {
+                logError("[REPLAY] Cannot open ${bin.name}: ${e.message}", tag = Logger.Tags.ADAPTR)
+                return false
+            }
+
+        // stop() released audio; replay needs it like a live session
+        if (!audioInitialized) {
+            audioInitialized = audioManager?.initialize() ?: false
+        }
+        h264Renderer?.reset()
+
+        captureReplayer =
+            CaptureReplayer(source, createReplaySink(), timing, ::log).also {
+                it.start { stats ->
+                    source.close()
+                    logInfo("[REPLAY] Done: $stats", tag = Logger.Tags.ADAPTR)
+                }
+            }
+        return true
+    }
+
+    /** Stop a replay started with [startCaptureReplay]. */
+    fun stopCaptureReplay() {
+        stop()
+    }
+
     /**
      * Resets the H.264 video decoder/renderer.
      *
@@ -892,8 +1079,8 @@ class CarlinkManager(
 
                 // Feed video data to renderer (fallback when direct processing not used)
                 message.data?.let { data ->
-                    if (data.size > 20) {
-                        h264Renderer?.feedDirect(data, 20, data.size - 20)
+                    if (message.dataLength > 0) {
+                        h264Renderer?.feedDirect(data, message.dataOffset, message.dataLength)
                     }
                 }
             }
@@ -912,16 +1099,20 @@ class CarlinkManager(
                 // Video data already processed directly by videoProcessor (DIRECT_HANDOFF)
             }
 
-            is AudioDataMessage -> {
-                clearPairTimeout()
-                processAudioData(message)
-            }
-
             is MediaDataMessage -> {
                 clearPairTimeout()
                 processMediaMetadata(message)
             }
 
+            is SessionTokenMessage -> sessionTokenDecoder.decode(message.token)
+
+            is RemoteCxCyMessage -> {
+                logInfo("[VIDEO] Remote resolution: ${message.width}x${message.height}", tag = Logger.Tags.VIDEO)
+                h264Renderer?.onRemoteResolution(message.width, message.height)
+            }
+
+            is RemoteDisplayMessage -> logInfo("[VIDEO] $message", tag = Logger.Tags.VIDEO)
+
             is CommandMessage -> {
                 if (message.command == CommandMapping.REQUEST_HOST_UI) {
                     callback?.onHostUIPressed()
@@ -935,28 +1126,52 @@ class CarlinkManager(
 
             else -> {}
         }
-
-        // Handle audio commands for mic capture
-        if (message is AudioDataMessage && message.command != null) {
-            handleAudioCommand(message.command)
-        }
     }
 
-    private fun processAudioData(message: AudioDataMessage) {
-        // Handle volume ducking
-        message.volumeDuration?.let { duration ->
-            audioManager?.setDucking(message.volume)
-            return
+    /**
+     * Replay sink: the same handlers the adapter driver feeds. UNPLUGGED is dropped — it
+     * would restart a USB session in the middle of the replay.
+     */
+    private fun createReplaySink(): CaptureReplaySink =
+        object : CaptureReplaySink {
+            override fun onVideo(
+                data: ByteArray,
+                offset: Int,
+                length: Int,
+            ) {
+                h264Renderer?.feedDirect(data, offset, length)
+                handleMessage(VideoStreamingSignal)
+            }
+
+            override fun onAudio(view: AudioDataView) = handleAudioData(view)
+
+            override fun onMessage(message: Message) {
+                if (message !is UnpluggedMessage) handleMessage(message)
+            }
         }
 
-        // Skip command messages
-        if (message.command != null) return
+    /**
+     * AUDIO_DATA handler (USB read thread). [view] is reused for every packet and only
+     * valid during this call — see AudioDataView.
+     */
+    private fun handleAudioData(view: AudioDataView) {
+        clearPairTimeout()
+
+        when (view.kind) {
+            // Handle volume ducking
+            AudioDataView.Kind.VOLUME_DUCKING -> audioManager?.setDucking(view.volume)
+
+            // Handle audio commands for mic capture
+            AudioDataView.Kind.COMMAND -> handleAudioCommand(view.command)
 
-        // Skip if no audio data
-        val audioData = message.data ?: return
+            // Write audio with offset+length to avoid copy
+            AudioDataView.Kind.PCM -> {
+                val audioData = view.data ?: return
+                audioManager?.writeAudio(audioData, view.dataOffset, view.dataLength, view.audioType, view.decodeType)
+            }
 
-        // Write audio with offset+length to avoid copy
-        audioManager?.writeAudio(audioData, message.audioDataOffset, message.audioDataLength, message.audioType, message.decodeType)
+            AudioDataView.Kind.EMPTY -> {}
+        }
     }
 
     private fun handleAudioCommand(command: AudioCommand) {
@@ -1107,14 +1322,14 @@ class CarlinkManager(
     private fun processMediaMetadata(message: MediaDataMessage) {
         // Route NaviJSON to NavigationStateManager for cluster display
         if (message.type == MediaType.NAVI_JSON) {
-            NavigationStateManager.onNaviJson(message.payload)
+            message.fields?.let { NavigationStateManager.onNaviJson(it) }
             return
         }
 
-        val payload = message.payload
+        val fields = message.fields
 
         // Extract new song title (if present)
-        val newSongName = (payload["MediaSongName"] as? String)?.takeIf { it.isNotEmpty() }
+        val newSongName = fields?.string(MediaJsonKey.MEDIA_SONG_NAME)?.takeIf { it.isNotEmpty() }
 
         // If song title changed, clear all cached metadata to prevent stale data mixing
         if (newSongName != null && newSongName != lastMediaSongName) {
@@ -1129,18 +1344,18 @@ class CarlinkManager(
         newSongName?.let {
             lastMediaSongName = it
         }
-        (payload["MediaArtistName"] as? String)?.takeIf { it.isNotEmpty() }?.let {
+        fields?.string(MediaJsonKey.MEDIA_ARTIST_NAME)?.takeIf { it.isNotEmpty() }?.let {
             lastMediaArtistName = it
         }
-        (payload["MediaAlbumName"] as? String)?.takeIf { it.isNotEmpty() }?.let {
+        fields?.string(MediaJsonKey.MEDIA_ALBUM_NAME)?.takeIf { it.isNotEmpty() }?.let {
             lastMediaAlbumName = it
         }
-        (payload["MediaAPPName"] as? String)?.takeIf { it.isNotEmpty() }?.let {
+        fields?.string(MediaJsonKey.MEDIA_APP_NAME)?.takeIf { it.isNotEmpty() }?.let {
             lastMediaAppName = it
         }
 
         // Process album cover after song change detection
-        val albumCover = payload["AlbumCover"] as? ByteArray
+        val albumCover = message.albumCover
         if (albumCover != null) {
             lastAlbumCover = albumCover
         }
@@ -1418,15 +1633,15 @@ class CarlinkManager(
                 // OPTIMIZATION: Send immediate keyframe request on start for faster video recovery
                 // Research: pi-carplay-main achieves near-instant recovery by not delaying first request
                 // This ensures keyframe is requested immediately after reset/resume, not after 2s delay
-                val immediateSent = adapterDriver?.sendCommand(CommandMapping.FRAME) ?: false
-                logInfo("[FRAME_INTERVAL] Immediate keyframe request sent=$immediateSent", tag = Logger.Tags.VIDEO)
+                val immediateQueued = adapterDriver?.sendCommand(CommandMapping.FRAME) ?: false
+                logInfo("[FRAME_INTERVAL] Immediate keyframe request queued=$immediateQueued", tag = Logger.Tags.VIDEO)
 
                 var requestCount = 0
                 while (isActive) {
                     delay(2000)
                     requestCount++
-                    val sent = adapterDriver?.sendCommand(CommandMapping.FRAME) ?: false
-                    logDebug("[FRAME_INTERVAL] Keyframe request #$requestCount sent=$sent", tag = Logger.Tags.VIDEO)
+                    val queued = adapterDriver?.sendCommand(CommandMapping.FRAME) ?: false
+                    logDebug("[FRAME_INTERVAL] Keyframe request #$requestCount queued=$queued", tag = Logger.Tags.VIDEO)
                 }
                 logDebug("[FRAME_INTERVAL] Coroutine ended after $requestCount requests", tag = Logger.Tags.VIDEO)
             }
@@ -1458,8 +1673,8 @@ class CarlinkManager(
      * - offset 12: pts (4 bytes) - SOURCE PRESENTATION TIMESTAMP (milliseconds)
      * - offset 16: flags (4 bytes) - always 0
      */
-    private fun createVideoProcessor(): UsbDeviceWrapper.VideoDataProcessor {
-        return object : UsbDeviceWrapper.VideoDataProcessor {
+    private fun createVideoProcessor(): Transport.VideoDataProcessor {
+        return object : Transport.VideoDataProcessor {
             override fun processVideoDirect(data: ByteArray, dataLength: Int, sourcePtsMs: Int) {
                 val renderer = h264Renderer ?: run {
                     // Data already read by UsbDeviceWrapper — just discard by returning
@@ -1478,6 +1693,51 @@ class CarlinkManager(
                     renderer.feedDirect(data, 20, dataLength - 20)
                 }
             }
+
+            // [ZERO_COPY_STAGING]: USB loop reads H.264 data straight into the renderer's staging slot
+            override val supportsFrameLease: Boolean get() = true
+
+            override fun borrowFrameBuffer(length: Int): ByteArray? {
+                val renderer = h264Renderer ?: run {
+                    // Returning null makes the read loop skip the payload
+                    val now = System.currentTimeMillis()
+                    if (now - lastVideoDiscardWarningTime > 2000) {
+                        lastVideoDiscardWarningTime = now
+                        logWarn("Video frame discarded - H264Renderer not initialized.", tag = Logger.Tags.VIDEO)
+                    }
+                    return null
+                }
+                return renderer.borrowStagingBuffer(length)
+            }
+
+            override fun commitFrame(length: Int, sourcePtsMs: Int) {
+                logVideoUsb { "commitFrame: length=$length, pts=$sourcePtsMs" }
+                h264Renderer?.commitStagingBuffer(length)
+            }
+
+            override fun abortFrame() {
+                h264Renderer?.abortStagingBuffer()
+            }
+        }
+    }
+
+    /**
+     * Create audio processor for in-place PCM ingest.
+     * [ZERO_COPY_AUDIO]: USB loop reads PCM straight into the stream's AudioRingBuffer.
+     * Returning null from reserveAudio() sends the packet through handleMessage() as before.
+     */
+    private fun createAudioProcessor(): Transport.AudioDataProcessor {
+        return object : Transport.AudioDataProcessor {
+            override fun reserveAudio(audioType: Int, decodeType: Int, pcmLength: Int): AudioRingBuffer.Reservation? =
+                audioManager?.reserveDirectWrite(audioType, decodeType, pcmLength)
+
+            override fun commitAudio(reservation: AudioRingBuffer.Reservation, audioType: Int, decodeType: Int) {
+                audioManager?.commitDirectWrite(reservation, audioType, decodeType)
+            }
+
+            override fun abortAudio(reservation: AudioRingBuffer.Reservation) {
+                audioManager?.abortDirectWrite()
+            }
         }
     }
 
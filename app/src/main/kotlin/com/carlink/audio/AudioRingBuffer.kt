@@ -17,6 +17,11 @@ package com.carlink.audio
  * boundaries (channels * 2 bytes for 16-bit audio) to prevent audio corruption.
  * See: https://developer.android.com/reference/android/media/AudioFormat
  *
+ * IN-PLACE WRITES:
+ * reserve() hands the writer a region of the backing array (wrapping at its end) so the
+ * USB thread can read PCM straight into it; commit() publishes it to the reader.
+ * Overflow discard happens at reserve() time, exactly as in write().
+ *
  * BUFFER SIZING:
  * - Media stream: 200-300ms recommended (absorbs adapter jitter)
  * - Navigation stream: 100-150ms recommended (lower latency for prompts)
@@ -39,7 +44,7 @@ class AudioRingBuffer(
 
     @Volatile private var writePos = 0 // Only modified by writer thread
 
-    @Volatile private var readPos = 0 // Modified by reader thread; also by writer during overflow (see write())
+    @Volatile private var readPos = 0 // Modified by reader thread; also by writer during overflow (see makeRoom())
 
     @Volatile var totalBytesWritten: Long = 0
         private set
@@ -56,6 +61,22 @@ class AudioRingBuffer(
     @Volatile var discardedBytes: Long = 0
         private set
 
+    /**
+     * Writable region of the backing array: [length] bytes from [offset], continuing at
+     * index 0 after the last index of [buffer]. Reused per ring — only one reservation
+     * may be outstanding (single writer).
+     */
+    class Reservation internal constructor(
+        val buffer: ByteArray,
+    ) {
+        var offset: Int = 0
+            internal set
+        var length: Int = 0
+            internal set
+    }
+
+    private val reservation = Reservation(buffer)
+
     /**
      * Write data to ring buffer (non-blocking, overwrite-oldest when full).
      * @return Bytes written (always equals length - oldest data discarded if full)
@@ -65,6 +86,52 @@ class AudioRingBuffer(
         offset: Int = 0,
         length: Int = data.size - offset,
     ): Int {
+        val available = makeRoom(length)
+
+        val toWrite = minOf(length, available)
+        val localWritePos = writePos
+
+        val firstChunk = minOf(toWrite, capacity - localWritePos)
+        System.arraycopy(data, offset, buffer, localWritePos, firstChunk)
+
+        if (toWrite > firstChunk) {
+            val secondChunk = toWrite - firstChunk
+            System.arraycopy(data, offset + firstChunk, buffer, 0, secondChunk)
+        }
+
+        writePos = (localWritePos + toWrite) % capacity
+        totalBytesWritten += toWrite
+
+        return toWrite
+    }
+
+    /**
+     * Reserve [length] bytes for an in-place write (non-blocking, overwrite-oldest when full).
+     * Fill the region, then [commit] it; dropping the reservation without commit is an abort.
+     *
+     * @return Region to fill, or null if length exceeds what the ring can ever hold
+     */
+    fun reserve(length: Int): Reservation? {
+        if (length > capacity - 1) return null
+        makeRoom(length)
+        reservation.offset = writePos
+        reservation.length = length
+        return reservation
+    }
+
+    /**
+     * Publish a filled reservation to the reader.
+     */
+    fun commit(region: Reservation) {
+        writePos = (region.offset + region.length) % capacity
+        totalBytesWritten += region.length
+    }
+
+    /**
+     * Ensure [length] bytes are writable, discarding oldest data if needed.
+     * @return Bytes now available for write
+     */
+    private fun makeRoom(length: Int): Int {
         var available = availableForWrite()
 
         // Overwrite-oldest: discard oldest data when full (Session 4 overflow=568 fix)
@@ -84,22 +151,7 @@ class AudioRingBuffer(
             overflowCount++
             available = availableForWrite()
         }
-
-        val toWrite = minOf(length, available)
-        val localWritePos = writePos
-
-        val firstChunk = minOf(toWrite, capacity - localWritePos)
-        System.arraycopy(data, offset, buffer, localWritePos, firstChunk)
-
-        if (toWrite > firstChunk) {
-            val secondChunk = toWrite - firstChunk
-            System.arraycopy(data, offset + firstChunk, buffer, 0, secondChunk)
-        }
-
-        writePos = (localWritePos + toWrite) % capacity
-        totalBytesWritten += toWrite
-
-        return toWrite
+        return available
     }
 
     /**
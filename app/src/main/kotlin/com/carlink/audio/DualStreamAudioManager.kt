@@ -57,7 +57,7 @@ object AudioStreamType {
  * - Automatic format switching per stream
  *
  * THREAD SAFETY:
- * - writeAudio() called from USB thread (non-blocking)
+ * - writeAudio() / reserveDirectWrite() / commitDirectWrite() called from USB thread (non-blocking)
  * - Playback thread handles AudioTrack writes
  * - Volume/ducking can be called from any thread
  */
@@ -90,6 +90,9 @@ class DualStreamAudioManager(
     private var lastStatsLog: Long = 0
     private var zeroPacketsFiltered: Long = 0
 
+    // Ring that granted the outstanding in-place reservation (USB thread only)
+    private var directReservationOwner: AudioRingBuffer? = null
+
     private val bufferMultiplier = audioConfig.bufferMultiplier
     private val playbackChunkSize = audioConfig.sampleRate * 2 * 2 * 5 / 1000
     private val prefillThresholdMs = audioConfig.prefillThresholdMs
@@ -158,6 +161,13 @@ class DualStreamAudioManager(
         }
     }
 
+    /**
+     * Byte at logical position [pos], wrapping to index 0 past the end of [data].
+     * Lets the filters below run over ring buffer reservations that wrap; for plain
+     * arrays positions never reach data.size so this is a direct index.
+     */
+    private fun pcmByte(data: ByteArray, pos: Int): Byte = data[if (pos >= data.size) pos - data.size else pos]
+
     /**
      * Check if audio data is zero-filled (adapter issue).
      * Real audio has dithering noise even during silence.
@@ -177,8 +187,8 @@ class DualStreamAudioManager(
 
         for (pos in positions) {
             if (pos + 4 > end) continue
-            if (data[pos] != 0.toByte() || data[pos + 1] != 0.toByte() ||
-                data[pos + 2] != 0.toByte() || data[pos + 3] != 0.toByte()
+            if (pcmByte(data, pos) != 0.toByte() || pcmByte(data, pos + 1) != 0.toByte() ||
+                pcmByte(data, pos + 2) != 0.toByte() || pcmByte(data, pos + 3) != 0.toByte()
             ) {
                 return false
             }
@@ -206,8 +216,8 @@ class DualStreamAudioManager(
 
         for (pos in positions) {
             if (pos + 3 >= end) continue
-            if (data[pos] != 0xFF.toByte() || data[pos + 1] != 0xFF.toByte() ||
-                data[pos + 2] != 0xFF.toByte() || data[pos + 3] != 0xFF.toByte()
+            if (pcmByte(data, pos) != 0xFF.toByte() || pcmByte(data, pos + 1) != 0xFF.toByte() ||
+                pcmByte(data, pos + 2) != 0xFF.toByte() || pcmByte(data, pos + 3) != 0xFF.toByte()
             ) {
                 return false
             }
@@ -231,7 +241,7 @@ class DualStreamAudioManager(
             val pos = offset + (((length * i) / sampleCount) and 0x7FFFFFFE)
             if (pos + 1 >= end) continue
 
-            val sample = (data[pos].toInt() and 0xFF) or ((data[pos + 1].toInt() and 0xFF) shl 8)
+            val sample = (pcmByte(data, pos).toInt() and 0xFF) or ((pcmByte(data, pos + 1).toInt() and 0xFF) shl 8)
             val signedSample = if (sample >= 32768) sample - 65536 else sample
 
             if (signedSample in -258..2) nearSilenceCount++
@@ -267,6 +277,67 @@ class DualStreamAudioManager(
         dataLength: Int,
         audioType: Int,
         decodeType: Int,
+    ): Int = routeAudio(data, dataOffset, dataLength, audioType, decodeType, null)
+
+    /**
+     * Reserve ring space so the USB thread can read [length] PCM bytes straight into it.
+     * [ZERO_COPY_AUDIO] Follow with [commitDirectWrite] once the region is filled.
+     *
+     * Only granted when the target stream is already playing in the packet's format —
+     * ensureMediaTrack()/ensureNavTrack() would then be no-ops, so running the filters
+     * after the data lands changes nothing. Stream start, format changes, paused tracks
+     * and stopped nav fall back to writeAudio() (return null).
+     */
+    fun reserveDirectWrite(
+        audioType: Int,
+        decodeType: Int,
+        length: Int,
+    ): AudioRingBuffer.Reservation? {
+        if (!isRunning.get()) return null
+        val format = AudioFormats.fromDecodeType(decodeType)
+
+        val (track, trackFormat, buffer) =
+            if (audioType == AudioStreamType.NAVIGATION) {
+                if (navStopped) return null
+                Triple(navTrack, navFormat, navBuffer)
+            } else {
+                Triple(mediaTrack, mediaFormat, mediaBuffer)
+            }
+
+        if (track == null || buffer == null || trackFormat != format) return null
+        if (track.playState == AudioTrack.PLAYSTATE_PAUSED) return null
+        return buffer.reserve(length)?.also { directReservationOwner = buffer }
+    }
+
+    /**
+     * Filter a filled reservation in place and publish it (or drop it) with the same
+     * rules as writeAudio(). Returns bytes written.
+     */
+    fun commitDirectWrite(
+        reservation: AudioRingBuffer.Reservation,
+        audioType: Int,
+        decodeType: Int,
+    ): Int = routeAudio(reservation.buffer, reservation.offset, reservation.length, audioType, decodeType, reservation)
+
+    /**
+     * Drop the outstanding reservation after a failed read. Nothing was committed, so the
+     * ring's write position is unchanged; only the owner record is released.
+     */
+    fun abortDirectWrite() {
+        directReservationOwner = null
+    }
+
+    /**
+     * Shared filter + routing for copied and in-place writes.
+     * With [reservation] the data already sits in the ring: publish via commit() instead of write().
+     */
+    private fun routeAudio(
+        data: ByteArray,
+        dataOffset: Int,
+        dataLength: Int,
+        audioType: Int,
+        decodeType: Int,
+        reservation: AudioRingBuffer.Reservation?,
     ): Int {
         if (!isRunning.get()) return -1
 
@@ -289,7 +360,7 @@ class DualStreamAudioManager(
         if (BuildConfig.DEBUG && writeCount % 500 == 1L) {
             val firstBytes =
                 (dataOffset until minOf(dataOffset + 16, dataOffset + dataLength)).joinToString(" ") {
-                    String.format(java.util.Locale.US, "%02X", data[it])
+                    String.format(java.util.Locale.US, "%02X", pcmByte(data, it))
                 }
             val bufferStats =
                 mediaBuffer?.let {
@@ -366,7 +437,7 @@ class DualStreamAudioManager(
                     return 0
                 }
 
-                val bytesWritten = navBuffer?.write(data, dataOffset, dataLength) ?: -1
+                val bytesWritten = publish(navBuffer, data, dataOffset, dataLength, reservation)
                 if (bytesWritten > 0) {
                     navPackets++
                     AudioDebugLogger.logNavBufferWrite(bytesWritten, navBuffer?.fillLevelMs() ?: 0, timeSinceStart)
@@ -377,11 +448,28 @@ class DualStreamAudioManager(
             else -> {
                 // All non-nav audio (media, Siri, phone call, alert) → media track
                 ensureMediaTrack(decodeType)
-                mediaBuffer?.write(data, dataOffset, dataLength) ?: -1
+                publish(mediaBuffer, data, dataOffset, dataLength, reservation)
             }
         }
     }
 
+    private fun publish(
+        buffer: AudioRingBuffer?,
+        data: ByteArray,
+        dataOffset: Int,
+        dataLength: Int,
+        reservation: AudioRingBuffer.Reservation?,
+    ): Int {
+        buffer ?: return -1
+        if (reservation == null) return buffer.write(data, dataOffset, dataLength)
+
+        // Ring was recreated between reserve and commit — region belongs to a dead buffer
+        if (directReservationOwner !== buffer) return -1
+        directReservationOwner = null
+        buffer.commit(reservation)
+        return dataLength
+    }
+
     /** Set media ducking (Len=16 volume packets from adapter). */
     fun setDucking(targetVolume: Float) {
         synchronized(lock) {
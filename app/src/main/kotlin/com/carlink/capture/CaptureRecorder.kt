@@ -0,0 +1,504 @@
+package com.carlink.capture
+
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.PROTOCOL_MAGIC
+import com.carlink.protocol.readIntLE
+import com.carlink.util.Log2Histogram
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Location and limits for a [CaptureRecorder].
+ *
+ * @param directory Where capture .bin/.json pairs are written (created if missing)
+ * @param maxFileBytes A .bin is rotated at the first frame boundary past this size
+ * @param maxFiles Capture pairs kept in [directory]; the oldest are deleted on rotation
+ * @param ringBytes USB thread → writer handoff ring, power of two. Transfers that do not fit
+ *                  are dropped (counted, marked as a gap), never waited for
+ * @param overheadBudget Max fraction of read-loop wall time spent in the tap, checked per
+ *                       second; recording stops when a window exceeds it
+ */
+data class CaptureConfig(
+    val directory: File,
+    val maxFileBytes: Long = 256L * 1024 * 1024,
+    val maxFiles: Int = 4,
+    val ringBytes: Int = 4 * 1024 * 1024,
+    val overheadBudget: Double = 0.01,
+) {
+    init {
+        require(ringBytes > 0 && ringBytes and (ringBytes - 1) == 0) { "ringBytes must be a power of two" }
+        require(maxFiles >= 1) { "maxFiles must be >= 1" }
+    }
+}
+
+/**
+ * Records the raw USB IN stream of a session to disk.
+ *
+ * PROBLEM:
+ * Field issues (gminfo radio) could only be described, not reproduced. capture_playback.md
+ * defines a .bin + .json capture format, but nothing in this codebase recorded one, and the
+ * read loop cannot afford to block on disk.
+ *
+ * SOLUTION:
+ * [onReceived] is tapped into the USB read path after every bulk transfer. It copies the
+ * bytes and a monotonic timestamp into a preallocated single-producer/single-consumer ring
+ * and publishes them with one ordered store — no locks, no allocation, no I/O. A full ring
+ * drops the transfer (counted, and the next record is flagged as a gap).
+ *
+ * A Capture-Writer thread drains the ring into a memory-mapped .bin (mapped in
+ * [MAP_WINDOW_BYTES] windows), so the stream lands on disk exactly as the adapter sent it —
+ * the carlink_native layout: 16-byte protocol header + payload, back to back. While
+ * writing, it walks the frame headers and builds the per-packet index (seq, type,
+ * timestampUs, offset, length) that is written as the matching .json when the file is
+ * finished. Files rotate at frame boundaries ([CaptureConfig.maxFileBytes]) and the
+ * directory keeps at most [CaptureConfig.maxFiles] captures.
+ *
+ * Tap cost per transfer is kept in a [Log2Histogram] next to the transport's own stats, and
+ * enforced against [CaptureConfig.overheadBudget].
+ *
+ * Threading: [onReceived] from the read loop thread only; [start]/[close] from the owner.
+ */
+class CaptureRecorder(
+    private val config: CaptureConfig,
+    private val logCallback: (String) -> Unit,
+) {
+    private val ring = ByteArray(config.ringBytes)
+    private val mask = (config.ringBytes - 1).toLong()
+    private val writePos = AtomicLong(0) // Published by the producer
+    private val readPos = AtomicLong(0) // Published by the writer
+
+    @Volatile private var recording = false
+    private var writerThread: Thread? = null
+    private var startNs = 0L
+    private var startedAtMs = 0L
+    private var sessionStamp = ""
+
+    @Volatile var stopReason: String? = null
+        private set
+
+    // Producer state (read loop thread only; @Volatile for stats readers)
+    private val tapNs = Log2Histogram()
+    @Volatile private var transfers = 0L
+    @Volatile private var droppedTransfers = 0L
+    @Volatile private var droppedBytes = 0L
+    private var gapPending = false
+    private var budgetWindowStartNs = 0L
+    private var budgetWindowTapNs = 0L
+
+    // Writer state (Capture-Writer thread only; @Volatile for stats readers)
+    private var scratch = ByteArray(64 * 1024)
+    private var channel: FileChannel? = null
+    private var window: MappedByteBuffer? = null
+    private var baseName = ""
+    private var fileIndex = 0
+    @Volatile private var fileBytes = 0L
+    @Volatile private var totalBytes = 0L
+    @Volatile private var filesWritten = 0
+    private val index = PacketIndex()
+    private var seqBase = 0L
+    private val headerBuf = ByteArray(HEADER_SIZE)
+    private var headerFill = 0
+    private var payloadRemaining = 0
+    private var frameOffset = 0L
+    private var frameTimestampNs = 0L
+    private var frameType = 0
+    private var frameLength = 0
+    @Volatile private var gaps = 0
+    @Volatile private var invalidHeaderBytes = 0L
+
+    val isRecording: Boolean get() = recording
+
+    fun start() {
+        if (recording || writerThread != null) return
+        startNs = System.nanoTime()
+        startedAtMs = System.currentTimeMillis()
+        sessionStamp = SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(Date(startedAtMs))
+        budgetWindowStartNs = startNs
+        recording = true
+
+        writerThread =
+            Thread(::writerLoop, "Capture-Writer").apply {
+                isDaemon = true
+                priority = Thread.NORM_PRIORITY - 1
+                start()
+            }
+        log("Recording to ${config.directory} (max ${config.maxFileBytes / (1024 * 1024)}MB x ${config.maxFiles})")
+    }
+
+    /**
+     * Stop recording, drain the ring and finish the current file. Call after the read loop
+     * has stopped.
+     */
+    fun close() {
+        if (recording) stopReason = stopReason ?: "closed"
+        recording = false
+        val thread = writerThread ?: return
+        LockSupport.unpark(thread)
+        try {
+            thread.join(WRITER_JOIN_TIMEOUT_MS)
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        writerThread = null
+    }
+
+    /**
+     * Tap: one bulk IN transfer as received. Read loop thread only; never blocks.
+     */
+    fun onReceived(
+        data: ByteArray,
+        offset: Int,
+        length: Int,
+    ) {
+        if (!recording || length <= 0) return
+        val now = System.nanoTime()
+
+        val head = writePos.get()
+        val recordSize = RECORD_HEADER_SIZE + length
+        if (recordSize > ring.size - (head - readPos.get())) {
+            droppedTransfers++
+            droppedBytes += length
+            gapPending = true
+        } else {
+            putIntAt(head, length)
+            putIntAt(head + 4, if (gapPending) FLAG_GAP else 0)
+            putIntAt(head + 8, (now ushr 32).toInt())
+            putIntAt(head + 12, now.toInt())
+            copyIntoRing(data, offset, length, head + RECORD_HEADER_SIZE)
+            gapPending = false
+            writePos.lazySet(head + recordSize)
+            transfers++
+        }
+
+        val end = System.nanoTime()
+        tapNs.record(end - now)
+        checkBudget(end, end - now)
+    }
+
+    /**
+     * Tap cost, drops and output. tapUs is per transfer; compare against the transport's
+     * readEngine/traffic stats from the same session.
+     */
+    fun getStats(): Map<String, Any> =
+        mapOf(
+            "recording" to recording,
+            "stopReason" to (stopReason ?: ""),
+            "file" to baseName,
+            "filesWritten" to filesWritten,
+            "bytesWritten" to totalBytes,
+            "transfers" to transfers,
+            "droppedTransfers" to droppedTransfers,
+            "droppedBytes" to droppedBytes,
+            "gaps" to gaps,
+            "invalidHeaderBytes" to invalidHeaderBytes,
+            "ringUsed" to (writePos.get() - readPos.get()),
+            "tapUs" to tapNs.snapshot(1000),
+        )
+
+    // ==================== Producer ====================
+
+    private fun checkBudget(
+        now: Long,
+        cost: Long,
+    ) {
+        budgetWindowTapNs += cost
+        val elapsed = now - budgetWindowStartNs
+        if (elapsed < BUDGET_WINDOW_NS) return
+        if (budgetWindowTapNs > elapsed * config.overheadBudget) {
+            stopReason =
+                "over budget: ${budgetWindowTapNs / 1000}us in ${elapsed / 1_000_000}ms " +
+                "(limit ${(config.overheadBudget * 100)}%)"
+            recording = false
+            log("Recording stopped, $stopReason")
+        }
+        budgetWindowStartNs = now
+        budgetWindowTapNs = 0
+    }
+
+    private fun putIntAt(
+        pos: Long,
+        value: Int,
+    ) {
+        for (i in 0 until 4) {
+            ring[((pos + i) and mask).toInt()] = (value ushr (8 * i)).toByte()
+        }
+    }
+
+    private fun copyIntoRing(
+        src: ByteArray,
+        srcOffset: Int,
+        length: Int,
+        pos: Long,
+    ) {
+        val physical = (pos and mask).toInt()
+        val first = minOf(length, ring.size - physical)
+        System.arraycopy(src, srcOffset, ring, physical, first)
+        if (length > first) System.arraycopy(src, srcOffset + first, ring, 0, length - first)
+    }
+
+    // ==================== Writer ====================
+
+    private fun writerLoop() {
+        try {
+            config.directory.mkdirs()
+            pruneOldFiles()
+            openFile()
+            while (true) {
+                val tail = readPos.get()
+                if (tail == writePos.get()) {
+                    if (!recording) break
+                    LockSupport.parkNanos(WRITER_IDLE_NS)
+                    continue
+                }
+
+                val length = getIntAt(tail)
+                val flags = getIntAt(tail + 4)
+                val timestampNs = (getIntAt(tail + 8).toLong() shl 32) or (getIntAt(tail + 12).toLong() and 0xFFFFFFFFL)
+                if (scratch.size < length) scratch = ByteArray(maxOf(length, scratch.size * 2))
+                copyFromRing(tail + RECORD_HEADER_SIZE, scratch, length)
+                readPos.lazySet(tail + RECORD_HEADER_SIZE + length) // Space is free once copied out
+
+                if (flags and FLAG_GAP != 0) onGap()
+                append(scratch, length, timestampNs)
+            }
+        } catch (e: IOException) {
+            stopReason = "I/O error: ${e.message}"
+            recording = false
+            log("Recording stopped, $stopReason")
+        } finally {
+            try {
+                finishFile()
+            } catch (e: IOException) {
+                log("Failed to finish $baseName: ${e.message}")
+            }
+            log("Recording finished: $filesWritten file(s), $totalBytes bytes, $droppedTransfers dropped transfers")
+        }
+    }
+
+    /**
+     * Write [length] bytes to the .bin while following the frame structure for the index.
+     */
+    private fun append(
+        data: ByteArray,
+        length: Int,
+        timestampNs: Long,
+    ) {
+        var pos = 0
+        while (pos < length) {
+            if (payloadRemaining > 0) {
+                val n = minOf(payloadRemaining, length - pos)
+                write(data, pos, n)
+                pos += n
+                payloadRemaining -= n
+                if (payloadRemaining == 0) endFrame()
+            } else {
+                if (headerFill == 0) {
+                    frameOffset = fileBytes
+                    frameTimestampNs = timestampNs
+                }
+                val n = minOf(HEADER_SIZE - headerFill, length - pos)
+                System.arraycopy(data, pos, headerBuf, headerFill, n)
+                write(data, pos, n)
+                pos += n
+                headerFill += n
+                if (headerFill == HEADER_SIZE) checkHeader()
+            }
+        }
+    }
+
+    private fun checkHeader() {
+        val magic = readIntLE(headerBuf, 0)
+        val length = readIntLE(headerBuf, 4)
+        val type = readIntLE(headerBuf, 8)
+        val check = readIntLE(headerBuf, 12)
+        if (magic == PROTOCOL_MAGIC && check == type.inv() && length in 0..MAX_FRAME_PAYLOAD) {
+            frameType = type
+            frameLength = length
+            headerFill = 0
+            payloadRemaining = length
+            if (length == 0) endFrame()
+        } else {
+            // Not a header here (corrupt stream or after a gap): slide by one byte, like the demuxer's resync
+            System.arraycopy(headerBuf, 1, headerBuf, 0, HEADER_SIZE - 1)
+            headerFill = HEADER_SIZE - 1
+            frameOffset++
+            invalidHeaderBytes++
+        }
+    }
+
+    private fun endFrame() {
+        index.add(frameType, (frameTimestampNs - startNs) / 1000, frameOffset, HEADER_SIZE + frameLength)
+        if (fileBytes >= config.maxFileBytes) rotate()
+    }
+
+    /** Bytes were dropped before the next transfer: the partial frame is not indexed. */
+    private fun onGap() {
+        gaps++
+        headerFill = 0
+        payloadRemaining = 0
+    }
+
+    private fun write(
+        data: ByteArray,
+        offset: Int,
+        length: Int,
+    ) {
+        var src = offset
+        var remaining = length
+        while (remaining > 0) {
+            var mapped = window
+            if (mapped == null || !mapped.hasRemaining()) {
+                mapped = channel!!.map(FileChannel.MapMode.READ_WRITE, fileBytes, MAP_WINDOW_BYTES)
+                window = mapped
+            }
+            val n = minOf(remaining, mapped.remaining())
+            mapped.put(data, src, n)
+            src += n
+            remaining -= n
+            fileBytes += n
+            totalBytes += n
+        }
+    }
+
+    private fun openFile() {
+        baseName = "carlink_${sessionStamp}_${"%03d".format(fileIndex)}"
+        channel = RandomAccessFile(File(config.directory, "$baseName.bin"), "rw").channel
+        window = null
+        fileBytes = 0
+        index.clear()
+    }
+
+    private fun finishFile() {
+        val ch = channel ?: return
+        channel = null
+        window = null
+        // Mapping grows the file by whole windows — cut it back to what was written
+        ch.truncate(fileBytes)
+        ch.close()
+        writeIndex()
+        seqBase += index.size
+        filesWritten++
+    }
+
+    private fun rotate() {
+        finishFile()
+        fileIndex++
+        pruneOldFiles()
+        openFile()
+    }
+
+    /** Keep room for one more capture: delete the oldest pairs beyond maxFiles - 1. */
+    private fun pruneOldFiles() {
+        val captures =
+            config.directory
+                .listFiles { file -> file.name.startsWith(FILE_PREFIX) && file.name.endsWith(".bin") }
+                ?.sortedBy { it.lastModified() }
+                ?: return
+        val excess = captures.size - (config.maxFiles - 1)
+        for (bin in captures.take(maxOf(0, excess))) {
+            bin.delete()
+            File(bin.parentFile, bin.name.removeSuffix(".bin") + ".json").delete()
+            log("Rotated out ${bin.name}")
+        }
+    }
+
+    private fun writeIndex() {
+        BufferedWriter(FileWriter(File(config.directory, "$baseName.json"))).use { out ->
+            out.write("{\"format\":\"carlink_native\",\"version\":1,")
+            out.write("\"bin\":\"$baseName.bin\",\"startedAtMs\":$startedAtMs,\"part\":$fileIndex,")
+            out.write("\"bytes\":$fileBytes,\"packetCount\":${index.size},\"gaps\":$gaps,")
+            out.write("\"droppedTransfers\":$droppedTransfers,\"packets\":[")
+            for (i in 0 until index.size) {
+                if (i > 0) out.write(",")
+                out.write("\n{\"seq\":${seqBase + i},\"type\":${index.types[i]},\"timestampUs\":${index.timestamps[i]},")
+                out.write("\"offset\":${index.offsets[i]},\"length\":${index.lengths[i]}}")
+            }
+            out.write("\n]}\n")
+        }
+    }
+
+    private fun getIntAt(pos: Long): Int {
+        var value = 0
+        for (i in 0 until 4) {
+            value = value or ((ring[((pos + i) and mask).toInt()].toInt() and 0xFF) shl (8 * i))
+        }
+        return value
+    }
+
+    private fun copyFromRing(
+        pos: Long,
+        dst: ByteArray,
+        length: Int,
+    ) {
+        val physical = (pos and mask).toInt()
+        val first = minOf(length, ring.size - physical)
+        System.arraycopy(ring, physical, dst, 0, first)
+        if (length > first) System.arraycopy(ring, 0, dst, first, length - first)
+    }
+
+    private fun log(message: String) {
+        logCallback("[CAPTURE] $message")
+    }
+
+    /** Growable per-packet index of the current file (writer thread only). */
+    private class PacketIndex {
+        var size = 0
+            private set
+        var types = IntArray(4096)
+            private set
+        var timestamps = LongArray(4096)
+            private set
+        var offsets = LongArray(4096)
+            private set
+        var lengths = IntArray(4096)
+            private set
+
+        fun add(
+            type: Int,
+            timestampUs: Long,
+            offset: Long,
+            length: Int,
+        ) {
+            if (size == types.size) {
+                val capacity = size * 2
+                types = types.copyOf(capacity)
+                timestamps = timestamps.copyOf(capacity)
+                offsets = offsets.copyOf(capacity)
+                lengths = lengths.copyOf(capacity)
+            }
+            types[size] = type
+            timestamps[size] = timestampUs
+            offsets[size] = offset
+            lengths[size] = length
+            size++
+        }
+
+        fun clear() {
+            size = 0
+        }
+    }
+
+    companion object {
+        const val FILE_PREFIX = "carlink_"
+
+        // Ring record: length, flags, timestamp (hi, lo) — 4 bytes each, little-endian
+        private const val RECORD_HEADER_SIZE = 16
+        private const val FLAG_GAP = 1
+
+        private const val MAX_FRAME_PAYLOAD = 2 * 1024 * 1024 // Same plausibility limit as the read loop
+        private const val MAP_WINDOW_BYTES = 8L * 1024 * 1024
+        private const val BUDGET_WINDOW_NS = 1_000_000_000L
+        private const val WRITER_IDLE_NS = 2_000_000L
+        private const val WRITER_JOIN_TIMEOUT_MS = 3000L
+    }
+}
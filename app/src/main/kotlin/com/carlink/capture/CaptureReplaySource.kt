@@ -0,0 +1,150 @@
+package com.carlink.capture
+
+import com.carlink.protocol.HEADER_SIZE
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Random access to the packets of one capture written by [CaptureRecorder]: the .json index
+ * is loaded up front, the .bin is memory-mapped read-only and each packet is copied out on
+ * demand.
+ *
+ * Plain JVM (no Android APIs), so JVM tests can replay captures against stand-in sinks.
+ * Not thread-safe: one reader thread.
+ */
+class CaptureReplaySource private constructor(
+    val binFile: File,
+    private val channel: FileChannel,
+    private val mapped: MappedByteBuffer,
+    private val types: IntArray,
+    private val timestampsUs: LongArray,
+    private val offsets: LongArray,
+    private val lengths: IntArray,
+) : Closeable {
+    /** Packets in the index */
+    val size: Int get() = types.size
+
+    /** Capture time span (first → last packet) */
+    val durationUs: Long get() = if (size == 0) 0 else timestampsUs[size - 1] - timestampsUs[0]
+
+    fun type(i: Int): Int = types[i]
+
+    fun timestampUs(i: Int): Long = timestampsUs[i]
+
+    /** Full frame length, header included */
+    fun length(i: Int): Int = lengths[i]
+
+    /**
+     * Copy packet [i] (16-byte header + payload) into [dst] at 0.
+     * @return Bytes copied ([length]); [dst] must be large enough
+     */
+    fun read(
+        i: Int,
+        dst: ByteArray,
+    ): Int {
+        val length = lengths[i]
+        val view = mapped.duplicate()
+        view.position(offsets[i].toInt())
+        view.get(dst, 0, length)
+        return length
+    }
+
+    override fun close() {
+        channel.close()
+    }
+
+    companion object {
+        /**
+         * Open [bin] with its index (same name, .json).
+         * @throws IOException if either file is missing or the index does not match the .bin
+         */
+        fun open(bin: File): CaptureReplaySource {
+            val json = File(bin.parentFile, bin.name.removeSuffix(".bin") + ".json")
+            if (!json.isFile) throw IOException("Missing capture index ${json.name}")
+
+            val types = IntList()
+            val timestamps = LongList()
+            val offsets = LongList()
+            val lengths = IntList()
+            json.forEachLine { line ->
+                if (!line.startsWith("{\"seq\":")) return@forEachLine
+                types.add(field(line, "type").toInt())
+                timestamps.add(field(line, "timestampUs"))
+                offsets.add(field(line, "offset"))
+                lengths.add(field(line, "length").toInt())
+            }
+
+            val channel = RandomAccessFile(bin, "r").channel
+            try {
+                val binSize = channel.size()
+                if (binSize > Int.MAX_VALUE) throw IOException("${bin.name} too large to map ($binSize bytes)")
+                for (i in 0 until offsets.size) {
+                    if (lengths[i] < HEADER_SIZE || offsets[i] + lengths[i] > binSize) {
+                        throw IOException("Index entry $i outside ${bin.name}")
+                    }
+                }
+                val mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, binSize)
+                return CaptureReplaySource(
+                    bin,
+                    channel,
+                    mapped,
+                    types.toArray(),
+                    timestamps.toArray(),
+                    offsets.toArray(),
+                    lengths.toArray(),
+                )
+            } catch (e: IOException) {
+                channel.close()
+                throw e
+            }
+        }
+
+        /** Value of numeric field [name] in one packet line of the index */
+        private fun field(
+            line: String,
+            name: String,
+        ): Long {
+            val key = "\"$name\":"
+            val start = line.indexOf(key)
+            if (start < 0) throw IOException("Index line without $name: $line")
+            var end = start + key.length
+            while (end < line.length && (line[end].isDigit() || line[end] == '-')) end++
+            return line.substring(start + key.length, end).toLongOrNull()
+                ?: throw IOException("Index line with bad $name: $line")
+        }
+    }
+
+    private class IntList {
+        private var values = IntArray(4096)
+        var size = 0
+            private set
+
+        operator fun get(i: Int): Int = values[i]
+
+        fun add(value: Int) {
+            if (size == values.size) values = values.copyOf(size * 2)
+            values[size++] = value
+        }
+
+        fun toArray(): IntArray = values.copyOf(size)
+    }
+
+    private class LongList {
+        private var values = LongArray(4096)
+        var size = 0
+            private set
+
+        operator fun get(i: Int): Long = values[i]
+
+        fun add(value: Long) {
+            if (size == values.size) values = values.copyOf(size * 2)
+            values[size++] = value
+        }
+
+        fun toArray(): LongArray = values.copyOf(size)
+    }
+}
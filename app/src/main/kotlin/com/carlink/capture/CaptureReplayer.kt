@@ -0,0 +1,227 @@
+package com.carlink.capture
+
+import com.carlink.protocol.AudioDataView
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.Message
+import com.carlink.protocol.MessageHeader
+import com.carlink.protocol.MessageParser
+import com.carlink.protocol.MessageType
+import com.carlink.util.Log2Histogram
+import java.util.Locale
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Pacing of a capture replay.
+ */
+sealed class ReplayTiming {
+    /** Packets at their recorded offsets from the first packet */
+    object Original : ReplayTiming() {
+        override fun toString(): String = "Original"
+    }
+
+    /** Recorded offsets divided by [speed] (2.0 = twice as fast) */
+    data class Accelerated(
+        val speed: Double,
+    ) : ReplayTiming() {
+        init {
+            require(speed > 0) { "speed must be > 0" }
+        }
+    }
+
+    /** No waiting: as fast as the sinks accept packets (throughput benchmarks) */
+    object MaxThroughput : ReplayTiming() {
+        override fun toString(): String = "MaxThroughput"
+    }
+}
+
+/**
+ * Receives replayed packets — the same entry points the live read loop feeds.
+ * All calls come from the replay thread; buffers are only valid during the call.
+ */
+interface CaptureReplaySink {
+    /** H.264 data of a VIDEO_DATA packet (20-byte video header already stripped) */
+    fun onVideo(
+        data: ByteArray,
+        offset: Int,
+        length: Int,
+    )
+
+    /** Decoded AUDIO_DATA packet (PCM, command or ducking) */
+    fun onAudio(view: AudioDataView)
+
+    /** Any other message, parsed as in the live path */
+    fun onMessage(message: Message)
+}
+
+/**
+ * Replays a [CaptureReplaySource] into a [CaptureReplaySink].
+ *
+ * Packets are routed like AdapterDriver does for live traffic: VIDEO_DATA payloads straight
+ * to [CaptureReplaySink.onVideo], AUDIO_DATA decoded into one reused [AudioDataView],
+ * everything else through [MessageParser.parseMessage]. One packet buffer is reused for the
+ * whole replay, so the engine itself adds no per-packet garbage besides parsed control
+ * messages.
+ *
+ * [run] replays on the calling thread (JVM tests, benchmarks); [start] uses a
+ * Capture-Replay thread. Either way the returned/reported stats include sink time per
+ * packet kind and, for paced modes, how late packets were delivered.
+ */
+class CaptureReplayer(
+    private val source: CaptureReplaySource,
+    private val sink: CaptureReplaySink,
+    private val timing: ReplayTiming = ReplayTiming.Original,
+    private val logCallback: (String) -> Unit = {},
+) {
+    @Volatile private var running = false
+    private var thread: Thread? = null
+
+    private val audioView = AudioDataView()
+    private var packet = ByteArray(64 * 1024)
+
+    private val videoSinkNs = Log2Histogram()
+    private val audioSinkNs = Log2Histogram()
+    private val messageSinkNs = Log2Histogram()
+    private val lateNs = Log2Histogram()
+    @Volatile private var packetsReplayed = 0
+    @Volatile private var bytesReplayed = 0L
+    @Volatile private var elapsedNs = 0L
+
+    val isRunning: Boolean get() = running
+
+    /**
+     * Replay on a background thread. [onFinished] runs on that thread with the final stats
+     * (also when stopped early).
+     */
+    fun start(onFinished: (Map<String, Any>) -> Unit = {}) {
+        if (thread != null) return
+        running = true
+        thread =
+            Thread({ onFinished(replay()) }, "Capture-Replay").apply {
+                isDaemon = true
+                start()
+            }
+    }
+
+    /** Stop a replay started with [start] and wait for its thread. */
+    fun stop() {
+        running = false
+        val t = thread ?: return
+        LockSupport.unpark(t)
+        try {
+            t.join(1000)
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        thread = null
+    }
+
+    /** Replay to the end on the calling thread. */
+    fun run(): Map<String, Any> {
+        running = true
+        return replay()
+    }
+
+    fun getStats(): Map<String, Any> {
+        val seconds = elapsedNs / 1e9
+        return mapOf(
+            "file" to source.binFile.name,
+            "timing" to timing.toString(),
+            "packets" to packetsReplayed,
+            "totalPackets" to source.size,
+            "bytes" to bytesReplayed,
+            "elapsedMs" to elapsedNs / 1_000_000,
+            "captureMs" to source.durationUs / 1000,
+            "speed" to String.format(Locale.US, "%.2fx", if (elapsedNs > 0) source.durationUs * 1000.0 / elapsedNs else 0.0),
+            "mbPerSecond" to String.format(Locale.US, "%.1f", if (seconds > 0) bytesReplayed / seconds / 1e6 else 0.0),
+            "videoSinkUs" to videoSinkNs.snapshot(1000),
+            "audioSinkUs" to audioSinkNs.snapshot(1000),
+            "messageSinkUs" to messageSinkNs.snapshot(1000),
+            "lateUs" to lateNs.snapshot(1000),
+        )
+    }
+
+    private fun replay(): Map<String, Any> {
+        val speed =
+            when (timing) {
+                ReplayTiming.Original -> 1.0
+                is ReplayTiming.Accelerated -> timing.speed
+                ReplayTiming.MaxThroughput -> 0.0 // Unpaced
+            }
+        log("Replaying ${source.binFile.name}: ${source.size} packets, ${source.durationUs / 1000}ms, $timing")
+
+        val firstUs = if (source.size > 0) source.timestampUs(0) else 0L
+        val startNs = System.nanoTime()
+        var i = 0
+        try {
+            while (running && i < source.size) {
+                if (speed > 0) {
+                    val dueNs = startNs + ((source.timestampUs(i) - firstUs) * 1000 / speed).toLong()
+                    var waitNs = dueNs - System.nanoTime()
+                    while (running && waitNs > 0) {
+                        LockSupport.parkNanos(waitNs)
+                        waitNs = dueNs - System.nanoTime()
+                    }
+                    lateNs.record(-waitNs)
+                }
+
+                val length = source.length(i)
+                if (packet.size < length) packet = ByteArray(maxOf(length, packet.size * 2))
+                source.read(i, packet)
+                deliver(source.type(i), length - HEADER_SIZE)
+
+                packetsReplayed = i + 1
+                bytesReplayed += length
+                elapsedNs = System.nanoTime() - startNs
+                i++
+            }
+        } catch (e: Exception) {
+            log("Replay stopped at packet $i: ${e.message}")
+        } finally {
+            running = false
+            elapsedNs = System.nanoTime() - startNs
+        }
+
+        val stats = getStats()
+        log("Replay finished: $stats")
+        return stats
+    }
+
+    /** Route one packet (in [packet], payload at HEADER_SIZE) like the live dispatch does. */
+    private fun deliver(
+        typeId: Int,
+        payloadLength: Int,
+    ) {
+        val start = System.nanoTime()
+        when (typeId) {
+            MessageType.VIDEO_DATA.id -> {
+                if (payloadLength <= VIDEO_HEADER_SIZE) return
+                sink.onVideo(packet, HEADER_SIZE + VIDEO_HEADER_SIZE, payloadLength - VIDEO_HEADER_SIZE)
+                videoSinkNs.record(System.nanoTime() - start)
+            }
+
+            MessageType.AUDIO_DATA.id -> {
+                if (!MessageParser.decodeAudioData(audioView, packet, HEADER_SIZE, payloadLength)) return
+                try {
+                    sink.onAudio(audioView)
+                } finally {
+                    audioView.clear()
+                }
+                audioSinkNs.record(System.nanoTime() - start)
+            }
+
+            else -> {
+                val header = MessageHeader(payloadLength, MessageType.fromId(typeId))
+                sink.onMessage(MessageParser.parseMessage(header, packet, HEADER_SIZE))
+                messageSinkNs.record(System.nanoTime() - start)
+            }
+        }
+    }
+
+    private fun log(message: String) {
+        logCallback("[REPLAY] $message")
+    }
+
+    companion object {
+        private const val VIDEO_HEADER_SIZE = 20 // width, height, encoderState, pts, flags
+    }
+}
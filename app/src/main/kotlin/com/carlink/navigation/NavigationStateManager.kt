@@ -4,6 +4,8 @@ import com.carlink.logging.Logger
 import com.carlink.logging.logInfo
 import com.carlink.logging.logNavi
 import com.carlink.logging.logWarn
+import com.carlink.protocol.MediaJsonFields
+import com.carlink.protocol.MediaJsonKey
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -47,20 +49,18 @@ object NavigationStateManager {
     /**
      * Process an incoming NaviJSON payload (incremental update).
      *
-     * @param payload Parsed JSON fields from MEDIA_DATA subtype 200
+     * @param fields Decoded JSON fields from MEDIA_DATA subtype 200
      */
-    fun onNaviJson(payload: Map<String, Any>) {
-        if (payload.isEmpty()) {
+    fun onNaviJson(fields: MediaJsonFields) {
+        if (fields.isEmpty) {
             logNavi { "[NAVI] Empty NaviJSON payload received — ignoring" }
             return
         }
 
-        logNavi { "[NAVI] Received NaviJSON: keys=${payload.keys}, values=${payload.entries.joinToString { "${it.key}=${it.value}" }}" }
-
-        val naviStatus = (payload["NaviStatus"] as? Number)?.toInt()
+        logNavi { "[NAVI] Received NaviJSON: $fields" }
 
         // Flush signal: NaviStatus=0 → clear entire state
-        if (naviStatus == 0) {
+        if (fields.has(MediaJsonKey.NAVI_STATUS) && fields.intOr(MediaJsonKey.NAVI_STATUS, -1) == 0) {
             logInfo("[NAVI] Flush signal received (NaviStatus=0) — clearing state", tag = Logger.Tags.NAVI)
             _state.value = NavigationState()
             return
@@ -69,18 +69,18 @@ object NavigationStateManager {
         // Incremental merge: update only fields present in this payload
         val current = _state.value
         val merged = current.copy(
-            status = naviStatus ?: current.status,
-            maneuverType = (payload["NaviManeuverType"] as? Number)?.toInt() ?: current.maneuverType,
-            orderType = (payload["NaviOrderType"] as? Number)?.toInt() ?: current.orderType,
-            roadName = (payload["NaviRoadName"] as? String)?.takeIf { it.isNotEmpty() } ?: current.roadName,
-            remainDistance = (payload["NaviRemainDistance"] as? Number)?.toInt() ?: current.remainDistance,
-            distanceToDestination = (payload["NaviDistanceToDestination"] as? Number)?.toInt() ?: current.distanceToDestination,
-            timeToDestination = (payload["NaviTimeToDestination"] as? Number)?.toInt() ?: current.timeToDestination,
-            destinationName = (payload["NaviDestinationName"] as? String)?.takeIf { it.isNotEmpty() } ?: current.destinationName,
-            appName = (payload["NaviAPPName"] as? String)?.takeIf { it.isNotEmpty() } ?: current.appName,
-            turnAngle = (payload["NaviTurnAngle"] as? Number)?.toInt() ?: current.turnAngle,
-            turnSide = (payload["NaviTurnSide"] as? Number)?.toInt() ?: current.turnSide,
-            junctionType = (payload["NaviJunctionType"] as? Number)?.toInt() ?: current.junctionType,
+            status = fields.intOr(MediaJsonKey.NAVI_STATUS, current.status),
+            maneuverType = fields.intOr(MediaJsonKey.NAVI_MANEUVER_TYPE, current.maneuverType),
+            orderType = fields.intOr(MediaJsonKey.NAVI_ORDER_TYPE, current.orderType),
+            roadName = fields.string(MediaJsonKey.NAVI_ROAD_NAME)?.takeIf { it.isNotEmpty() } ?: current.roadName,
+            remainDistance = fields.intOr(MediaJsonKey.NAVI_REMAIN_DISTANCE, current.remainDistance),
+            distanceToDestination = fields.intOr(MediaJsonKey.NAVI_DISTANCE_TO_DESTINATION, current.distanceToDestination),
+            timeToDestination = fields.intOr(MediaJsonKey.NAVI_TIME_TO_DESTINATION, current.timeToDestination),
+            destinationName = fields.string(MediaJsonKey.NAVI_DESTINATION_NAME)?.takeIf { it.isNotEmpty() } ?: current.destinationName,
+            appName = fields.string(MediaJsonKey.NAVI_APP_NAME)?.takeIf { it.isNotEmpty() } ?: current.appName,
+            turnAngle = fields.intOr(MediaJsonKey.NAVI_TURN_ANGLE, current.turnAngle),
+            turnSide = fields.intOr(MediaJsonKey.NAVI_TURN_SIDE, current.turnSide),
+            junctionType = fields.intOr(MediaJsonKey.NAVI_JUNCTION_TYPE, current.junctionType),
         )
 
         logNavi {
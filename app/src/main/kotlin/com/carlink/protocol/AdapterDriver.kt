@@ -1,13 +1,39 @@
 package com.carlink.protocol
 
-import com.carlink.usb.UsbDeviceWrapper
+import com.carlink.transport.Transport
+import com.carlink.usb.WritePriority
 import java.util.Locale
 import java.util.Timer
 import java.util.TimerTask
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
 
+/**
+ * Pacing of the initialization sequence.
+ *
+ * The default gap is the 120ms the init sequence has always used (same as pi-carplay); it is
+ * the only value run against adapter firmware so far. Shorter gaps have not been measured: lower
+ * [minGapMs] only after comparing connectToPluggedMs/connectToFirstVideoMs and init failures
+ * across adapters with the driver's [TIMING] log.
+ *
+ * The gap after OPEN is max(minGapMs, time to the adapter's first reply, capped at
+ * responseTimeoutMs). With the defaults (both 120ms) that is always exactly 120ms, so the
+ * response wait is inactive: it only changes the pacing once [minGapMs] is lowered below
+ * [responseTimeoutMs].
+ *
+ * @param minGapMs Gap between consecutive init messages
+ * @param responseTimeoutMs After OPEN, the next message waits for the adapter's first reply
+ *                          (it restarts its session on OPEN) for at most this long
+ */
+data class InitPacing(
+    val minGapMs: Long = 120,
+    val responseTimeoutMs: Long = 120,
+)
+
 /**
  * CPC200-CCPA Adapter Protocol Driver
  *
@@ -18,16 +44,19 @@ import java.util.concurrent.atomic.AtomicLong
  * - Performance tracking
  */
 class AdapterDriver(
-    private val usbDevice: UsbDeviceWrapper,
+    private val transport: Transport,
     private val messageHandler: (Message) -> Unit,
     private val errorHandler: (String) -> Unit,
     private val logCallback: (String) -> Unit,
     private val readTimeout: Int = 30000,
     private val writeTimeout: Int = 1000,
-    private val videoProcessor: UsbDeviceWrapper.VideoDataProcessor? = null,
+    private val videoProcessor: Transport.VideoDataProcessor? = null,
+    private val audioProcessor: Transport.AudioDataProcessor? = null,
+    private val audioDataHandler: ((AudioDataView) -> Unit)? = null,
 ) {
     private var heartbeatTimer: Timer? = null
-    private var wifiConnectTimer: Timer? = null
+    private var wifiConnectTimer: Timer? = null // Guarded by wifiConnectLock
+    private val wifiConnectLock = Any()
     private val heartbeatInterval = 2000L // 2 seconds
 
     private val isRunning = AtomicBoolean(false)
@@ -44,7 +73,44 @@ class AdapterDriver(
     private val heartbeatsSent = AtomicInteger(0)
     private val sessionStart = AtomicLong(0)
     private val lastHeartbeat = AtomicLong(0)
-    private var initMessagesCount = 0
+    @Volatile private var initMessagesCount = 0
+
+    /** Init sequence pacing; read when start() launches the sequence */
+    @Volatile var initPacing: InitPacing = InitPacing()
+
+    /** Skips SEND_FILE uploads this adapter already has; read when the init sequence runs */
+    @Volatile var fileCache: AdapterFileCache? = null
+
+    @Volatile private var initThread: Thread? = null
+    @Volatile private var initFilesSkipped = 0
+    @Volatile private var initBytesSkipped = 0L
+
+    // Armed once the OPEN write is transferred; counted down by the next message received
+    @Volatile private var openResponse: CountDownLatch? = null
+
+    // Connect timings (System.nanoTime at start(); -1 until reached)
+    private val connectStartNs = AtomicLong(0)
+    private val initDurationMs = AtomicLong(-1)
+    private val connectToPluggedMs = AtomicLong(-1)
+    private val connectToFirstVideoMs = AtomicLong(-1)
+
+    // Pre-allocated microphone frames. sendAudio() takes one, the writer hands it back when the
+    // transfer completes (or the frame is dropped), so a frame is never rewritten while queued.
+    private val micFreeFrames =
+        ConcurrentLinkedQueue<ByteArray>().apply {
+            repeat(WritePriority.MIC.capacity + 2) { add(newMicFrame()) }
+        }
+    private val micFramesAllocated = AtomicInteger(0) // Beyond the initial set: pool ran dry
+
+    // Decoded AUDIO_DATA view handed to audioDataHandler (read loop thread only)
+    private val audioView = AudioDataView()
+
+    // Received-message routing by type id (see registerHandlers)
+    private val dispatcher = MessageDispatcher()
+
+    init {
+        registerHandlers()
+    }
 
     /**
      * Start the adapter communication with smart initialization.
@@ -52,11 +118,15 @@ class AdapterDriver(
      * @param config Adapter configuration
      * @param initMode Initialization mode: "FULL", "MINIMAL_PLUS_CHANGES", or "MINIMAL_ONLY"
      * @param pendingChanges Set of config keys that have changed since last init
+     * @param onInitComplete Called (writer thread) once every init message has been transferred;
+     *                       never if one fails or the driver stops first. start() itself returns
+     *                       before the sequence is sent.
      */
     fun start(
         config: AdapterConfig = AdapterConfig.DEFAULT,
         initMode: String = "FULL",
         pendingChanges: Set<String> = emptySet(),
+        onInitComplete: (() -> Unit)? = null,
     ) {
         if (isRunning.getAndSet(true)) {
             log("Adapter already running")
@@ -64,11 +134,12 @@ class AdapterDriver(
         }
 
         sessionStart.set(System.currentTimeMillis())
+        connectStartNs.set(System.nanoTime())
         log("Starting adapter connection sequence")
 
-        if (!usbDevice.isOpened) {
-            log("USB device not opened")
-            errorHandler("USB device not opened")
+        if (!transport.isOpened) {
+            log("Transport (${transport.transportName}) not opened")
+            errorHandler("Transport not opened")
             isRunning.set(false)
             return
         }
@@ -77,40 +148,17 @@ class AdapterDriver(
         startHeartbeat()
         log("Heartbeat started before initialization (firmware stabilization)")
 
-        // Send initialization sequence based on mode
-        val initMessages = MessageSerializer.generateInitSequence(config, initMode, pendingChanges)
-        initMessagesCount = initMessages.size
-        log("Sending $initMessagesCount initialization messages (mode=$initMode, changes=$pendingChanges)")
-
-        for ((index, message) in initMessages.withIndex()) {
-            log("Init message ${index + 1}/$initMessagesCount")
-            if (!send(message)) {
-                log("Failed to send init message ${index + 1}")
-            }
-            // Delay between messages to allow adapter firmware to process each one
-            Thread.sleep(120)
-        }
-
-        log("Initialization sequence completed")
-
-        // Schedule wifiConnect with timeout (matches pi-carplay behavior)
-        wifiConnectTimer = Timer().apply {
-            schedule(
-                object : TimerTask() {
-                    override fun run() {
-                        if (isRunning.get()) {
-                            log("Sending wifiConnect command (timeout-based)")
-                            send(MessageSerializer.serializeCommand(CommandMapping.WIFI_CONNECT))
-                        }
-                    }
-                },
-                600,
-            )
-        }
-
-        // Start reading loop
+        // Reading loop before init: adapter replies are consumed (and can pace init) immediately
         log("Starting message reading loop")
         startReadingLoop()
+
+        // Stream the init sequence off the caller's thread
+        val pacing = initPacing
+        initThread =
+            Thread({ runInitSequence(config, initMode, pendingChanges, pacing, onInitComplete) }, "Adapter-Init").apply {
+                isDaemon = true
+                start()
+            }
     }
 
     /**
@@ -123,10 +171,22 @@ class AdapterDriver(
 
         log("Stopping adapter connection")
 
-        wifiConnectTimer?.cancel()
-        wifiConnectTimer = null
+        initThread?.let {
+            it.interrupt()
+            try {
+                it.join(500)
+            } catch (_: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+        }
+        initThread = null
+        openResponse = null
+        synchronized(wifiConnectLock) {
+            wifiConnectTimer?.cancel()
+            wifiConnectTimer = null
+        }
         stopHeartbeat()
-        usbDevice.stopReadingLoop()
+        transport.stopReadingLoop()
 
         logPerformanceStats()
         resetStats()
@@ -137,23 +197,34 @@ class AdapterDriver(
     /**
      * Send raw data to the adapter.
      *
-     * @param data Serialized message data
-     * @return true if send was successful
+     * Queued on the transport's writer thread; transfer failures are counted in usbStats.
+     * A true result only means the message was queued (messagesSent/bytesSent count queued
+     * messages). Callers that need to know it reached the adapter pass [onComplete].
+     *
+     * @param data Serialized message data (sent in place — no copy)
+     * @param priority Write priority class (default: CONFIG)
+     * @param length Bytes of [data] holding the frame
+     * @param onComplete Writer's completion signal for [data] (see [Transport.submitWrite])
+     * @return true if the message was queued, not necessarily transferred
      */
-    fun send(data: ByteArray): Boolean {
+    fun send(
+        data: ByteArray,
+        priority: WritePriority = WritePriority.CONFIG,
+        length: Int = data.size,
+        onComplete: ((Boolean) -> Unit)? = null,
+    ): Boolean {
         if (!isRunning.get()) {
             return false
         }
 
         return try {
-            val result = usbDevice.write(data, writeTimeout)
-            if (result == data.size) {
+            if (transport.submitWrite(data, priority, writeTimeout, length, onComplete)) {
                 messagesSent.incrementAndGet()
-                bytesSent.addAndGet(data.size.toLong())
+                bytesSent.addAndGet(length.toLong())
                 true
             } else {
                 sendErrors.incrementAndGet()
-                log("Send incomplete: $result/${data.size} bytes")
+                log("Send rejected (${priority.name} queue full or device closed): $length bytes")
                 false
             }
         } catch (e: Exception) {
@@ -164,27 +235,61 @@ class AdapterDriver(
         }
     }
 
+    /**
+     * Send a pre-encoded constant frame (see [MessageSerializer.commandFrame]). Queued in
+     * place: the frame is never modified, so every send shares it.
+     */
+    fun send(
+        frame: ConstantFrame,
+        priority: WritePriority = WritePriority.CONFIG,
+    ): Boolean = send(frame.bytes, priority, frame.size)
+
     /**
      * Send a command to the adapter.
      */
     fun sendCommand(command: CommandMapping): Boolean {
         log("[SEND] Command ${command.name}")
-        return send(MessageSerializer.serializeCommand(command))
+        val priority = if (command == CommandMapping.FRAME) WritePriority.KEYFRAME else WritePriority.CONFIG
+        return send(MessageSerializer.commandFrame(command), priority)
     }
 
     /**
      * Send a multi-touch event.
      */
-    fun sendMultiTouch(touches: List<MessageSerializer.TouchPoint>): Boolean = send(MessageSerializer.serializeMultiTouch(touches))
+    fun sendMultiTouch(touches: List<MessageSerializer.TouchPoint>): Boolean =
+        send(MessageSerializer.serializeMultiTouch(touches), WritePriority.TOUCH)
 
     /**
      * Send microphone audio data.
+     *
+     * Chunks up to [MIC_CHUNK_MAX] bytes are encoded into a pre-allocated frame and queued in
+     * place. The frame goes back to the pool when the writer reports the write complete
+     * (transferred, failed, superseded by a newer MIC write or discarded on stop), so catch-up
+     * bursts of the mic timer and frames held in a coalesced batch cannot overwrite one that
+     * is still queued. If every frame is in flight a new one is allocated and joins the pool,
+     * which therefore settles at the worst case actually seen (micFramesAllocated in stats).
      */
     fun sendAudio(
         data: ByteArray,
         decodeType: Int = 5,
         audioType: Int = 3,
-    ): Boolean = send(MessageSerializer.serializeAudio(data, decodeType, audioType))
+        length: Int = data.size,
+    ): Boolean {
+        if (length > MIC_CHUNK_MAX) {
+            return send(MessageSerializer.serializeAudio(data.copyOf(length), decodeType, audioType), WritePriority.MIC)
+        }
+        val frame =
+            micFreeFrames.poll() ?: newMicFrame().also {
+                val total = micFramesAllocated.incrementAndGet()
+                log("Mic frame pool empty, allocated frame #$total beyond the initial ${WritePriority.MIC.capacity + 2}")
+            }
+        val frameLength = MessageSerializer.encodeAudioInto(frame, 0, data, 0, length, decodeType, audioType)
+        val queued = send(frame, WritePriority.MIC, frameLength) { micFreeFrames.add(frame) }
+        if (!queued) micFreeFrames.add(frame) // Rejected: the writer never saw it
+        return queued
+    }
+
+    private fun newMicFrame() = ByteArray(HEADER_SIZE + AUDIO_SUBHEADER_SIZE + MIC_CHUNK_MAX)
 
     /**
      * Get performance statistics.
@@ -210,6 +315,11 @@ class AdapterDriver(
         return mapOf(
             "sessionDurationSeconds" to sessionDuration,
             "initMessagesCount" to initMessagesCount,
+            "initDurationMs" to initDurationMs.get(),
+            "initFilesSkipped" to initFilesSkipped,
+            "initBytesSkipped" to initBytesSkipped,
+            "connectToPluggedMs" to connectToPluggedMs.get(),
+            "connectToFirstVideoMs" to connectToFirstVideoMs.get(),
             "messagesSent" to messagesSent.get(),
             "messagesReceived" to messagesReceived.get(),
             "bytesSent" to sent,
@@ -217,15 +327,136 @@ class AdapterDriver(
             "sendErrors" to sendErrors.get(),
             "receiveErrors" to receiveErrors.get(),
             "heartbeatsSent" to heartbeatsSent.get(),
+            "micFramesAllocated" to micFramesAllocated.get(),
             "lastHeartbeatSecondsAgo" to lastHeartbeatAge,
             "sendThroughputKBps" to if (sessionDuration > 0) sent / sessionDuration / 1024.0 else 0.0,
             "receiveThroughputKBps" to if (sessionDuration > 0) received / sessionDuration / 1024.0 else 0.0,
-            "usbStats" to usbDevice.getPerformanceStats(),
+            "transport" to transport.transportName,
+            "dispatch" to dispatcher.getStats(),
+            "usbStats" to transport.getPerformanceStats(),
         )
     }
 
     // ==================== Private Methods ====================
 
+    /**
+     * Send the init sequence (Adapter-Init thread). Each message is queued as soon as the
+     * pacing allows: [InitPacing.minGapMs] between messages, and after OPEN at least until
+     * the adapter's first reply (bounded by [InitPacing.responseTimeoutMs]). Ends with the
+     * wifiConnect timer as before.
+     */
+    private fun runInitSequence(
+        config: AdapterConfig,
+        initMode: String,
+        pendingChanges: Set<String>,
+        pacing: InitPacing,
+        onInitComplete: (() -> Unit)?,
+    ) {
+        val initStart = System.nanoTime()
+        val cache = fileCache
+        val generated = MessageSerializer.generateInitSequence(config, initMode, pendingChanges)
+        val initMessages = cache?.filter(generated) ?: generated
+        if (cache != null && cache.skippedFiles > 0) {
+            initFilesSkipped = cache.skippedFiles
+            initBytesSkipped = cache.skippedBytes
+            log("Skipping ${cache.skippedFiles} unchanged file uploads (${cache.skippedBytes} bytes) already on this adapter")
+        }
+        initMessagesCount = initMessages.size
+        log("Sending $initMessagesCount initialization messages (mode=$initMode, changes=$pendingChanges, pacing=$pacing)")
+
+        // Init counts as done (file hashes recorded, onInitComplete) only once every init write
+        // has been transferred (a true send() only means queued). A rejected write never
+        // completes, so an init cut short by a failure, stop or disconnect never counts.
+        val remainingWrites = AtomicInteger(initMessages.size)
+        val allTransferred = AtomicBoolean(true)
+        val onInitWritten: (Boolean) -> Unit = { ok ->
+            if (!ok) allTransferred.set(false)
+            if (remainingWrites.decrementAndGet() == 0 && allTransferred.get() && isRunning.get()) {
+                log("All $initMessagesCount init messages transferred")
+                cache?.commit()
+                onInitComplete?.invoke()
+            }
+        }
+        try {
+            for ((index, message) in initMessages.withIndex()) {
+                if (!isRunning.get()) return
+                log("Init message ${index + 1}/$initMessagesCount")
+
+                // A reply only counts if it follows the OPEN transfer (not a leftover from the
+                // previous session, read while OPEN was still queued)
+                val response = if (frameType(message) == MessageType.OPEN.id) CountDownLatch(1) else null
+                val onWritten: (Boolean) -> Unit =
+                    if (response == null) {
+                        onInitWritten
+                    } else {
+                        { ok ->
+                            if (ok && isRunning.get()) openResponse = response
+                            onInitWritten(ok)
+                        }
+                    }
+                if (!send(message, onComplete = onWritten)) {
+                    log("Failed to queue init message ${index + 1}")
+                }
+
+                if (index == initMessages.lastIndex) break
+                if (response != null) {
+                    // Adapter restarts its session on OPEN: continue once it answers
+                    val waitStart = System.nanoTime()
+                    val answered = response.await(pacing.responseTimeoutMs, TimeUnit.MILLISECONDS)
+                    openResponse = null
+                    val waitedMs = (System.nanoTime() - waitStart) / 1_000_000
+                    log("OPEN ${if (answered) "answered" else "not answered"} after ${waitedMs}ms")
+                    if (waitedMs < pacing.minGapMs) Thread.sleep(pacing.minGapMs - waitedMs)
+                } else {
+                    Thread.sleep(pacing.minGapMs)
+                }
+            }
+        } catch (_: InterruptedException) {
+            log("Initialization sequence interrupted")
+            return
+        }
+
+        val elapsedMs = (System.nanoTime() - initStart) / 1_000_000
+        initDurationMs.set(elapsedMs)
+        log("Initialization sequence queued in ${elapsedMs}ms")
+        if (!isRunning.get()) return
+
+        // Schedule wifiConnect with timeout (matches pi-carplay behavior). Under the lock stop()
+        // cancels with, so a stop() racing this either sees the timer or is seen here.
+        synchronized(wifiConnectLock) {
+            if (!isRunning.get()) return
+            wifiConnectTimer =
+                Timer("WifiConnectTimer", true).apply {
+                    schedule(
+                        object : TimerTask() {
+                            override fun run() {
+                                if (isRunning.get()) {
+                                    log("Sending wifiConnect command (timeout-based)")
+                                    send(MessageSerializer.commandFrame(CommandMapping.WIFI_CONNECT))
+                                }
+                            }
+                        },
+                        600,
+                    )
+                }
+        }
+    }
+
+    /**
+     * Log connect → PLUGGED and connect → first VIDEO_DATA once per session (read loop thread).
+     */
+    private fun recordConnectMilestone(type: Int) {
+        val target = if (type == MessageType.PLUGGED.id) connectToPluggedMs else connectToFirstVideoMs
+        if (target.get() >= 0) return
+        val elapsedMs = (System.nanoTime() - connectStartNs.get()) / 1_000_000
+        if (target.compareAndSet(-1, elapsedMs)) {
+            val name = if (type == MessageType.PLUGGED.id) "PLUGGED" else "first video"
+            log("[TIMING] connect → $name: ${elapsedMs}ms (init ${initDurationMs.get().takeIf { it >= 0 }?.let { "${it}ms" } ?: "in progress"})")
+        }
+    }
+
+    private fun frameType(frame: ByteArray): Int = if (frame.size < HEADER_SIZE) -1 else readIntLE(frame, 8)
+
     private fun startHeartbeat() {
         stopHeartbeat()
 
@@ -237,8 +468,8 @@ class AdapterDriver(
                             if (isRunning.get()) {
                                 lastHeartbeat.set(System.currentTimeMillis())
                                 heartbeatsSent.incrementAndGet()
-                                if (!send(MessageSerializer.serializeHeartbeat())) {
-                                    log("Heartbeat send failed (count: $heartbeatsSent)")
+                                if (!send(MessageSerializer.heartbeatFrame(), WritePriority.HEARTBEAT)) {
+                                    log("Heartbeat not queued (count: $heartbeatsSent)")
                                 }
                             }
                         }
@@ -257,39 +488,29 @@ class AdapterDriver(
     }
 
     private fun startReadingLoop() {
-        usbDevice.startReadingLoop(
-            object : UsbDeviceWrapper.ReadingLoopCallback {
+        transport.startReadingLoop(
+            object : Transport.ReadingLoopCallback {
+                override fun onMessage(
+                    type: Int,
+                    data: ByteArray?,
+                    dataLength: Int,
+                ) = onMessage(type, data, 0, dataLength)
+
                 override fun onMessage(
                     type: Int,
                     data: ByteArray?,
+                    dataOffset: Int,
                     dataLength: Int,
                 ) {
                     messagesReceived.incrementAndGet()
                     bytesReceived.addAndGet((dataLength + HEADER_SIZE).toLong())
-
-                    // For VIDEO_DATA with direct processing, data is null (processed directly by videoProcessor)
-                    // Just signal the message handler that video is streaming
-                    if (type == MessageType.VIDEO_DATA.id && videoProcessor != null && (data == null || dataLength == 0)) {
-                        // Video data was processed directly by videoProcessor - just signal streaming
-                        try {
-                            messageHandler(VideoStreamingSignal)
-                        } catch (e: Exception) {
-                            receiveErrors.incrementAndGet()
-                            log("Message handler error: ${e.message}")
-                        }
-                        return
-                    }
-
-                    val header = MessageHeader(dataLength, MessageType.fromId(type))
-                    val message = MessageParser.parseMessage(header, data)
-
-                    // Log received message (except high-frequency types)
-                    if (type != MessageType.VIDEO_DATA.id && type != MessageType.AUDIO_DATA.id) {
-                        log("[RECV] $message")
-                    }
+                    openResponse?.countDown()
+                    if (type == MessageType.PLUGGED.id || type == MessageType.VIDEO_DATA.id) recordConnectMilestone(type)
 
                     try {
-                        messageHandler(message)
+                        if (!dispatcher.dispatch(type, data, dataOffset, dataLength) && dispatcher.unhandledCount(type) == 1L) {
+                            log("Unhandled message type 0x${type.toString(16)} ($dataLength bytes) — counting further occurrences")
+                        }
                     } catch (e: Exception) {
                         receiveErrors.incrementAndGet()
                         log("Message handler error: ${e.message}")
@@ -304,9 +525,67 @@ class AdapterDriver(
             },
             readTimeout,
             videoProcessor,
+            audioProcessor,
         )
     }
 
+    /**
+     * Build the dispatch table. VIDEO_DATA and AUDIO_DATA get dedicated handlers for their
+     * direct-processing paths; every other known type is parsed into a [Message] and passed
+     * to [messageHandler]. Ids with no [MessageType] stay unregistered (counted only).
+     */
+    private fun registerHandlers() {
+        for (type in MessageType.entries) {
+            if (type != MessageType.UNKNOWN) {
+                dispatcher.register(type) { data, offset, length -> deliverParsed(type, data, offset, length) }
+            }
+        }
+
+        dispatcher.register(MessageType.VIDEO_DATA) { data, offset, length ->
+            if (videoProcessor != null && (data == null || length == 0)) {
+                // Video data was processed directly by videoProcessor - just signal streaming
+                messageHandler(VideoStreamingSignal)
+            } else {
+                deliverParsed(MessageType.VIDEO_DATA, data, offset, length)
+            }
+        }
+
+        dispatcher.register(MessageType.AUDIO_DATA) { data, offset, length ->
+            when {
+                // PCM was written in place by audioProcessor. Only happens once the stream is
+                // already playing, so the handler has seen this stream's earlier packets.
+                audioProcessor != null && data == null -> {}
+
+                // Decode into the reusable view, no Message allocated
+                audioDataHandler != null && MessageParser.decodeAudioData(audioView, data, offset, length) -> {
+                    try {
+                        audioDataHandler.invoke(audioView)
+                    } finally {
+                        audioView.clear()
+                    }
+                }
+
+                else -> deliverParsed(MessageType.AUDIO_DATA, data, offset, length)
+            }
+        }
+    }
+
+    private fun deliverParsed(
+        type: MessageType,
+        data: ByteArray?,
+        offset: Int,
+        length: Int,
+    ) {
+        val message = MessageParser.parseMessage(MessageHeader(length, type), data, offset)
+
+        // Log received message (except high-frequency types)
+        if (type != MessageType.VIDEO_DATA && type != MessageType.AUDIO_DATA) {
+            log("[RECV] $message")
+        }
+
+        messageHandler(message)
+    }
+
     private fun logPerformanceStats() {
         val sessionDuration =
             if (sessionStart.get() > 0) {
@@ -347,9 +626,19 @@ class AdapterDriver(
         sessionStart.set(0)
         lastHeartbeat.set(0)
         initMessagesCount = 0
+        initDurationMs.set(-1)
+        initFilesSkipped = 0
+        initBytesSkipped = 0
+        connectToPluggedMs.set(-1)
+        connectToFirstVideoMs.set(-1)
+        dispatcher.reset()
     }
 
     private fun log(message: String) {
         logCallback("[ADAPTR] $message")
     }
+
+    companion object {
+        private const val MIC_CHUNK_MAX = 640 // 20ms of 16kHz mono 16-bit PCM
+    }
 }
@@ -0,0 +1,141 @@
+package com.carlink.protocol
+
+import android.content.Context
+import android.content.SharedPreferences
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+
+/**
+ * Per-adapter record of the SEND_FILE payloads the adapter already holds.
+ *
+ * PROBLEM:
+ * A FULL init re-uploads every file on each connect, including the three PNG icons
+ * (tens of KB) and the box name, although the adapter keeps /etc across power cycles.
+ *
+ * SOLUTION:
+ * Before the init sequence is sent, [filter] hashes (SHA-256) the content of each SEND_FILE
+ * frame whose path is in [PERSISTENT_FILES] and drops the frame if this adapter last
+ * received identical content. [commit] records the hashes once every init write was transferred.
+ * Hashes are kept in SharedPreferences under "<adapter id>|<path>".
+ *
+ * Only files the adapter persists and does not rewrite itself are skipped:
+ * - /tmp files (DPI, hand drive, charge mode) are lost on adapter power cycle
+ * - /etc/airplay.conf is rewritten by the firmware while it processes BoxSettings
+ * - /etc/android_work_mode must be re-sent to restart the AA daemon
+ *
+ * Not thread-safe: one instance per AdapterDriver session. [filter] runs on the init thread,
+ * [commit] on the writer thread after the last init write completed (once, after filter).
+ *
+ * @param adapterId Stable per-adapter key (USB serial); the cache is not used without one
+ */
+class AdapterFileCache private constructor(
+    private val prefs: SharedPreferences,
+    private val adapterId: String,
+) {
+    // Path → hash of files that filter() let through, recorded by commit()
+    private val pending = HashMap<String, String>()
+
+    var skippedFiles: Int = 0
+        private set
+    var skippedBytes: Long = 0
+        private set
+
+    /**
+     * Drop SEND_FILE frames whose content this adapter already has. Other messages, and files
+     * outside [PERSISTENT_FILES], pass through unchanged and in order.
+     */
+    fun filter(messages: List<ByteArray>): List<ByteArray> {
+        pending.clear()
+        skippedFiles = 0
+        skippedBytes = 0
+        return messages.filter { frame ->
+            val file = parseSendFile(frame) ?: return@filter true
+            val hash = sha256(frame, file.contentOffset, file.contentLength)
+            if (prefs.getString(key(file.path), null) == hash) {
+                skippedFiles++
+                skippedBytes += frame.size
+                false
+            } else {
+                pending[file.path] = hash
+                true
+            }
+        }
+    }
+
+    /** Record the files passed by the last [filter] as delivered to this adapter. */
+    fun commit() {
+        if (pending.isEmpty()) return
+        prefs.edit().apply {
+            for ((path, hash) in pending) putString(key(path), hash)
+        }.apply()
+        pending.clear()
+    }
+
+    private fun key(path: String): String = "$adapterId|$path"
+
+    private class SendFile(
+        val path: String,
+        val contentOffset: Int,
+        val contentLength: Int,
+    )
+
+    /**
+     * Path and content bounds of a SEND_FILE frame with a cacheable path, else null.
+     */
+    private fun parseSendFile(frame: ByteArray): SendFile? {
+        if (frame.size < HEADER_SIZE + 8 || readIntLE(frame, 8) != MessageType.SEND_FILE.id) return null
+        val nameLength = readIntLE(frame, HEADER_SIZE)
+        val contentLengthOffset = HEADER_SIZE + 4 + nameLength
+        if (nameLength <= 0 || contentLengthOffset + 4 > frame.size) return null
+
+        // Name is NUL-terminated ASCII
+        val path = String(frame, HEADER_SIZE + 4, nameLength - 1, StandardCharsets.US_ASCII)
+        if (path !in PERSISTENT_PATHS) return null
+
+        val contentOffset = contentLengthOffset + 4
+        val contentLength = readIntLE(frame, contentLengthOffset)
+        if (contentLength < 0 || contentOffset + contentLength > frame.size) return null
+        return SendFile(path, contentOffset, contentLength)
+    }
+
+    private fun sha256(
+        data: ByteArray,
+        offset: Int,
+        length: Int,
+    ): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update(data, offset, length)
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
+    companion object {
+        private const val PREFS_NAME = "carlink_adapter_file_cache"
+
+        /** Files the adapter keeps across power cycles and never rewrites on its own */
+        val PERSISTENT_FILES: Set<FileAddress> =
+            setOf(
+                FileAddress.BOX_NAME,
+                FileAddress.OEM_ICON,
+                FileAddress.ICON_120,
+                FileAddress.ICON_180,
+                FileAddress.ICON_256,
+            )
+        private val PERSISTENT_PATHS = PERSISTENT_FILES.map { it.path }.toSet()
+
+        /**
+         * Cache for one adapter, or null if it has no usable id (nothing is skipped then).
+         */
+        fun open(
+            context: Context,
+            adapterId: String?,
+        ): AdapterFileCache? {
+            if (adapterId.isNullOrBlank()) return null
+            return AdapterFileCache(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), adapterId)
+        }
+
+        /** Forget every adapter's files, so the next init uploads everything again. */
+        fun clearAll(context: Context) {
+            context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply()
+        }
+    }
+}
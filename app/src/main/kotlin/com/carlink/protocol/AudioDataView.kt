@@ -0,0 +1,89 @@
+package com.carlink.protocol
+
+import com.carlink.audio.AudioFormats
+
+/**
+ * Reusable, allocation-free decoded view of an AUDIO_DATA payload.
+ *
+ * AUDIO_DATA arrives tens of times per second per stream (media + navigation). Parsing each
+ * packet into a MessageHeader + ByteBuffer + [AudioDataMessage] produced steady garbage on
+ * the read thread. Instead, the driver owns one view and re-decodes it in place with
+ * [MessageParser.decodeAudioData] for every packet; low-rate control messages keep using the
+ * sealed [Message] hierarchy.
+ *
+ * THREAD CONFINEMENT: a view belongs to the thread that decodes into it (the transport read
+ * loop) and is only valid until the handler it was passed to returns. [data] references the
+ * transport's receive buffer — copy anything that must outlive the call.
+ */
+class AudioDataView {
+    /** What the payload carries after the 12-byte sub-header */
+    enum class Kind {
+        PCM,
+        COMMAND,
+        VOLUME_DUCKING,
+        EMPTY,
+    }
+
+    var kind: Kind = Kind.EMPTY
+        private set
+    var decodeType: Int = 0
+        private set
+    var volume: Float = 0f
+        private set
+    var audioType: Int = 0
+        private set
+
+    /** Valid when [kind] is COMMAND */
+    var command: AudioCommand = AudioCommand.UNKNOWN
+        private set
+
+    /** Ducking duration; valid when [kind] is VOLUME_DUCKING */
+    var volumeDuration: Float = 0f
+        private set
+
+    /** Buffer holding the PCM samples; valid when [kind] is PCM */
+    var data: ByteArray? = null
+        private set
+    var dataOffset: Int = 0
+        private set
+    var dataLength: Int = 0
+        private set
+
+    internal fun set(
+        kind: Kind,
+        decodeType: Int,
+        volume: Float,
+        audioType: Int,
+        command: AudioCommand = AudioCommand.UNKNOWN,
+        volumeDuration: Float = 0f,
+        data: ByteArray? = null,
+        dataOffset: Int = 0,
+        dataLength: Int = 0,
+    ) {
+        this.kind = kind
+        this.decodeType = decodeType
+        this.volume = volume
+        this.audioType = audioType
+        this.command = command
+        this.volumeDuration = volumeDuration
+        this.data = data
+        this.dataOffset = dataOffset
+        this.dataLength = dataLength
+    }
+
+    /** Drop the buffer reference once the handler returns. */
+    fun clear() {
+        set(Kind.EMPTY, 0, 0f, 0)
+    }
+
+    override fun toString(): String =
+        when (kind) {
+            Kind.COMMAND -> "AudioDataView(command=${command.name})"
+            Kind.VOLUME_DUCKING -> "AudioDataView(volumeDuration=$volumeDuration)"
+            Kind.PCM -> {
+                val format = AudioFormats.fromDecodeType(decodeType)
+                "AudioDataView(format=${format.sampleRate}Hz ${format.channelCount}ch, audioType=$audioType, bytes=$dataLength)"
+            }
+            Kind.EMPTY -> "AudioDataView(empty)"
+        }
+}
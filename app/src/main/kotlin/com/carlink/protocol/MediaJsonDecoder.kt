@@ -0,0 +1,354 @@
+package com.carlink.protocol
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * Keys of MEDIA_DATA (subtype 1) and NaviJSON (subtype 200) payloads that the app consumes.
+ * Anything else in the JSON is skipped without being materialized.
+ */
+enum class MediaJsonKey(
+    val jsonName: String,
+    val isString: Boolean,
+) {
+    NAVI_STATUS("NaviStatus", false),
+    NAVI_MANEUVER_TYPE("NaviManeuverType", false),
+    NAVI_ORDER_TYPE("NaviOrderType", false),
+    NAVI_ROAD_NAME("NaviRoadName", true),
+    NAVI_REMAIN_DISTANCE("NaviRemainDistance", false),
+    NAVI_DISTANCE_TO_DESTINATION("NaviDistanceToDestination", false),
+    NAVI_TIME_TO_DESTINATION("NaviTimeToDestination", false),
+    NAVI_DESTINATION_NAME("NaviDestinationName", true),
+    NAVI_APP_NAME("NaviAPPName", true),
+    NAVI_TURN_ANGLE("NaviTurnAngle", false),
+    NAVI_TURN_SIDE("NaviTurnSide", false),
+    NAVI_JUNCTION_TYPE("NaviJunctionType", false),
+    MEDIA_SONG_NAME("MediaSongName", true),
+    MEDIA_ARTIST_NAME("MediaArtistName", true),
+    MEDIA_ALBUM_NAME("MediaAlbumName", true),
+    MEDIA_APP_NAME("MediaAPPName", true),
+    ;
+
+    /** Key name as ASCII bytes, compared directly against the payload */
+    internal val nameBytes: ByteArray = jsonName.toByteArray(StandardCharsets.US_ASCII)
+}
+
+/**
+ * Typed result of decoding one MEDIA_DATA / NaviJSON payload: the subset of [MediaJsonKey]
+ * present in this (partial) update. Numbers are kept as primitives, strings as decoded.
+ *
+ * Values keep the old Map-based semantics: a numeric key whose JSON value is not a number
+ * (or a string key whose value is not a string) is treated as absent, and fractional
+ * numbers are truncated.
+ */
+class MediaJsonFields {
+    private var present = 0L
+    private val numbers = LongArray(MediaJsonKey.entries.size)
+    private val strings = arrayOfNulls<String>(MediaJsonKey.entries.size)
+
+    /** Keys in the payload that are not in [MediaJsonKey] (skipped) */
+    var unknownKeys: Int = 0
+        internal set
+
+    val isEmpty: Boolean get() = present == 0L
+
+    fun has(key: MediaJsonKey): Boolean = present and (1L shl key.ordinal) != 0L
+
+    /** Numeric value, or [default] if the key was not in this update. */
+    fun intOr(
+        key: MediaJsonKey,
+        default: Int,
+    ): Int = if (has(key) && !key.isString) numbers[key.ordinal].toInt() else default
+
+    /** String value, or null if the key was not in this update. */
+    fun string(key: MediaJsonKey): String? = if (has(key)) strings[key.ordinal] else null
+
+    internal fun setNumber(
+        key: MediaJsonKey,
+        value: Long,
+    ) {
+        numbers[key.ordinal] = value
+        present = present or (1L shl key.ordinal)
+    }
+
+    internal fun setString(
+        key: MediaJsonKey,
+        value: String,
+    ) {
+        strings[key.ordinal] = value
+        present = present or (1L shl key.ordinal)
+    }
+
+    fun clear() {
+        present = 0L
+        unknownKeys = 0
+        strings.fill(null)
+    }
+
+    override fun toString(): String =
+        MediaJsonKey.entries
+            .filter { has(it) }
+            .joinToString(prefix = "{", postfix = "}") {
+                "${it.jsonName}=${if (it.isString) strings[it.ordinal] else numbers[it.ordinal]}"
+            } + if (unknownKeys > 0) " (+$unknownKeys unknown)" else ""
+}
+
+/**
+ * Streaming decoder for the adapter's MEDIA_DATA / NaviJSON payloads.
+ *
+ * PROBLEM:
+ * parseMediaData copied the JSON into a String, built an org.json DOM and boxed every value
+ * into a Map<String, Any>, which consumers then picked apart with casts — for NaviJSON that
+ * is every 100-500ms during guidance.
+ *
+ * SOLUTION:
+ * Tokenize the UTF-8 bytes in place. Keys are matched byte-for-byte against [MediaJsonKey]
+ * (no key Strings), numbers are parsed into longs, and only the values of known string keys
+ * are decoded into Strings. Unknown keys and nested values are skipped structurally.
+ * Stateless; safe from any thread.
+ *
+ * Accepts a single top-level object. Whitespace and NUL padding around it are ignored, as is
+ * anything after the closing brace (org.json behaves the same).
+ */
+object MediaJsonDecoder {
+    private const val FAIL = -1
+    private val KEYS = MediaJsonKey.entries.toTypedArray() // Array: no iterator per lookup
+
+    /**
+     * Decode [length] bytes of JSON at [offset] into [into] (cleared first).
+     *
+     * @return false if the payload is not a well-formed JSON object (into is left empty)
+     */
+    fun decode(
+        data: ByteArray,
+        offset: Int,
+        length: Int,
+        into: MediaJsonFields,
+    ): Boolean {
+        into.clear()
+        if (decodeObject(data, offset, offset + length, into) == FAIL) {
+            into.clear()
+            return false
+        }
+        return true
+    }
+
+    private fun decodeObject(
+        data: ByteArray,
+        start: Int,
+        end: Int,
+        into: MediaJsonFields,
+    ): Int {
+        var pos = skipWhitespace(data, start, end)
+        if (pos >= end || data[pos] != '{'.code.toByte()) return FAIL
+        pos = skipWhitespace(data, pos + 1, end)
+        if (pos < end && data[pos] == '}'.code.toByte()) return pos + 1
+
+        while (pos < end) {
+            if (data[pos] != '"'.code.toByte()) return FAIL
+            val keyEnd = scanString(data, pos + 1, end)
+            if (keyEnd == FAIL) return FAIL
+            val key = matchKey(data, pos + 1, keyEnd)
+
+            pos = skipWhitespace(data, keyEnd + 1, end)
+            if (pos >= end || data[pos] != ':'.code.toByte()) return FAIL
+            pos = skipWhitespace(data, pos + 1, end)
+            if (pos >= end) return FAIL
+
+            val b = data[pos]
+            pos =
+                when {
+                    key == null -> {
+                        into.unknownKeys++
+                        skipValue(data, pos, end)
+                    }
+
+                    key.isString && b == '"'.code.toByte() -> {
+                        val close = scanString(data, pos + 1, end)
+                        if (close == FAIL) return FAIL
+                        into.setString(key, decodeString(data, pos + 1, close))
+                        close + 1
+                    }
+
+                    !key.isString && (b == '-'.code.toByte() || isDigit(b)) -> decodeNumber(data, pos, end, key, into)
+
+                    // Known key, unexpected value type: treated as absent
+                    else -> skipValue(data, pos, end)
+                }
+            if (pos == FAIL) return FAIL
+
+            pos = skipWhitespace(data, pos, end)
+            if (pos >= end) return FAIL
+            when (data[pos]) {
+                ','.code.toByte() -> pos = skipWhitespace(data, pos + 1, end)
+                '}'.code.toByte() -> return pos + 1
+                else -> return FAIL
+            }
+        }
+        return FAIL
+    }
+
+    private fun matchKey(
+        data: ByteArray,
+        start: Int,
+        end: Int,
+    ): MediaJsonKey? {
+        val length = end - start
+        for (key in KEYS) {
+            val name = key.nameBytes
+            if (name.size != length) continue
+            var i = 0
+            while (i < length && data[start + i] == name[i]) i++
+            if (i == length) return key
+        }
+        // Escaped key names never match: the known keys are plain ASCII
+        return null
+    }
+
+    private fun decodeNumber(
+        data: ByteArray,
+        start: Int,
+        end: Int,
+        key: MediaJsonKey,
+        into: MediaJsonFields,
+    ): Int {
+        var pos = start
+        val negative = data[pos] == '-'.code.toByte()
+        if (negative) pos++
+        if (pos >= end || !isDigit(data[pos])) return FAIL
+
+        var value = 0L
+        while (pos < end && isDigit(data[pos])) {
+            value = value * 10 + (data[pos] - '0'.code.toByte())
+            pos++
+        }
+
+        if (pos < end && (data[pos] == '.'.code.toByte() || data[pos] == 'e'.code.toByte() || data[pos] == 'E'.code.toByte())) {
+            // Rare: fractional or exponent form — let the JDK parse it, truncate like Number.toInt()
+            while (pos < end && isNumberChar(data[pos])) pos++
+            val parsed = String(data, start, pos - start, StandardCharsets.US_ASCII).toDoubleOrNull() ?: return FAIL
+            into.setNumber(key, parsed.toLong())
+            return pos
+        }
+
+        into.setNumber(key, if (negative) -value else value)
+        return pos
+    }
+
+    /**
+     * Decode the string body between [start] and the closing quote at [end].
+     */
+    private fun decodeString(
+        data: ByteArray,
+        start: Int,
+        end: Int,
+    ): String {
+        var escape = start
+        while (escape < end && data[escape] != '\\'.code.toByte()) escape++
+        if (escape == end) return String(data, start, end - start, StandardCharsets.UTF_8)
+
+        // Escapes are ASCII, so the raw runs between them are complete UTF-8 sequences
+        val sb = StringBuilder(end - start)
+        var runStart = start
+        var pos = escape
+        while (pos < end) {
+            if (data[pos] != '\\'.code.toByte()) {
+                pos++
+                continue
+            }
+            if (pos > runStart) sb.append(String(data, runStart, pos - runStart, StandardCharsets.UTF_8))
+            val c = data[pos + 1].toInt().toChar()
+            pos += 2
+            when (c) {
+                'n' -> sb.append('\n')
+                't' -> sb.append('\t')
+                'r' -> sb.append('\r')
+                'b' -> sb.append('\b')
+                'f' -> sb.append('\u000C')
+                'u' -> {
+                    if (pos + 4 <= end) {
+                        sb.append(String(data, pos, 4, StandardCharsets.US_ASCII).toIntOrNull(16)?.toChar() ?: '\uFFFD')
+                        pos += 4
+                    }
+                }
+                else -> sb.append(c) // \" \\ \/
+            }
+            runStart = pos
+        }
+        if (end > runStart) sb.append(String(data, runStart, end - runStart, StandardCharsets.UTF_8))
+        return sb.toString()
+    }
+
+    /**
+     * @return Index of the closing quote of a string whose body starts at [start], or FAIL
+     */
+    private fun scanString(
+        data: ByteArray,
+        start: Int,
+        end: Int,
+    ): Int {
+        var pos = start
+        while (pos < end) {
+            when (data[pos]) {
+                '"'.code.toByte() -> return pos
+                '\\'.code.toByte() -> pos += 2
+                else -> pos++
+            }
+        }
+        return FAIL
+    }
+
+    /**
+     * Skip one value of any type (nested objects/arrays included).
+     */
+    private fun skipValue(
+        data: ByteArray,
+        start: Int,
+        end: Int,
+    ): Int {
+        var pos = start
+        var depth = 0
+        while (pos < end) {
+            when (data[pos]) {
+                '"'.code.toByte() -> {
+                    val close = scanString(data, pos + 1, end)
+                    if (close == FAIL) return FAIL
+                    pos = close + 1
+                    if (depth == 0) return pos
+                    continue
+                }
+                '{'.code.toByte(), '['.code.toByte() -> depth++
+                '}'.code.toByte(), ']'.code.toByte() -> {
+                    if (depth == 0) return pos // End of the enclosing object
+                    depth--
+                    if (depth == 0) return pos + 1
+                }
+                ','.code.toByte(), ' '.code.toByte(), '\t'.code.toByte(), '\n'.code.toByte(), '\r'.code.toByte() -> {
+                    if (depth == 0) return pos // End of a literal (number, true, false, null)
+                }
+            }
+            pos++
+        }
+        return if (depth == 0) pos else FAIL
+    }
+
+    private fun skipWhitespace(
+        data: ByteArray,
+        start: Int,
+        end: Int,
+    ): Int {
+        var pos = start
+        while (pos < end) {
+            when (data[pos]) {
+                ' '.code.toByte(), '\t'.code.toByte(), '\n'.code.toByte(), '\r'.code.toByte(), 0.toByte() -> pos++
+                else -> return pos
+            }
+        }
+        return pos
+    }
+
+    private fun isDigit(b: Byte): Boolean = b >= '0'.code.toByte() && b <= '9'.code.toByte()
+
+    private fun isNumberChar(b: Byte): Boolean =
+        isDigit(b) || b == '.'.code.toByte() || b == 'e'.code.toByte() || b == 'E'.code.toByte() ||
+            b == '+'.code.toByte() || b == '-'.code.toByte()
+}
@@ -0,0 +1,126 @@
+package com.carlink.protocol
+
+import com.carlink.util.Log2Histogram
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Table-driven dispatch of received messages by raw type id.
+ *
+ * PROBLEM:
+ * Each received message was classified several times: MessageType.fromId (HashMap, boxed Int),
+ * a chain of type checks in AdapterDriver.onMessage, then parseMessage's `when`. Unrecognized
+ * ids were still parsed into an UnknownMessage and delivered.
+ *
+ * SOLUTION:
+ * Handlers are registered per type id in a dense [MessageType.ID_TABLE_SIZE]-slot array, so
+ * dispatch is one bounds check and one array load. High-rate types (VIDEO_DATA, AUDIO_DATA)
+ * get dedicated zero-allocation handlers; only the handlers that want a [Message] parse one.
+ * Ids without a handler are counted, not parsed.
+ *
+ * Per-type dispatch counts and handler durations (lock-free [Log2Histogram]) are kept for
+ * every registered type and reported by [getStats].
+ *
+ * Register all handlers before the first [dispatch] (the reading loop thread start publishes
+ * the table); dispatch() itself runs on the reading loop thread.
+ */
+class MessageDispatcher {
+    /**
+     * Receives the raw payload: [data] may be a view into a transport buffer and is only
+     * valid for the duration of the call. [data] is null when the payload was consumed by a
+     * direct processor (video/audio) or the message has none.
+     */
+    fun interface Handler {
+        fun handle(
+            data: ByteArray?,
+            offset: Int,
+            length: Int,
+        )
+    }
+
+    private val handlers = arrayOfNulls<Handler>(MessageType.ID_TABLE_SIZE)
+    private val durations = arrayOfNulls<Log2Histogram>(MessageType.ID_TABLE_SIZE)
+    private val dispatched = AtomicLongArray(MessageType.ID_TABLE_SIZE)
+    private val unhandled = AtomicLongArray(MessageType.ID_TABLE_SIZE)
+    private val outOfRange = AtomicLong(0)
+
+    fun register(
+        type: MessageType,
+        handler: Handler,
+    ) {
+        require(type != MessageType.UNKNOWN) { "UNKNOWN has no type id" }
+        handlers[type.id] = handler
+        if (durations[type.id] == null) durations[type.id] = Log2Histogram()
+    }
+
+    /**
+     * Route a message to the handler registered for [typeId]. Handler exceptions propagate
+     * to the caller; the handler's duration is recorded either way.
+     *
+     * @return false if no handler is registered for [typeId] (counted, not delivered)
+     */
+    fun dispatch(
+        typeId: Int,
+        data: ByteArray?,
+        offset: Int,
+        length: Int,
+    ): Boolean {
+        if (typeId !in 0 until MessageType.ID_TABLE_SIZE) {
+            outOfRange.incrementAndGet()
+            return false
+        }
+        val handler = handlers[typeId]
+        if (handler == null) {
+            unhandled.incrementAndGet(typeId)
+            return false
+        }
+
+        dispatched.incrementAndGet(typeId)
+        val start = System.nanoTime()
+        try {
+            handler.handle(data, offset, length)
+        } finally {
+            durations[typeId]?.record(System.nanoTime() - start)
+        }
+        return true
+    }
+
+    /** Times [typeId] arrived without a handler (ids outside the table are counted together). */
+    fun unhandledCount(typeId: Int): Long =
+        if (typeId in 0 until MessageType.ID_TABLE_SIZE) unhandled.get(typeId) else outOfRange.get()
+
+    /**
+     * Per registered type with traffic: dispatch count and handler duration (us);
+     * plus unhandled ids ("0x.." → count).
+     */
+    fun getStats(): Map<String, Any> {
+        val perType = LinkedHashMap<String, Any>()
+        val unhandledIds = LinkedHashMap<String, Long>()
+        for (id in 0 until MessageType.ID_TABLE_SIZE) {
+            val count = dispatched.get(id)
+            if (count > 0) {
+                perType[MessageType.fromId(id).name] =
+                    mapOf(
+                        "count" to count,
+                        "handlerUs" to (durations[id]?.snapshot(1000) ?: emptyMap<String, Long>()),
+                    )
+            }
+            val missed = unhandled.get(id)
+            if (missed > 0) unhandledIds["0x${id.toString(16)}"] = missed
+        }
+        if (outOfRange.get() > 0) unhandledIds["outOfRange"] = outOfRange.get()
+        return mapOf(
+            "perType" to perType,
+            "unhandled" to unhandledIds,
+        )
+    }
+
+    fun reset() {
+        for (id in 0 until MessageType.ID_TABLE_SIZE) {
+            dispatched.set(id, 0)
+            unhandled.set(id, 0)
+            durations[id]?.reset()
+        }
+        outOfRange.set(0)
+    }
+}
@@ -2,11 +2,8 @@ package com.carlink.protocol
 
 import com.carlink.audio.AudioFormats
 import com.carlink.logging.logWarn
-import org.json.JSONException
-import org.json.JSONObject
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
-import java.nio.charset.StandardCharsets
 
 /**
  * CPC200-CCPA Protocol Message Parser
@@ -26,8 +23,26 @@ object MessageParser {
         if (data.size != HEADER_SIZE) {
             throw HeaderParseException("Invalid buffer size - Expecting $HEADER_SIZE, got ${data.size}")
         }
+        return parseHeader(data, 0)
+    }
+
+    /**
+     * Parse a 16-byte header located at [offset] inside a larger buffer.
+     *
+     * @param data Buffer containing at least 16 bytes from offset
+     * @param offset Start of the header in data
+     * @return Parsed MessageHeader
+     * @throws HeaderParseException if header is invalid
+     */
+    fun parseHeader(
+        data: ByteArray,
+        offset: Int,
+    ): MessageHeader {
+        if (data.size - offset < HEADER_SIZE) {
+            throw HeaderParseException("Invalid buffer size - Expecting $HEADER_SIZE, got ${data.size - offset}")
+        }
 
-        val buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN)
+        val buffer = ByteBuffer.wrap(data, offset, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
 
         val magic = buffer.int
         if (magic != PROTOCOL_MAGIC) {
@@ -52,33 +67,44 @@ object MessageParser {
     /**
      * Parse a complete message from header and payload.
      *
+     * The payload may be a view into a larger buffer (e.g. the USB demux buffer or a pooled
+     * lease). AudioDataMessage.data and VideoDataMessage.data keep referencing that buffer,
+     * so those messages are only valid for the duration of the handler call; all other types
+     * copy what they keep.
+     *
      * @param header Parsed message header
      * @param payload Message payload bytes (can be null for some message types)
+     * @param offset Start of the payload within [payload]
      * @return Parsed Message object
      */
     fun parseMessage(
         header: MessageHeader,
         payload: ByteArray?,
+        offset: Int = 0,
     ): Message =
         when (header.type) {
-            MessageType.AUDIO_DATA -> parseAudioData(header, payload)
-            MessageType.VIDEO_DATA -> parseVideoData(header, payload)
-            MessageType.MEDIA_DATA -> parseMediaData(header, payload)
-            MessageType.COMMAND -> parseCommand(header, payload)
-            MessageType.PLUGGED -> parsePlugged(header, payload)
+            MessageType.AUDIO_DATA -> parseAudioData(header, payload, offset)
+            MessageType.VIDEO_DATA -> parseVideoData(header, payload, offset)
+            MessageType.MEDIA_DATA -> parseMediaData(header, payload, offset)
+            MessageType.COMMAND -> parseCommand(header, payload, offset)
+            MessageType.PLUGGED -> parsePlugged(header, payload, offset)
             MessageType.UNPLUGGED -> UnpluggedMessage(header)
+            MessageType.SESSION_TOKEN -> parseSessionToken(header, payload, offset)
+            MessageType.REMOTE_CX_CY -> parseRemoteCxCy(header, payload, offset)
+            MessageType.REMOTE_DISPLAY -> parseRemoteDisplay(header, payload, offset)
             else -> UnknownMessage(header)
         }
 
     private fun parseAudioData(
         header: MessageHeader,
         payload: ByteArray?,
+        offset: Int,
     ): Message {
         if (payload == null || header.length < 12) {
             return UnknownMessage(header)
         }
 
-        val buffer = ByteBuffer.wrap(payload, 0, header.length).order(ByteOrder.LITTLE_ENDIAN)
+        val buffer = ByteBuffer.wrap(payload, offset, header.length).order(ByteOrder.LITTLE_ENDIAN)
 
         val decodeType = buffer.int
         val volume = buffer.float
@@ -88,7 +114,7 @@ object MessageParser {
 
         return when {
             remainingBytes == 1 -> {
-                val commandId = payload[12].toInt() and 0xFF
+                val commandId = payload[offset + 12].toInt() and 0xFF
                 AudioDataMessage(
                     header = header,
                     decodeType = decodeType,
@@ -101,7 +127,7 @@ object MessageParser {
             }
 
             remainingBytes == 4 -> {
-                buffer.position(12)
+                buffer.position(offset + 12)
                 val duration = buffer.float
                 AudioDataMessage(
                     header = header,
@@ -123,7 +149,7 @@ object MessageParser {
                     command = null,
                     data = payload,
                     volumeDuration = null,
-                    audioDataOffset = 12,
+                    audioDataOffset = offset + 12,
                     audioDataLength = remainingBytes,
                 )
             }
@@ -142,9 +168,61 @@ object MessageParser {
         }
     }
 
+    /**
+     * Decode an AUDIO_DATA payload into a reusable [view] without allocating.
+     * Same interpretation as [parseMessage] gives AudioDataMessage; [view] references [payload].
+     *
+     * @return false if the payload is too short to be AUDIO_DATA (view is cleared)
+     */
+    fun decodeAudioData(
+        view: AudioDataView,
+        payload: ByteArray?,
+        offset: Int,
+        length: Int,
+    ): Boolean {
+        if (payload == null || length < AUDIO_SUBHEADER_SIZE) {
+            view.clear()
+            return false
+        }
+
+        val decodeType = readIntLE(payload, offset)
+        val volume = Float.fromBits(readIntLE(payload, offset + 4))
+        val audioType = readIntLE(payload, offset + 8)
+        val remainingBytes = length - AUDIO_SUBHEADER_SIZE
+        val body = offset + AUDIO_SUBHEADER_SIZE
+
+        when {
+            remainingBytes == 1 -> {
+                val command = AudioCommand.fromId(payload[body].toInt() and 0xFF)
+                view.set(AudioDataView.Kind.COMMAND, decodeType, volume, audioType, command = command)
+            }
+
+            remainingBytes == 4 -> {
+                val duration = Float.fromBits(readIntLE(payload, body))
+                view.set(AudioDataView.Kind.VOLUME_DUCKING, decodeType, volume, audioType, volumeDuration = duration)
+            }
+
+            remainingBytes > 0 -> {
+                view.set(
+                    AudioDataView.Kind.PCM,
+                    decodeType,
+                    volume,
+                    audioType,
+                    data = payload,
+                    dataOffset = body,
+                    dataLength = remainingBytes,
+                )
+            }
+
+            else -> view.set(AudioDataView.Kind.EMPTY, decodeType, volume, audioType)
+        }
+        return true
+    }
+
     private fun parseVideoData(
         header: MessageHeader,
         payload: ByteArray?,
+        offset: Int,
     ): Message {
         if (payload == null || header.length <= 20) {
             return VideoDataMessage(
@@ -157,7 +235,7 @@ object MessageParser {
             )
         }
 
-        val buffer = ByteBuffer.wrap(payload, 0, header.length).order(ByteOrder.LITTLE_ENDIAN)
+        val buffer = ByteBuffer.wrap(payload, offset, header.length).order(ByteOrder.LITTLE_ENDIAN)
 
         val width = buffer.int
         val height = buffer.int
@@ -169,77 +247,62 @@ object MessageParser {
         val pts = buffer.int
         buffer.int // flags — always 0, skip
 
-        val videoData =
-            if (header.length > 20) {
-                ByteArray(header.length - 20).also {
-                    System.arraycopy(payload, 20, it, 0, it.size)
-                }
-            } else {
-                null
-            }
-
+        // H.264 data stays in the payload buffer — the renderer copies into its staging slot
         return VideoDataMessage(
             header = header,
             width = width,
             height = height,
             encoderState = encoderState,
             pts = pts,
-            data = videoData,
+            data = if (header.length > 20) payload else null,
+            dataOffset = offset + 20,
+            dataLength = maxOf(header.length - 20, 0),
         )
     }
 
     private fun parseMediaData(
         header: MessageHeader,
         payload: ByteArray?,
+        offset: Int,
     ): Message {
         if (payload == null || header.length < 4) {
-            return MediaDataMessage(header, MediaType.UNKNOWN, emptyMap())
+            return MediaDataMessage(header, MediaType.UNKNOWN)
         }
 
-        val buffer = ByteBuffer.wrap(payload, 0, header.length).order(ByteOrder.LITTLE_ENDIAN)
-        val typeInt = buffer.int
-        val mediaType = MediaType.fromId(typeInt)
-
-        val mediaPayload: Map<String, Any> =
-            when (mediaType) {
-                MediaType.ALBUM_COVER -> {
-                    val imageData = ByteArray(header.length - 4)
-                    System.arraycopy(payload, 4, imageData, 0, imageData.size)
-                    mapOf("AlbumCover" to imageData)
-                }
+        val mediaType = MediaType.fromId(readIntLE(payload, offset))
 
-                MediaType.DATA, MediaType.NAVI_JSON -> {
-                    if (header.length < 6) {
-                        // Need at least: 4 (type int) + 1 (JSON byte) + 1 (trailing null)
-                        emptyMap()
-                    } else try {
-                        val jsonBytes = ByteArray(header.length - 5) // Exclude type int and trailing null
-                        System.arraycopy(payload, 4, jsonBytes, 0, jsonBytes.size)
-                        val jsonString = String(jsonBytes, StandardCharsets.UTF_8).trim('\u0000')
-                        val json = JSONObject(jsonString)
-                        json.keys().asSequence().associateWith { json.get(it) }
-                    } catch (e: JSONException) {
-                        logWarn("[MessageParser] Failed to parse media metadata JSON: ${e.message}")
-                        emptyMap()
-                    }
-                }
+        return when (mediaType) {
+            MediaType.ALBUM_COVER -> {
+                // Exact-size copy: the cover outlives the message (MediaSession, UI state)
+                val imageData = ByteArray(header.length - 4)
+                System.arraycopy(payload, offset + 4, imageData, 0, imageData.size)
+                MediaDataMessage(header, mediaType, albumCover = imageData)
+            }
 
-                else -> {
-                    emptyMap()
+            MediaType.DATA, MediaType.NAVI_JSON -> {
+                val fields = MediaJsonFields()
+                // Need at least: 4 (type int) + 1 (JSON byte) + 1 (trailing null)
+                if (header.length >= 6 && !MediaJsonDecoder.decode(payload, offset + 4, header.length - 4, fields)) {
+                    logWarn("[MessageParser] Failed to parse media metadata JSON (${header.length - 4} bytes)")
                 }
+                MediaDataMessage(header, mediaType, fields = fields)
             }
 
-        return MediaDataMessage(header, mediaType, mediaPayload)
+            else -> {
+                MediaDataMessage(header, mediaType)
+            }
+        }
     }
 
     private fun parseCommand(
         header: MessageHeader,
         payload: ByteArray?,
+        offset: Int,
     ): Message {
         if (payload == null || header.length < 4) {
             return CommandMessage(header, CommandMapping.INVALID)
         }
-        val buffer = ByteBuffer.wrap(payload, 0, header.length).order(ByteOrder.LITTLE_ENDIAN)
+        val buffer = ByteBuffer.wrap(payload, offset, header.length).order(ByteOrder.LITTLE_ENDIAN)
         val commandId = buffer.int
         return CommandMessage(header, CommandMapping.fromId(commandId))
     }
@@ -247,11 +310,12 @@ object MessageParser {
     private fun parsePlugged(
         header: MessageHeader,
         payload: ByteArray?,
+        offset: Int,
     ): Message {
         if (payload == null || header.length < 4) {
             return PluggedMessage(header, PhoneType.UNKNOWN, null)
         }
-        val buffer = ByteBuffer.wrap(payload, 0, header.length).order(ByteOrder.LITTLE_ENDIAN)
+        val buffer = ByteBuffer.wrap(payload, offset, header.length).order(ByteOrder.LITTLE_ENDIAN)
         val phoneTypeId = buffer.int
         val phoneType = PhoneType.fromId(phoneTypeId)
 
@@ -265,6 +329,40 @@ object MessageParser {
         return PluggedMessage(header, phoneType, wifi)
     }
 
+    private fun parseSessionToken(
+        header: MessageHeader,
+        payload: ByteArray?,
+        offset: Int,
+    ): Message {
+        if (payload == null || header.length <= 0) return UnknownMessage(header)
+        // Decrypted later on a background thread, so copy out of the receive buffer
+        return SessionTokenMessage(header, payload.copyOfRange(offset, offset + header.length))
+    }
+
+    /**
+     * RemoteCxCy: width (4B LE), height (4B LE) of the phone's video stream.
+     */
+    private fun parseRemoteCxCy(
+        header: MessageHeader,
+        payload: ByteArray?,
+        offset: Int,
+    ): Message {
+        if (payload == null || header.length < 8) return UnknownMessage(header)
+        return RemoteCxCyMessage(header, readIntLE(payload, offset), readIntLE(payload, offset + 4))
+    }
+
+    /**
+     * RemoteDisplay: 28 bytes whose fields are not identified yet, kept as 7 LE ints.
+     */
+    private fun parseRemoteDisplay(
+        header: MessageHeader,
+        payload: ByteArray?,
+        offset: Int,
+    ): Message {
+        if (payload == null || header.length < 4) return UnknownMessage(header)
+        val params = IntArray(header.length / 4) { readIntLE(payload, offset + it * 4) }
+        return RemoteDisplayMessage(header, params)
+    }
 }
 
 // ==================== Message Classes ====================
@@ -357,7 +455,10 @@ class VideoDataMessage(
     val encoderState: Int,
     /** Source presentation timestamp in milliseconds from phone */
     val pts: Int,
+    /** H.264 data buffer (may be shared — valid only during message handling) */
     val data: ByteArray?,
+    val dataOffset: Int = 0,
+    val dataLength: Int = data?.size ?: 0,
 ) : Message(header) {
     override fun toString(): String = "VideoData(${width}x$height, encoderState=$encoderState, pts=$pts)"
 }
@@ -368,9 +469,43 @@ class VideoDataMessage(
 class MediaDataMessage(
     header: MessageHeader,
     val type: MediaType,
-    val payload: Map<String, Any>,
+    /** Decoded JSON keys (DATA, NAVI_JSON); empty if the JSON was malformed */
+    val fields: MediaJsonFields? = null,
+    /** Image bytes (ALBUM_COVER), owned by the message */
+    val albumCover: ByteArray? = null,
+) : Message(header) {
+    override fun toString(): String = "MediaData(type=${type.name}${fields?.let { ", $it" } ?: ""})"
+}
+
+/**
+ * Encrypted session telemetry (Base64 text), decoded by [SessionTokenDecoder].
+ */
+class SessionTokenMessage(
+    header: MessageHeader,
+    val token: ByteArray,
+) : Message(header) {
+    override fun toString(): String = "SessionToken(${token.size} bytes)"
+}
+
+/**
+ * Phone video stream geometry announced by the adapter (REMOTE_CX_CY).
+ */
+class RemoteCxCyMessage(
+    header: MessageHeader,
+    val width: Int,
+    val height: Int,
+) : Message(header) {
+    override fun toString(): String = "RemoteCxCy(${width}x$height)"
+}
+
+/**
+ * Remote display parameters (REMOTE_DISPLAY), raw little-endian ints — layout unconfirmed.
+ */
+class RemoteDisplayMessage(
+    header: MessageHeader,
+    val params: IntArray,
 ) : Message(header) {
-    override fun toString(): String = "MediaData(type=${type.name})"
+    override fun toString(): String = "RemoteDisplay(${params.joinToString()})"
 }
 
 /**
@@ -4,13 +4,36 @@ import org.json.JSONObject
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.nio.charset.StandardCharsets
+import java.util.EnumMap
+
+/** Size of the AUDIO_DATA sub-header (decodeType, volume, audioType) */
+const val AUDIO_SUBHEADER_SIZE: Int = 12
 
 /**
  * CPC200-CCPA Protocol Message Serializer
  *
  * Serializes message objects into binary format for transmission to the Carlinkit adapter.
  * Handles header generation, payload encoding, and type-specific serialization.
+ *
+ * ALLOCATION:
+ * - Every serialize*() call allocates exactly one array: header and payload are encoded
+ *   in one pass into the final frame (no header + payload concatenation).
+ * - Constant messages (HEARTBEAT, every COMMAND) are pre-encoded once. The frames stay
+ *   private: commandFrame()/heartbeatFrame() hand out a [ConstantFrame] that AdapterDriver
+ *   queues in place, while serializeCommand()/serializeHeartbeat() return a copy.
+ * - encodeAudioInto() writes a microphone frame into a caller-supplied array with no
+ *   allocation at all.
+ */
+/**
+ * A pre-encoded frame shared by every send of the same constant message. Only the protocol
+ * layer can reach the bytes, so callers can queue it but not modify it.
  */
+class ConstantFrame internal constructor(
+    internal val bytes: ByteArray,
+) {
+    val size: Int get() = bytes.size
+}
+
 object MessageSerializer {
     /**
      * Create a protocol header for the given message type and payload length.
@@ -18,45 +41,64 @@ object MessageSerializer {
     fun createHeader(
         type: MessageType,
         payloadLength: Int,
-    ): ByteArray {
-        val buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
-        buffer.putInt(PROTOCOL_MAGIC)
-        buffer.putInt(payloadLength)
-        buffer.putInt(type.id)
-        buffer.putInt(type.id.inv())
-        return buffer.array()
+    ): ByteArray = ByteArray(HEADER_SIZE).also { encodeHeader(it, 0, type, payloadLength) }
+
+    /**
+     * Write a protocol header into [dst] at [offset] (16 bytes).
+     */
+    fun encodeHeader(
+        dst: ByteArray,
+        offset: Int,
+        type: MessageType,
+        payloadLength: Int,
+    ) {
+        putIntLE(dst, offset, PROTOCOL_MAGIC)
+        putIntLE(dst, offset + 4, payloadLength)
+        putIntLE(dst, offset + 8, type.id)
+        putIntLE(dst, offset + 12, type.id.inv())
     }
 
     /**
-     * Serialize a complete message with header and payload.
+     * Allocate a complete frame with its header written; returns a little-endian buffer
+     * positioned at the start of the payload.
      */
-    private fun serializeWithPayload(
+    private fun frame(
         type: MessageType,
-        payload: ByteArray,
-    ): ByteArray {
-        val header = createHeader(type, payload.size)
-        return header + payload
+        payloadLength: Int,
+    ): ByteBuffer {
+        val data = ByteArray(HEADER_SIZE + payloadLength)
+        encodeHeader(data, 0, type, payloadLength)
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).apply { position(HEADER_SIZE) }
     }
 
     /**
-     * Serialize a header-only message (no payload).
+     * Serialize a complete message with header and an already-encoded payload.
      */
-    private fun serializeHeaderOnly(type: MessageType): ByteArray = createHeader(type, 0)
+    private fun serializeWithPayload(
+        type: MessageType,
+        payload: ByteArray,
+    ): ByteArray = frame(type, payload.size).put(payload).array()
+
+    // Pre-encoded constant frames (shared, read-only)
+    private val heartbeatFrame = ConstantFrame(createHeader(MessageType.HEARTBEAT, 0))
+    private val commandFrames =
+        EnumMap<CommandMapping, ConstantFrame>(CommandMapping::class.java).apply {
+            for (command in CommandMapping.entries) {
+                put(command, ConstantFrame(frame(MessageType.COMMAND, 4).putInt(command.id).array()))
+            }
+        }
 
     // ==================== Command Messages ====================
 
     /**
-     * Serialize a command message.
+     * Serialize a command message (a copy of the pre-encoded frame).
      */
-    fun serializeCommand(command: CommandMapping): ByteArray {
-        val payload =
-            ByteBuffer
-                .allocate(4)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .putInt(command.id)
-                .array()
-        return serializeWithPayload(MessageType.COMMAND, payload)
-    }
+    fun serializeCommand(command: CommandMapping): ByteArray = commandFrames.getValue(command).bytes.copyOf()
+
+    /**
+     * Pre-encoded command frame, sent without allocating.
+     */
+    fun commandFrame(command: CommandMapping): ConstantFrame = commandFrames.getValue(command)
 
     // ==================== Touch Messages ====================
 
@@ -76,16 +118,16 @@ object MessageSerializer {
      * @param touches List of touch points with normalized coordinates
      */
     fun serializeMultiTouch(touches: List<TouchPoint>): ByteArray {
-        val payload = ByteBuffer.allocate(touches.size * 16).order(ByteOrder.LITTLE_ENDIAN)
+        val frame = frame(MessageType.MULTI_TOUCH, touches.size * 16)
 
         for (touch in touches) {
-            payload.putFloat(touch.x)
-            payload.putFloat(touch.y)
-            payload.putInt(touch.action.id)
-            payload.putInt(touch.id)
+            frame.putFloat(touch.x)
+            frame.putFloat(touch.y)
+            frame.putInt(touch.action.id)
+            frame.putInt(touch.id)
         }
 
-        return serializeWithPayload(MessageType.MULTI_TOUCH, payload.array())
+        return frame.array()
     }
 
     // ==================== Audio Messages ====================
@@ -104,17 +146,34 @@ object MessageSerializer {
         audioType: Int = 3,
         volume: Float = 0.0f,
     ): ByteArray {
-        val payload =
-            ByteBuffer
-                .allocate(12 + data.size)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .putInt(decodeType)
-                .putFloat(volume)
-                .putInt(audioType)
-                .put(data)
-                .array()
+        val frame = ByteArray(HEADER_SIZE + AUDIO_SUBHEADER_SIZE + data.size)
+        encodeAudioInto(frame, 0, data, 0, data.size, decodeType, audioType, volume)
+        return frame
+    }
 
-        return serializeWithPayload(MessageType.AUDIO_DATA, payload)
+    /**
+     * Encode a microphone audio message into [dst] at [offset] without allocating.
+     * [dst] needs HEADER_SIZE + AUDIO_SUBHEADER_SIZE + [pcmLength] bytes from offset.
+     *
+     * @return Frame length written
+     */
+    fun encodeAudioInto(
+        dst: ByteArray,
+        offset: Int,
+        pcm: ByteArray,
+        pcmOffset: Int,
+        pcmLength: Int,
+        decodeType: Int = 5,
+        audioType: Int = 3,
+        volume: Float = 0.0f,
+    ): Int {
+        val payloadLength = AUDIO_SUBHEADER_SIZE + pcmLength
+        encodeHeader(dst, offset, MessageType.AUDIO_DATA, payloadLength)
+        putIntLE(dst, offset + HEADER_SIZE, decodeType)
+        putIntLE(dst, offset + HEADER_SIZE + 4, java.lang.Float.floatToRawIntBits(volume))
+        putIntLE(dst, offset + HEADER_SIZE + 8, audioType)
+        System.arraycopy(pcm, pcmOffset, dst, offset + HEADER_SIZE + AUDIO_SUBHEADER_SIZE, pcmLength)
+        return HEADER_SIZE + payloadLength
     }
 
     // ==================== File Messages ====================
@@ -128,17 +187,12 @@ object MessageSerializer {
     ): ByteArray {
         val fileNameBytes = (fileName + "\u0000").toByteArray(StandardCharsets.US_ASCII)
 
-        val payload =
-            ByteBuffer
-                .allocate(4 + fileNameBytes.size + 4 + content.size)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .putInt(fileNameBytes.size)
-                .put(fileNameBytes)
-                .putInt(content.size)
-                .put(content)
-                .array()
-
-        return serializeWithPayload(MessageType.SEND_FILE, payload)
+        return frame(MessageType.SEND_FILE, 4 + fileNameBytes.size + 4 + content.size)
+            .putInt(fileNameBytes.size)
+            .put(fileNameBytes)
+            .putInt(content.size)
+            .put(content)
+            .array()
     }
 
     /**
@@ -176,28 +230,28 @@ object MessageSerializer {
     // ==================== Protocol Messages ====================
 
     /**
-     * Serialize a heartbeat message.
+     * Serialize a heartbeat message (a copy of the pre-encoded frame).
+     */
+    fun serializeHeartbeat(): ByteArray = heartbeatFrame.bytes.copyOf()
+
+    /**
+     * Pre-encoded heartbeat frame, sent without allocating.
      */
-    fun serializeHeartbeat(): ByteArray = serializeHeaderOnly(MessageType.HEARTBEAT)
+    fun heartbeatFrame(): ConstantFrame = heartbeatFrame
 
     /**
      * Serialize an open message with adapter configuration.
      */
     fun serializeOpen(config: AdapterConfig): ByteArray {
-        val payload =
-            ByteBuffer
-                .allocate(28)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .putInt(config.width)
-                .putInt(config.height)
-                .putInt(config.fps)
-                .putInt(config.format)
-                .putInt(config.packetMax)
-                .putInt(config.iBoxVersion)
-                .putInt(config.phoneWorkMode)
-                .array()
-
-        return serializeWithPayload(MessageType.OPEN, payload)
+        return frame(MessageType.OPEN, 28)
+            .putInt(config.width)
+            .putInt(config.height)
+            .putInt(config.fps)
+            .putInt(config.format)
+            .putInt(config.packetMax)
+            .putInt(config.iBoxVersion)
+            .putInt(config.phoneWorkMode)
+            .array()
     }
 
     /**
@@ -12,6 +12,28 @@ const val PROTOCOL_MAGIC: Int = 0x55aa55aa
 /** Header size in bytes */
 const val HEADER_SIZE: Int = 16
 
+/** Little-endian int at [offset] of [buffer]; every header and payload field is encoded this way. */
+internal fun readIntLE(
+    buffer: ByteArray,
+    offset: Int,
+): Int =
+    (buffer[offset].toInt() and 0xFF) or
+        ((buffer[offset + 1].toInt() and 0xFF) shl 8) or
+        ((buffer[offset + 2].toInt() and 0xFF) shl 16) or
+        ((buffer[offset + 3].toInt() and 0xFF) shl 24)
+
+/** Write [value] little-endian at [offset] of [dst]. */
+internal fun putIntLE(
+    dst: ByteArray,
+    offset: Int,
+    value: Int,
+) {
+    dst[offset] = value.toByte()
+    dst[offset + 1] = (value shr 8).toByte()
+    dst[offset + 2] = (value shr 16).toByte()
+    dst[offset + 3] = (value shr 24).toByte()
+}
+
 /**
  * USB Communication Encryption Key for SESSION_TOKEN (0xA3) decryption.
  *
@@ -271,9 +293,18 @@ enum class MessageType(
     val CLOSE_ADAPTR get() = CLOSE_DONGLE
 
     companion object {
-        private val idMap = entries.associateBy { it.id }
-
-        fun fromId(id: Int): MessageType = idMap[id] ?: UNKNOWN
+        /** Every protocol type id is below this; ids index [byId] directly */
+        const val ID_TABLE_SIZE = 256
+
+        // Dense table instead of a HashMap<Int, …>: no boxing, one array load per lookup
+        private val byId =
+            arrayOfNulls<MessageType>(ID_TABLE_SIZE).also { table ->
+                for (type in entries) {
+                    if (type.id in 0 until ID_TABLE_SIZE) table[type.id] = type
+                }
+            }
+
+        fun fromId(id: Int): MessageType = if (id in 0 until ID_TABLE_SIZE) byId[id] ?: UNKNOWN else UNKNOWN
     }
 }
 
@@ -0,0 +1,144 @@
+package com.carlink.protocol
+
+import org.json.JSONException
+import org.json.JSONObject
+import java.nio.charset.StandardCharsets
+import java.security.GeneralSecurityException
+import java.util.Base64
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import javax.crypto.Cipher
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Phone and adapter telemetry decrypted from SESSION_TOKEN (0xA3).
+ *
+ * Fields are null when absent from the token (conRate/conNum/success are missing on a
+ * phone's first connection). See [SESSION_TOKEN_ENCRYPTION_KEY] for the JSON layout.
+ */
+data class SessionTelemetry(
+    val phoneModel: String?,
+    val phoneOsVersion: String?,
+    /** "CarPlay" or "AndroidAuto" */
+    val linkType: String?,
+    /**
+     * phone.conSpd — connection speed indicator. Observed 4 (fast) and 6 (normal); lower
+     * appears to be faster, full range undocumented. Link-quality signal for choosing
+     * fps/resolution defaults on wireless sessions.
+     */
+    val connectionSpeed: Int?,
+    /** phone.conRate — historical connection success rate, 0.0-1.0 */
+    val connectionRate: Double?,
+    val connectionAttempts: Int?,
+    val successfulConnections: Int?,
+    val boxUuid: String?,
+    val boxModel: String?,
+    val boxHardware: String?,
+    val boxFirmware: String?,
+    /** Manufacturing date, YYYYMMDD */
+    val boxManufactured: String?,
+) {
+    companion object {
+        fun fromJson(json: JSONObject): SessionTelemetry {
+            val phone = json.optJSONObject("phone") ?: JSONObject()
+            val box = json.optJSONObject("box") ?: JSONObject()
+            return SessionTelemetry(
+                phoneModel = phone.optStringOrNull("model"),
+                phoneOsVersion = phone.optStringOrNull("osVer"),
+                linkType = phone.optStringOrNull("linkT"),
+                connectionSpeed = (phone.opt("conSpd") as? Number)?.toInt(),
+                connectionRate = (phone.opt("conRate") as? Number)?.toDouble(),
+                connectionAttempts = (phone.opt("conNum") as? Number)?.toInt(),
+                successfulConnections = (phone.opt("success") as? Number)?.toInt(),
+                boxUuid = box.optStringOrNull("uuid"),
+                boxModel = box.optStringOrNull("model"),
+                boxHardware = box.optStringOrNull("hw"),
+                boxFirmware = box.optStringOrNull("ver"),
+                boxManufactured = box.optStringOrNull("mfd"),
+            )
+        }
+
+        private fun JSONObject.optStringOrNull(name: String): String? = (opt(name) as? String)?.takeIf { it.isNotEmpty() }
+    }
+}
+
+/**
+ * Decrypts SESSION_TOKEN payloads on a background worker.
+ *
+ * The token arrives once per session on the USB read thread; Base64 + AES-128-CBC + JSON is
+ * not work for that thread. [decode] hands a copy of the payload to a single daemon thread,
+ * which owns one cached [Cipher] (Cipher is not thread-safe and costly to look up).
+ *
+ * Token layout: Base64 text (NUL-padded); decoded = 16-byte IV + ciphertext; plaintext is
+ * JSON, zero-padded to the block size (the adapter does not use PKCS#5 padding).
+ *
+ * @param onTelemetry Called on the worker thread with the decoded telemetry
+ * @param onError Called on the worker thread when a token cannot be decoded
+ */
+class SessionTokenDecoder(
+    private val onTelemetry: (SessionTelemetry) -> Unit,
+    private val onError: (String) -> Unit,
+) {
+    private val worker: ExecutorService =
+        Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "SessionToken-Decoder").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+            }
+        }
+
+    // Worker thread only
+    private var cipher: Cipher? = null
+    private val key = SecretKeySpec(SESSION_TOKEN_ENCRYPTION_KEY.toByteArray(StandardCharsets.US_ASCII), "AES")
+
+    /**
+     * Queue a token for decoding. [token] must be owned by the caller (not a receive buffer view).
+     */
+    fun decode(token: ByteArray) {
+        try {
+            worker.execute { decodeNow(token) }
+        } catch (_: RejectedExecutionException) {
+            // Shut down — session is ending
+        }
+    }
+
+    fun shutdown() {
+        worker.shutdownNow()
+    }
+
+    private fun decodeNow(token: ByteArray) {
+        try {
+            val text = String(token, StandardCharsets.US_ASCII).trim { it <= ' ' }
+            val decoded = Base64.getMimeDecoder().decode(text)
+            if (decoded.size <= IV_SIZE || (decoded.size - IV_SIZE) % IV_SIZE != 0) {
+                onError("SESSION_TOKEN: unexpected decoded size ${decoded.size}")
+                return
+            }
+
+            val aes = cipher ?: Cipher.getInstance("AES/CBC/NoPadding").also { cipher = it }
+            aes.init(Cipher.DECRYPT_MODE, key, IvParameterSpec(decoded, 0, IV_SIZE))
+            val plain = aes.doFinal(decoded, IV_SIZE, decoded.size - IV_SIZE)
+
+            // Strip block padding: the JSON ends at its last closing brace
+            var end = plain.size
+            while (end > 0 && plain[end - 1] != '}'.code.toByte()) end--
+            if (end == 0) {
+                onError("SESSION_TOKEN: no JSON in decrypted payload")
+                return
+            }
+            onTelemetry(SessionTelemetry.fromJson(JSONObject(String(plain, 0, end, StandardCharsets.UTF_8))))
+        } catch (e: IllegalArgumentException) {
+            onError("SESSION_TOKEN: invalid Base64 (${e.message})")
+        } catch (e: GeneralSecurityException) {
+            onError("SESSION_TOKEN: decrypt failed (${e.message})")
+        } catch (e: JSONException) {
+            onError("SESSION_TOKEN: invalid JSON (${e.message})")
+        }
+    }
+
+    companion object {
+        private const val IV_SIZE = 16
+    }
+}
@@ -0,0 +1,126 @@
+package com.carlink.transport
+
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.MessageType
+import com.carlink.protocol.PROTOCOL_MAGIC
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * In-memory transport with a scriptable fake adapter on the other end.
+ *
+ * ```
+ *  fake adapter                         host (AdapterDriver)
+ *  adapterSend()/adapterWrite() ──► toHost queue ──► readBytes() ──► read loop
+ *  adapterReceive()             ◄── toAdapter queue ◄── writeBytes() ◄── writer thread
+ * ```
+ * Each queued array is one "transfer": reads never cross an array boundary, so a header
+ * sent on its own arrives on its own, as with the real adapter. toHost is bounded, so a
+ * scripted adapter that outruns the host blocks like a full USB pipe instead of growing
+ * without limit.
+ *
+ * @param queueCapacity Transfers buffered toward the host before adapterWrite() blocks
+ */
+class LoopbackTransport(
+    logCallback: (String) -> Unit,
+    queueCapacity: Int = 1024,
+) : StreamTransport(logCallback) {
+    private val toHost = LinkedBlockingQueue<ByteArray>(queueCapacity)
+    private val toAdapter = LinkedBlockingQueue<ByteArray>()
+
+    // Read-thread only: transfer being drained by readBytes()
+    private var current: ByteArray? = null
+    private var currentPos = 0
+
+    override val transportName: String get() = "loopback"
+
+    override fun connect(): Boolean {
+        toHost.clear()
+        toAdapter.clear()
+        current = null
+        currentPos = 0
+        return true
+    }
+
+    override fun disconnect() {
+        toHost.clear()
+        toHost.offer(END_OF_STREAM)
+    }
+
+    override fun readBytes(
+        buffer: ByteArray,
+        offset: Int,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        var data = current
+        if (data == null) {
+            data = toHost.poll(timeout.toLong(), TimeUnit.MILLISECONDS) ?: return -1
+            if (data === END_OF_STREAM) return CLOSED
+            current = data
+            currentPos = 0
+        }
+
+        val count = minOf(length, data.size - currentPos)
+        System.arraycopy(data, currentPos, buffer, offset, count)
+        currentPos += count
+        if (currentPos == data.size) current = null
+        return count
+    }
+
+    override fun writeBytes(
+        data: ByteArray,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        // Copy: callers may reuse their arrays once the write has been performed
+        toAdapter.offer(data.copyOf(length))
+        return length
+    }
+
+    // ==================== Fake adapter side ====================
+
+    /**
+     * Queue one raw transfer toward the host. Blocks while the host is [queueCapacity] transfers behind.
+     */
+    fun adapterWrite(data: ByteArray) {
+        if (data.isNotEmpty()) toHost.put(data)
+    }
+
+    /**
+     * Send a framed CPC200 message: the 16-byte header and the payload as separate transfers,
+     * matching the adapter's own framing.
+     */
+    fun adapterSend(
+        type: MessageType,
+        payload: ByteArray = ByteArray(0),
+    ) {
+        adapterWrite(encodeHeader(type.id, payload.size))
+        adapterWrite(payload)
+    }
+
+    /**
+     * Next message the host wrote (one writer transfer), or null on timeout.
+     */
+    fun adapterReceive(timeoutMs: Long): ByteArray? = toAdapter.poll(timeoutMs, TimeUnit.MILLISECONDS)
+
+    companion object {
+        private val END_OF_STREAM = ByteArray(0)
+        private const val CLOSED = -2
+
+        fun encodeHeader(
+            type: Int,
+            length: Int,
+        ): ByteArray =
+            ByteBuffer
+                .allocate(HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(PROTOCOL_MAGIC)
+                .putInt(length)
+                .putInt(type)
+                .putInt(type.inv())
+                .array()
+    }
+}
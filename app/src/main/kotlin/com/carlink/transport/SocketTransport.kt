@@ -0,0 +1,106 @@
+package com.carlink.transport
+
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.net.SocketTimeoutException
+
+/**
+ * TCP transport to a fake adapter process, for repeatable protocol-stack benchmarks on a
+ * workstation (or via `adb reverse` to a device).
+ *
+ * The peer speaks raw CPC200 framing in both directions — exactly the bytes that would
+ * cross the USB bulk endpoints. TCP does not preserve transfer boundaries, which the
+ * demuxer does not rely on.
+ *
+ * open() performs a blocking connect; call it off the main thread.
+ *
+ * @param host Peer address (normally loopback)
+ * @param port Peer TCP port
+ * @param connectTimeoutMs Connect timeout
+ */
+class SocketTransport(
+    private val host: String,
+    private val port: Int,
+    logCallback: (String) -> Unit,
+    private val connectTimeoutMs: Int = 2000,
+) : StreamTransport(logCallback) {
+    @Volatile private var socket: Socket? = null
+    private var input: InputStream? = null
+    private var output: OutputStream? = null
+    private var currentSoTimeout = -1 // Read thread only
+
+    override val transportName: String get() = "tcp"
+
+    override fun connect(): Boolean =
+        try {
+            val s = Socket()
+            s.tcpNoDelay = true // Small control messages must not wait for Nagle
+            s.connect(InetSocketAddress(host, port), connectTimeoutMs)
+            input = s.getInputStream()
+            output = s.getOutputStream()
+            currentSoTimeout = -1
+            socket = s
+            log("Connected to $host:$port")
+            true
+        } catch (e: IOException) {
+            log("Connect to $host:$port failed: ${e.message}")
+            false
+        }
+
+    override fun disconnect() {
+        try {
+            socket?.close() // Unblocks a pending read with SocketException
+        } catch (_: IOException) {
+            // Already closed
+        }
+        socket = null
+        input = null
+        output = null
+    }
+
+    override fun readBytes(
+        buffer: ByteArray,
+        offset: Int,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        val s = socket ?: return CLOSED
+        val stream = input ?: return CLOSED
+        return try {
+            if (timeout != currentSoTimeout) {
+                s.soTimeout = timeout
+                currentSoTimeout = timeout
+            }
+            val result = stream.read(buffer, offset, length)
+            if (result < 0) CLOSED else result
+        } catch (_: SocketTimeoutException) {
+            -1
+        } catch (e: IOException) {
+            if (socket != null) log("Read error: ${e.message}")
+            CLOSED
+        }
+    }
+
+    override fun writeBytes(
+        data: ByteArray,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        val stream = output ?: return -1
+        return try {
+            stream.write(data, 0, length)
+            stream.flush()
+            length
+        } catch (e: IOException) {
+            log("Write error: ${e.message}")
+            -1
+        }
+    }
+
+    companion object {
+        private const val CLOSED = -2
+    }
+}
@@ -0,0 +1,288 @@
+package com.carlink.transport
+
+import com.carlink.protocol.MessageType
+import com.carlink.protocol.readIntLE
+import com.carlink.transport.Transport.AudioDataProcessor
+import com.carlink.transport.Transport.ReadingLoopCallback
+import com.carlink.transport.Transport.VideoDataProcessor
+import com.carlink.usb.UsbStreamDemuxer
+import com.carlink.usb.UsbWriteScheduler
+import com.carlink.usb.VideoLeaseReader
+import com.carlink.usb.WritePriority
+import com.carlink.util.PayloadBufferPool
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+private const val MAX_PAYLOAD_SIZE = 2 * 1024 * 1024 // Same bound as the USB read loop
+
+/**
+ * Common base for byte-stream transports (in-memory loopback, TCP).
+ *
+ * Subclasses only move bytes: [connect]/[disconnect], [readBytes] and [writeBytes].
+ * Framing, resync, writer scheduling and message delivery reuse the same components as
+ * the USB path ([UsbStreamDemuxer], [UsbWriteScheduler], [PayloadBufferPool]) so benchmark
+ * numbers reflect the real protocol stack.
+ *
+ * Differences from the USB read loop:
+ * - VIDEO_DATA goes through the processor's frame lease (or processVideoDirect) the same way,
+ *   but there is no packet-size constraint to work around.
+ * - [AudioDataProcessor] is not used; AUDIO_DATA is delivered through the callback, which is
+ *   the USB path's fallback behavior.
+ */
+abstract class StreamTransport(
+    private val logCallback: (String) -> Unit,
+) : Transport {
+    private val opened = AtomicBoolean(false)
+    private val readingLoopActive = AtomicBoolean(false)
+    @Volatile private var readLoopThread: Thread? = null
+    @Volatile private var demuxer: UsbStreamDemuxer? = null
+
+    private val writeScheduler = UsbWriteScheduler(::writeCounted, logCallback)
+
+    private val bytesSent = AtomicLong(0)
+    private val bytesReceived = AtomicLong(0)
+    private val sendCount = AtomicInteger(0)
+    private val receiveCount = AtomicInteger(0)
+    private val sendErrors = AtomicInteger(0)
+    private val receiveErrors = AtomicInteger(0)
+
+    override val isOpened: Boolean get() = opened.get()
+    override val isReadingLoopActive: Boolean get() = readingLoopActive.get()
+
+    /** Establish the underlying channel. Must not be called on the main thread for network transports. */
+    protected abstract fun connect(): Boolean
+
+    /** Tear down the channel; must unblock a pending [readBytes]. */
+    protected abstract fun disconnect()
+
+    /**
+     * Read up to [length] bytes.
+     * @return Bytes read, -1 on timeout, < -1 if the channel is closed or failed
+     */
+    protected abstract fun readBytes(
+        buffer: ByteArray,
+        offset: Int,
+        length: Int,
+        timeout: Int,
+    ): Int
+
+    /**
+     * Write [length] bytes from the start of [data]. Only called from the writer thread.
+     * @return Bytes written, or negative on error
+     */
+    protected abstract fun writeBytes(
+        data: ByteArray,
+        length: Int,
+        timeout: Int,
+    ): Int
+
+    fun open(): Boolean {
+        if (opened.get()) return true
+        if (!connect()) {
+            log("Connect failed")
+            return false
+        }
+        opened.set(true)
+        writeScheduler.start()
+        log("Opened")
+        return true
+    }
+
+    fun close() {
+        // Disconnect before joining: a read loop blocked in readBytes only returns once the
+        // channel is gone, so joining first would wait out the full join timeout.
+        readingLoopActive.set(false)
+        disconnect()
+        joinReadLoop()
+        writeScheduler.stop()
+        opened.set(false)
+        log("Closed (sent: ${sendCount.get()}/${bytesSent.get()} bytes, received: ${receiveCount.get()}/${bytesReceived.get()} bytes)")
+    }
+
+    override fun submitWrite(
+        data: ByteArray,
+        priority: WritePriority,
+        timeout: Int,
+        length: Int,
+        onComplete: ((Boolean) -> Unit)?,
+    ): Boolean = writeScheduler.submit(data, priority, timeout, length, onComplete)
+
+    override fun startReadingLoop(
+        callback: ReadingLoopCallback,
+        timeout: Int,
+        videoProcessor: VideoDataProcessor?,
+        audioProcessor: AudioDataProcessor?,
+    ) {
+        if (readingLoopActive.getAndSet(true)) {
+            log("Reading loop already active")
+            return
+        }
+
+        Thread {
+            val demux =
+                UsbStreamDemuxer(
+                    reader = ::readCounted,
+                    maxPayload = MAX_PAYLOAD_SIZE,
+                    onResync = { reason, skipped, elapsedUs ->
+                        log("Stream resync: $reason — skipped $skipped bytes in ${elapsedUs}us")
+                    },
+                )
+            demuxer = demux
+            val isActive = { readingLoopActive.get() }
+            var videoBuffer = ByteArray(256 * 1024)
+            val videoLease = VideoLeaseReader(::log)
+
+            log("Reading loop started")
+            try {
+                while (readingLoopActive.get() && opened.get()) {
+                    val header = demux.readHeader(timeout, isActive)
+                    if (header == null) {
+                        val result = demux.lastReadResult
+                        if (result < -1) {
+                            // Channel closed — unlike USB there is nothing to wait for
+                            if (readingLoopActive.get()) callback.onError("Read failed: $result")
+                            break
+                        }
+                        continue
+                    }
+
+                    if (header.type == MessageType.VIDEO_DATA && header.length > 0 && videoProcessor != null) {
+                        try {
+                            if (videoProcessor.supportsFrameLease) {
+                                videoLease.read(demux, header.length, videoProcessor, timeout, isActive)
+                            } else {
+                                if (videoBuffer.size < header.length) {
+                                    videoBuffer = ByteArray(maxOf(header.length, videoBuffer.size * 2))
+                                }
+                                val totalRead = demux.readPayloadInto(videoBuffer, 0, header.length, timeout, isActive)
+                                if (totalRead > 0) {
+                                    val pts = if (totalRead >= 16) readIntLE(videoBuffer, 12) else 0
+                                    videoProcessor.processVideoDirect(videoBuffer, totalRead, pts)
+                                }
+                            }
+                            callback.onMessage(header.type.id, null, 0)
+                        } catch (e: Exception) {
+                            log("Video processing error (non-fatal): ${e.message}")
+                            receiveErrors.incrementAndGet()
+                        }
+                        continue
+                    }
+
+                    var payload: ByteArray? = null
+                    var payloadOffset = 0
+                    var dataLength = 0
+                    var consumeAfter = 0
+                    var lease: PayloadBufferPool.Lease? = null
+                    if (header.length > 0) {
+                        if (header.length <= demux.maxBufferedPayload) {
+                            val offset = demux.bufferPayload(header.length, timeout, isActive)
+                            if (offset >= 0) {
+                                payload = demux.buffer
+                                payloadOffset = offset
+                                dataLength = header.length
+                                consumeAfter = header.length
+                            }
+                        } else {
+                            lease = PayloadBufferPool.acquire(header.length)
+                            if (demux.readPayloadInto(lease.buffer, 0, header.length, timeout, isActive) == header.length) {
+                                payload = lease.buffer
+                                dataLength = header.length
+                            }
+                        }
+                    }
+
+                    try {
+                        callback.onMessage(header.type.id, payload, payloadOffset, dataLength)
+                    } catch (e: Exception) {
+                        log("Message callback error: ${e.message}")
+                    } finally {
+                        demux.consume(consumeAfter)
+                        lease?.release()
+                    }
+                }
+            } catch (e: Exception) {
+                if (readingLoopActive.get()) {
+                    log("Reading loop error: ${e.message}")
+                    callback.onError(e.message ?: "Unknown error")
+                }
+            } finally {
+                readingLoopActive.set(false)
+                log("Reading loop stopped (framing=${demux.getStats()})")
+            }
+        }.apply {
+            name = "${transportName.replaceFirstChar { it.uppercase() }}-ReadLoop"
+            isDaemon = true
+            start()
+        }.also { readLoopThread = it }
+    }
+
+    override fun stopReadingLoop() {
+        if (!readingLoopActive.getAndSet(false)) return
+        joinReadLoop()
+    }
+
+    override fun getPerformanceStats(): Map<String, Any> =
+        mapOf(
+            "bytesSent" to bytesSent.get(),
+            "bytesReceived" to bytesReceived.get(),
+            "sendCount" to sendCount.get(),
+            "receiveCount" to receiveCount.get(),
+            "sendErrors" to sendErrors.get(),
+            "receiveErrors" to receiveErrors.get(),
+            "writeQueues" to writeScheduler.getStats(),
+            "framing" to (demuxer?.getStats() ?: emptyMap<String, Any>()),
+        )
+
+    // ==================== Private Methods ====================
+
+    private fun joinReadLoop() {
+        try {
+            readLoopThread?.join(1000)
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        readLoopThread = null
+    }
+
+    private fun readCounted(
+        buffer: ByteArray,
+        offset: Int,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        val result =
+            try {
+                readBytes(buffer, offset, length, timeout)
+            } catch (e: Exception) {
+                log("Read error: ${e.message}")
+                -2
+            }
+        if (result > 0) {
+            bytesReceived.addAndGet(result.toLong())
+            receiveCount.incrementAndGet()
+        } else if (result < -1) {
+            receiveErrors.incrementAndGet()
+        }
+        return result
+    }
+
+    private fun writeCounted(
+        data: ByteArray,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        val result = writeBytes(data, length, timeout)
+        if (result >= 0) {
+            bytesSent.addAndGet(result.toLong())
+            sendCount.incrementAndGet()
+        } else {
+            sendErrors.incrementAndGet()
+        }
+        return result
+    }
+
+    protected fun log(message: String) {
+        logCallback("[TRANSPORT] [${transportName.uppercase()}] $message")
+    }
+}
@@ -0,0 +1,156 @@
+package com.carlink.transport
+
+import com.carlink.audio.AudioRingBuffer
+import com.carlink.usb.WritePriority
+
+/**
+ * Byte transport between AdapterDriver and a CPC200 adapter.
+ *
+ * Extracted from the read/write/reading-loop surface of UsbDeviceWrapper so the protocol
+ * stack (AdapterDriver → MessageParser → message handler) can run against something other
+ * than a physical dongle:
+ * - [com.carlink.usb.UsbDeviceWrapper] — the real adapter over USB bulk endpoints
+ * - [LoopbackTransport] — in-memory pipe driven by a scripted fake adapter in the same process
+ * - [SocketTransport] — localhost TCP to a fake adapter process (repeatable benchmarks on a PC)
+ *
+ * Every implementation delivers whole messages through [ReadingLoopCallback] on its own
+ * read thread, and queues writes through a single prioritized writer.
+ */
+interface Transport {
+    /** Short transport name for logs and stats ("usb", "loopback", "tcp"). */
+    val transportName: String
+
+    val isOpened: Boolean
+    val isReadingLoopActive: Boolean
+
+    /**
+     * Queue data for the writer thread. Returns immediately; the array must not be
+     * modified until [onComplete] runs (or, without one, after submission).
+     *
+     * @param length Bytes to send from the start of [data] (frames encoded into reused buffers)
+     * @param onComplete Called once when the write is finished (true = transferred, false =
+     *                   failed, dropped or discarded); never called if this returns false
+     * @return true if queued, false if closed or the priority class queue is full
+     */
+    fun submitWrite(
+        data: ByteArray,
+        priority: WritePriority = WritePriority.CONFIG,
+        timeout: Int = 1000,
+        length: Int = data.size,
+        onComplete: ((Boolean) -> Unit)? = null,
+    ): Boolean
+
+    /**
+     * Start the continuous reading loop.
+     *
+     * @param callback Callback for received messages
+     * @param timeout Read timeout in milliseconds
+     * @param videoProcessor Optional processor for direct video data handling (bypasses message parsing)
+     * @param audioProcessor Optional processor for in-place PCM ingest (bypasses message parsing);
+     *                       implementations without in-place support deliver audio through callback
+     */
+    fun startReadingLoop(
+        callback: ReadingLoopCallback,
+        timeout: Int = 30000,
+        videoProcessor: VideoDataProcessor? = null,
+        audioProcessor: AudioDataProcessor? = null,
+    )
+
+    fun stopReadingLoop()
+
+    fun getPerformanceStats(): Map<String, Any>
+
+    /**
+     * Callback interface for direct video data processing.
+     * [DIRECT_HANDOFF]: Data is already read into a buffer by the read loop.
+     * Processor receives the buffer directly — no callback, no copy.
+     */
+    interface VideoDataProcessor {
+        /**
+         * Process video data directly. Data is valid only for duration of this call.
+         *
+         * @param data Buffer containing video payload (including 20-byte video header)
+         * @param dataLength Actual bytes read into data
+         * @param sourcePtsMs Source presentation timestamp in milliseconds from video header
+         */
+        fun processVideoDirect(data: ByteArray, dataLength: Int, sourcePtsMs: Int)
+
+        /**
+         * True if the processor implements the borrow/commit API below. The read loop then
+         * reads H.264 data straight into the borrowed buffer instead of calling processVideoDirect().
+         */
+        val supportsFrameLease: Boolean get() = false
+
+        /**
+         * Borrow a buffer for [length] bytes of H.264 data (video header excluded).
+         *
+         * @return Buffer to fill from index 0, or null to discard the frame
+         */
+        fun borrowFrameBuffer(length: Int): ByteArray? = null
+
+        /**
+         * Hand over the buffer from [borrowFrameBuffer] holding [length] bytes.
+         */
+        fun commitFrame(length: Int, sourcePtsMs: Int) {}
+
+        /**
+         * Give back the buffer from [borrowFrameBuffer] without staging it.
+         */
+        fun abortFrame() {}
+    }
+
+    /**
+     * Receiver for in-place PCM ingest. [ZERO_COPY_AUDIO]
+     * The read loop parses the 12-byte audio sub-header, asks for a ring region and reads the
+     * PCM straight into it. Called on the read thread only.
+     */
+    interface AudioDataProcessor {
+        /**
+         * Reserve space for [pcmLength] bytes of PCM for the stream named in the sub-header.
+         *
+         * @return Region to fill, or null to deliver the packet through ReadingLoopCallback instead
+         */
+        fun reserveAudio(audioType: Int, decodeType: Int, pcmLength: Int): AudioRingBuffer.Reservation?
+
+        /**
+         * Filter and publish a filled region. Not called if the read failed (see [abortAudio]).
+         */
+        fun commitAudio(reservation: AudioRingBuffer.Reservation, audioType: Int, decodeType: Int)
+
+        /**
+         * The read into [reservation] failed: nothing is published, release it.
+         */
+        fun abortAudio(reservation: AudioRingBuffer.Reservation)
+    }
+
+    /**
+     * Callback interface for reading loop events.
+     */
+    interface ReadingLoopCallback {
+        fun onMessage(
+            type: Int,
+            data: ByteArray?,
+            dataLength: Int,
+        )
+
+        /**
+         * Deliver a payload view: bytes [dataOffset, dataOffset + dataLength) of [data].
+         * The array is the read loop's buffer — valid only for the duration of this call.
+         * Default copies the view for implementations that only handle offset 0.
+         */
+        fun onMessage(
+            type: Int,
+            data: ByteArray?,
+            dataOffset: Int,
+            dataLength: Int,
+        ) {
+            if (data == null || dataOffset == 0) {
+                onMessage(type, data, dataLength)
+            } else {
+                onMessage(type, data.copyOfRange(dataOffset, dataOffset + dataLength), dataLength)
+            }
+        }
+
+        fun onError(error: String)
+    }
+}
@@ -11,6 +11,7 @@ import androidx.datastore.preferences.core.stringSetPreferencesKey
 import androidx.datastore.preferences.preferencesDataStore
 import com.carlink.logging.logError
 import com.carlink.logging.logInfo
+import com.carlink.protocol.AdapterFileCache
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.map
 
@@ -599,6 +600,8 @@ class AdapterConfigPreference private constructor(
                     remove(SYNC_CACHE_KEY_HAS_COMPLETED_FIRST_INIT)
                     remove(SYNC_CACHE_KEY_PENDING_CHANGES)
                 }.apply()
+            // Next FULL init must upload every file again
+            AdapterFileCache.clearAll(appContext)
             logInfo("Adapter config preferences reset to defaults (sync cache cleared, next session will run FULL init)", tag = "AdapterConfig")
         } catch (e: Exception) {
             logError("Failed to reset adapter config preferences: $e", tag = "AdapterConfig")
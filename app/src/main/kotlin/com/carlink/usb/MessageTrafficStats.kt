@@ -0,0 +1,123 @@
+package com.carlink.usb
+
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.MessageType
+import com.carlink.protocol.readIntLE
+import com.carlink.util.Log2Histogram
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Per-message-type traffic histograms for one transport session.
+ *
+ * For each [MessageType] (dense array by ordinal — fixed memory, no map lookups):
+ * - read:  time from header parsed to payload fully read and handed over (us)
+ * - gap:   inter-arrival time between consecutive headers of that type (us)
+ * - size:  payload bytes
+ * - write: outbound bulk transfer duration for messages of that type (us)
+ *
+ * All recording is lock-free and allocation-free. Read-side histograms are fed by the
+ * read loop thread, write-side by the writer thread; snapshot()/summaryLines() may run anywhere.
+ * Lets us check whether keyframe bursts (VIDEO_DATA read time/size) line up with
+ * AUDIO_DATA gap spikes.
+ */
+class MessageTrafficStats {
+    private val typeCount = MessageType.entries.size
+    private val read = Array(typeCount) { Log2Histogram() }
+    private val gap = Array(typeCount) { Log2Histogram() }
+    private val payloadBytes = Array(typeCount) { Log2Histogram() }
+    private val write = Array(typeCount) { Log2Histogram() }
+    private val lastArrivalNs = AtomicLongArray(typeCount)
+
+    /**
+     * Header of [type] parsed at [nowNs].
+     */
+    fun onHeader(
+        type: MessageType,
+        nowNs: Long,
+    ) {
+        val i = type.ordinal
+        val previous = lastArrivalNs.getAndSet(i, nowNs)
+        if (previous != 0L) gap[i].record(nowNs - previous)
+    }
+
+    /**
+     * Payload of [type] ([length] bytes) fully read; [headerNs] is the onHeader() timestamp.
+     */
+    fun onPayload(
+        type: MessageType,
+        length: Int,
+        headerNs: Long,
+    ) {
+        val i = type.ordinal
+        read[i].record(System.nanoTime() - headerNs)
+        payloadBytes[i].record(length.toLong())
+    }
+
+    /**
+     * Outbound transfer of [length] bytes from [data] took [durationNs]. Every CPC200 message
+     * inside the transfer (one, or several when coalesced) is attributed the full duration.
+     */
+    fun onWrite(
+        data: ByteArray,
+        length: Int,
+        durationNs: Long,
+    ) {
+        var pos = 0
+        while (pos + HEADER_SIZE <= length) {
+            val payloadLength = readIntLE(data, pos + 4)
+            val type = MessageType.fromId(readIntLE(data, pos + 8))
+            write[type.ordinal].record(durationNs)
+            if (payloadLength < 0) break
+            pos += HEADER_SIZE + payloadLength
+        }
+    }
+
+    /**
+     * Snapshot of every type that has seen traffic: type name → metric → summary.
+     */
+    fun snapshot(): Map<String, Any> =
+        buildMap {
+            for (type in MessageType.entries) {
+                val i = type.ordinal
+                if (read[i].total == 0L && write[i].total == 0L) continue
+                put(
+                    type.name,
+                    mapOf(
+                        "readUs" to read[i].snapshot(1000),
+                        "gapUs" to gap[i].snapshot(1000),
+                        "sizeBytes" to payloadBytes[i].snapshot(),
+                        "writeUs" to write[i].snapshot(1000),
+                    ),
+                )
+            }
+        }
+
+    /**
+     * One compact line per active type for the file log.
+     */
+    fun summaryLines(): List<String> =
+        MessageType.entries.mapNotNull { type ->
+            val i = type.ordinal
+            if (read[i].total == 0L && write[i].total == 0L) return@mapNotNull null
+            "${type.name}: rx=${read[i].total} read=${format(read[i], 1000)}us " +
+                "gap=${format(gap[i], 1000)}us size=${format(payloadBytes[i], 1)}B " +
+                "tx=${write[i].total} write=${format(write[i], 1000)}us"
+        }
+
+    fun reset() {
+        for (i in 0 until typeCount) {
+            read[i].reset()
+            gap[i].reset()
+            payloadBytes[i].reset()
+            write[i].reset()
+            lastArrivalNs.set(i, 0)
+        }
+    }
+
+    private fun format(
+        histogram: Log2Histogram,
+        divisor: Long,
+    ): String =
+        "p50/p99/max=${histogram.percentile(0.50) / divisor}/${histogram.percentile(0.99) / divisor}/" +
+            "${histogram.maximum / divisor}"
+}
@@ -11,9 +11,17 @@ import android.hardware.usb.UsbEndpoint
 import android.hardware.usb.UsbInterface
 import android.hardware.usb.UsbManager
 import androidx.core.content.ContextCompat
+import com.carlink.audio.AudioRingBuffer
+import com.carlink.capture.CaptureRecorder
 import com.carlink.logging.Logger
 import com.carlink.logging.logDebug
 import com.carlink.protocol.KnownDevices
+import com.carlink.protocol.readIntLE
+import com.carlink.transport.Transport
+import com.carlink.transport.Transport.AudioDataProcessor
+import com.carlink.transport.Transport.ReadingLoopCallback
+import com.carlink.transport.Transport.VideoDataProcessor
+import com.carlink.util.PayloadBufferPool
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.withTimeoutOrNull
 import java.util.concurrent.atomic.AtomicBoolean
@@ -23,6 +31,14 @@ import kotlin.coroutines.resume
 
 private const val ACTION_USB_PERMISSION = "com.carlink.USB_PERMISSION"
 private const val MAX_PAYLOAD_SIZE = 2 * 1024 * 1024 // 2MB — reject corrupted headers
+private const val TRAFFIC_LOG_INTERVAL_NS = 30_000_000_000L // Per-type histogram dump to the file log
+private const val AUDIO_HEADER_SIZE = 12 // decodeType, volume, audioType
+private const val AUDIO_PACKET_CHUNK = 512 // High-speed bulk max packet; multiple of every smaller size
+
+// readAudioIntoRing() outcomes
+private const val AUDIO_DIRECT = 0
+private const val AUDIO_FALLBACK = 1
+private const val AUDIO_FAILED = 2
 
 /**
  * USB Device Wrapper for Carlinkit Adapter Communication
@@ -32,13 +48,17 @@ private const val MAX_PAYLOAD_SIZE = 2 * 1024 * 1024 // 2MB — reject corrupted
  * - Connection lifecycle management
  * - Bulk transfer operations for data exchange
  * - Interface claiming and endpoint configuration
+ *
+ * All outbound writes go through [UsbWriteScheduler]: callers on any thread submit
+ * via [submitWrite], and a single USB-Writer thread is the only caller of bulkTransfer
+ * on the OUT endpoint.
  */
 class UsbDeviceWrapper(
     private val context: Context,
     private val usbManager: UsbManager,
     private val device: UsbDevice,
     private val logCallback: (String) -> Unit,
-) {
+) : Transport {
     private var connection: UsbDeviceConnection? = null
     private var claimedInterface: UsbInterface? = null
     private var inEndpoint: UsbEndpoint? = null
@@ -47,16 +67,56 @@ class UsbDeviceWrapper(
     private val _isOpened = AtomicBoolean(false)
     private val _isReadingLoopActive = AtomicBoolean(false)
     @Volatile private var readLoopThread: Thread? = null
+    @Volatile private var readSource: UsbReadSource? = null
+    @Volatile private var demuxer: UsbStreamDemuxer? = null
+
+    /**
+     * IN read engine for the next startReadingLoop(). Changing it while a loop is
+     * running takes effect on the next connection.
+     */
+    @Volatile var readEngine: UsbReadEngine = UsbReadEngine.SYNC
 
-    val isOpened: Boolean get() = _isOpened.get()
-    val isReadingLoopActive: Boolean get() = _isReadingLoopActive.get()
+    override val transportName: String get() = "usb"
+    override val isOpened: Boolean get() = _isOpened.get()
+    override val isReadingLoopActive: Boolean get() = _isReadingLoopActive.get()
 
     val vendorId: Int get() = device.vendorId
     val productId: Int get() = device.productId
     val deviceName: String get() = device.deviceName
 
-    // Performance tracking — atomic because write() is called from multiple threads
-    // (heartbeat timer, mic capture timer, frame interval coroutine, UI thread)
+    /** Adapter USB serial number (available once opened), null if not exposed */
+    val serialNumber: String? get() = connection?.serial
+
+    // Single writer for the OUT endpoint; started on open(), stopped on close()
+    private val writeScheduler = UsbWriteScheduler(::bulkWrite, logCallback)
+
+    /**
+     * Outbound batching; null (default) sends each message as its own bulk transfer.
+     * Can be changed at any time — applies from the next write.
+     */
+    var writeCoalescing: WriteCoalescing?
+        get() = writeScheduler.coalescing
+        set(value) {
+            writeScheduler.coalescing = value
+        }
+
+    /**
+     * Session capture tap; every IN transfer is handed to it from the read loop.
+     * Set before startReadingLoop(); the owner closes it after the loop stops.
+     */
+    @Volatile var captureRecorder: CaptureRecorder? = null
+
+    // Per-message-type latency/size histograms (read loop + writer thread)
+    private val traffic = MessageTrafficStats()
+
+    // Zero-copy audio accounting (written by read thread only)
+    @Volatile private var audioDirectPackets = 0L
+    @Volatile private var audioFallbackPackets = 0L
+    @Volatile private var audioDirectBytes = 0L
+    @Volatile private var audioCopiedBytes = 0L
+
+    // Performance tracking — atomic because counters are read from other threads
+    // (stats queries) while the read loop and writer thread update them
     private val bytesSent = AtomicLong(0)
     private val bytesReceived = AtomicLong(0)
     private val sendCount = AtomicInteger(0)
@@ -180,6 +240,7 @@ class UsbDeviceWrapper(
         }
 
         _isOpened.set(true)
+        writeScheduler.start()
         log("Device opened: VID=0x${vendorId.toString(16)} PID=0x${productId.toString(16)}")
         return true
     }
@@ -204,6 +265,8 @@ class UsbDeviceWrapper(
      */
     fun close() {
         stopReadingLoop()
+        writeScheduler.stop()
+        PayloadBufferPool.clear() // Pooled payload buffers are only reused within a session
 
         claimedInterface?.let { iface ->
             try {
@@ -244,15 +307,38 @@ class UsbDeviceWrapper(
     }
 
     /**
-     * Write data to the USB device.
+     * Queue data for the USB writer thread.
+     *
+     * Returns immediately; the transfer happens on USB-Writer in priority order.
+     * The array must not be modified until onComplete runs (or, without one, after submission).
+     *
+     * @param data Data to send
+     * @param priority Write priority class
+     * @param timeout Transfer timeout in milliseconds
+     * @param length Bytes to send from the start of data
+     * @param onComplete Called once the write is transferred (true) or failed/dropped (false)
+     * @return true if queued, false if the device is closed or the class queue is full
+     */
+    override fun submitWrite(
+        data: ByteArray,
+        priority: WritePriority,
+        timeout: Int,
+        length: Int,
+        onComplete: ((Boolean) -> Unit)?,
+    ): Boolean = writeScheduler.submit(data, priority, timeout, length, onComplete)
+
+    /**
+     * Write data to the USB device. Only called from the USB-Writer thread.
      *
      * @param data Data to send
+     * @param length Number of bytes to send from the start of data
      * @param timeout Timeout in milliseconds
      * @return Number of bytes actually sent, or -1 on error
      */
-    fun write(
+    private fun bulkWrite(
         data: ByteArray,
-        timeout: Int = 1000,
+        length: Int,
+        timeout: Int,
     ): Int {
         val conn =
             connection ?: run {
@@ -267,7 +353,9 @@ class UsbDeviceWrapper(
             }
 
         return try {
-            val result = conn.bulkTransfer(endpoint, data, data.size, timeout)
+            val startNs = System.nanoTime()
+            val result = conn.bulkTransfer(endpoint, data, length, timeout)
+            traffic.onWrite(data, length, System.nanoTime() - startNs)
             if (result >= 0) {
                 bytesSent.addAndGet(result.toLong())
                 sendCount.incrementAndGet()
@@ -322,46 +410,19 @@ class UsbDeviceWrapper(
         }
     }
 
-    /**
-     * Callback interface for direct video data processing.
-     * [DIRECT_HANDOFF]: Data is already read into a buffer by the read loop.
-     * Processor receives the buffer directly — no callback, no copy.
-     */
-    interface VideoDataProcessor {
-        /**
-         * Process video data directly. Data is valid only for duration of this call.
-         *
-         * @param data Buffer containing video payload (including 20-byte video header)
-         * @param dataLength Actual bytes read into data
-         * @param sourcePtsMs Source presentation timestamp in milliseconds from video header
-         */
-        fun processVideoDirect(data: ByteArray, dataLength: Int, sourcePtsMs: Int)
-    }
-
-    /**
-     * Callback interface for reading loop events.
-     */
-    interface ReadingLoopCallback {
-        fun onMessage(
-            type: Int,
-            data: ByteArray?,
-            dataLength: Int,
-        )
-
-        fun onError(error: String)
-    }
-
     /**
      * Start the continuous reading loop.
      *
      * @param callback Callback for received messages
      * @param timeout Read timeout in milliseconds
      * @param videoProcessor Optional processor for direct video data handling (bypasses message parsing)
+     * @param audioProcessor Optional processor for in-place PCM ingest (bypasses message parsing)
      */
-    fun startReadingLoop(
+    override fun startReadingLoop(
         callback: ReadingLoopCallback,
-        timeout: Int = 30000,
-        videoProcessor: VideoDataProcessor? = null,
+        timeout: Int,
+        videoProcessor: VideoDataProcessor?,
+        audioProcessor: AudioDataProcessor?,
     ) {
         if (_isReadingLoopActive.getAndSet(true)) {
             log("Reading loop already active")
@@ -374,48 +435,74 @@ class UsbDeviceWrapper(
             // Using -10 (between URGENT_DISPLAY=-8 and AUDIO=-16) to match MediaCodec_loop priority
             android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_DISPLAY - 2)
 
-            log("Reading loop started")
-            val headerBuffer = ByteArray(16)
+            val source = createReadSource()
+            if (source == null) {
+                _isReadingLoopActive.set(false)
+                callback.onError("Failed to create ${readEngine.name} read source")
+                return@Thread
+            }
+            readSource = source
+
+            val demux =
+                UsbStreamDemuxer(
+                    reader = { buf, off, len, t -> readChunk(source, buf, off, len, t) },
+                    maxPayload = MAX_PAYLOAD_SIZE,
+                    onResync = { reason, skipped, elapsedUs ->
+                        log("Stream resync: $reason — skipped $skipped bytes in ${elapsedUs}us")
+                    },
+                )
+            demuxer = demux
+            val isActive = { _isReadingLoopActive.get() }
+
+            log("Reading loop started (engine=${source.engine.name})")
 
             // Pre-allocate video buffer to avoid per-frame allocation (reduces GC pressure at 60fps)
             // Initial size 256KB covers most frames; grows if needed (rare for 1080p H.264)
-            var videoBuffer = ByteArray(256 * 1024)
+            // Only used by processors without frame lease support.
+            var videoBuffer = ByteArray(if (videoProcessor?.supportsFrameLease == true) 0 else 256 * 1024)
+            val videoLease = VideoLeaseReader { logDebug(it, tag = Logger.Tags.VIDEO_USB) }
 
-            // Pre-allocate audio buffer to avoid per-packet allocation (~17 packets/sec)
-            // Initial size 16KB covers typical 11532-byte audio payloads; grows if needed
-            var audioBuffer = ByteArray(16 * 1024)
+            // Scratch for the audio sub-header packet and for fallback payloads; grows if needed
+            var audioScratch = ByteArray(16 * 1024)
 
-            // Pre-allocate chunk buffer for non-video message reads (audio, commands, etc.)
-            val chunkBuffer = ByteArray(16384)
+            traffic.reset()
+            var lastTrafficLogNs = System.nanoTime()
 
             try {
                 while (_isReadingLoopActive.get() && _isOpened.get()) {
-                    // Read header
-                    val headerResult = read(headerBuffer, timeout)
-                    if (headerResult != 16) {
-                        if (_isReadingLoopActive.get()) {
-                            if (headerResult == -1) {
-                                // Timeout - continue loop
-                                continue
-                            }
-                            log("Incomplete header read: $headerResult bytes")
+                    // Read header (may already be buffered from a previous transfer).
+                    // Corrupt headers and implausible lengths (> MAX_PAYLOAD_SIZE) are resynced
+                    // inside the demuxer by scanning for the next valid magic + type check.
+                    val header = demux.readHeader(timeout, isActive)
+                    if (header == null) {
+                        val result = demux.lastReadResult
+                        if (_isReadingLoopActive.get() && result != -1) {
+                            // -1 is timeout - continue loop
+                            log("Header read failed: $result")
                         }
                         continue
                     }
 
-                    // Parse header
-                    val header =
+                    val headerNs = System.nanoTime()
+                    traffic.onHeader(header.type, headerNs)
+                    if (headerNs - lastTrafficLogNs >= TRAFFIC_LOG_INTERVAL_NS) {
+                        logTraffic()
+                        lastTrafficLogNs = headerNs
+                    }
+
+                    // Handle VIDEO_DATA with zero-copy ingest into a borrowed staging slot
+                    if (header.type == com.carlink.protocol.MessageType.VIDEO_DATA &&
+                        header.length > 0 && videoProcessor != null && videoProcessor.supportsFrameLease
+                    ) {
                         try {
-                            com.carlink.protocol.MessageParser
-                                .parseHeader(headerBuffer)
-                        } catch (e: com.carlink.protocol.HeaderParseException) {
-                            log("Header parse error: ${e.message}")
-                            continue
+                            videoLease.read(demux, header.length, videoProcessor, timeout, isActive)
+                            traffic.onPayload(header.type, header.length, headerNs)
+                            // Notify callback that video data was received
+                            callback.onMessage(header.type.id, null, 0)
+                        } catch (e: Exception) {
+                            log("Video processing error (non-fatal): ${e.message}")
+                            receiveErrors.incrementAndGet()
                         }
-
-                    // Reject corrupted headers with implausible payload sizes
-                    if (header.length > MAX_PAYLOAD_SIZE) {
-                        log("Corrupted header: length=${header.length} exceeds max — skipping")
                         continue
                     }
 
@@ -423,116 +510,114 @@ class UsbDeviceWrapper(
                     if (header.type == com.carlink.protocol.MessageType.VIDEO_DATA &&
                         header.length > 0 && videoProcessor != null
                     ) {
-                        val conn = connection
-                        val endpoint = inEndpoint
-                        if (conn != null && endpoint != null) {
-                            try {
-                                // Reuse pre-allocated buffer; grow only if needed (rare)
-                                if (videoBuffer.size < header.length) {
-                                    videoBuffer = ByteArray(maxOf(header.length, videoBuffer.size * 2))
-                                }
-                                var totalRead = 0
-                                var readAttempts = 0
-                                var lastChunkResult = 0
-
-                                while (totalRead < header.length && _isReadingLoopActive.get()) {
-                                    val remaining = header.length - totalRead
-                                    val chunkSize = minOf(remaining, 16384)
-                                    readAttempts++
-                                    val chunkRead = conn.bulkTransfer(
-                                        endpoint,
-                                        videoBuffer,
-                                        totalRead,
-                                        chunkSize,
-                                        timeout,
-                                    )
-                                    lastChunkResult = chunkRead
-                                    if (chunkRead > 0) {
-                                        totalRead += chunkRead
-                                        bytesReceived.addAndGet(chunkRead.toLong())
-                                        receiveCount.incrementAndGet()
-                                    } else if (chunkRead <= 0) {
-                                        logDebug(
-                                            "[VIDEO_READ] Read failed: attempts=$readAttempts, got=$totalRead/${header.length}, lastResult=$chunkRead",
-                                            tag = Logger.Tags.VIDEO_USB
-                                        )
-                                        break
-                                    }
-                                }
+                        try {
+                            // Reuse pre-allocated buffer; grow only if needed (rare)
+                            if (videoBuffer.size < header.length) {
+                                videoBuffer = ByteArray(maxOf(header.length, videoBuffer.size * 2))
+                            }
+                            val totalRead = demux.readPayloadInto(videoBuffer, 0, header.length, timeout, isActive)
+                            traffic.onPayload(header.type, totalRead, headerNs)
+                            if (totalRead < header.length) {
+                                logDebug(
+                                    "[VIDEO_READ] Read failed: got=$totalRead/${header.length}, lastResult=${demux.lastReadResult}",
+                                    tag = Logger.Tags.VIDEO_USB
+                                )
+                            }
 
-                                // Extract source PTS from video header (offset 12) if we have enough data
-                                val sourcePts = if (totalRead >= 16) {
-                                    extractPtsFromHeader(videoBuffer)
-                                } else {
-                                    logDebug(
-                                        "[VIDEO_READ] Incomplete read for PTS: got=$totalRead bytes, need>=16",
-                                        tag = Logger.Tags.VIDEO_USB
-                                    )
-                                    0
-                                }
+                            // Extract source PTS from video header (offset 12) if we have enough data
+                            val sourcePts = if (totalRead >= 16) {
+                                extractPtsFromHeader(videoBuffer)
+                            } else {
+                                logDebug(
+                                    "[VIDEO_READ] Incomplete read for PTS: got=$totalRead bytes, need>=16",
+                                    tag = Logger.Tags.VIDEO_USB
+                                )
+                                0
+                            }
 
-                                // Process video if we got data (don't skip even on partial read)
-                                if (totalRead > 0) {
-                                    videoProcessor.processVideoDirect(videoBuffer, totalRead, sourcePts)
-                                } else {
-                                    logDebug(
-                                        "[VIDEO_READ] No data read - frame skipped: attempts=$readAttempts, lastResult=$lastChunkResult",
-                                        tag = Logger.Tags.VIDEO_USB
-                                    )
-                                }
+                            // Process video if we got data (don't skip even on partial read)
+                            if (totalRead > 0) {
+                                videoProcessor.processVideoDirect(videoBuffer, totalRead, sourcePts)
+                            } else {
+                                logDebug(
+                                    "[VIDEO_READ] No data read - frame skipped: lastResult=${demux.lastReadResult}",
+                                    tag = Logger.Tags.VIDEO_USB
+                                )
+                            }
 
-                                // Notify callback that video data was received
-                                callback.onMessage(header.type.id, null, 0)
-                            } catch (e: Exception) {
-                                log("Video processing error (non-fatal): ${e.message}")
-                                receiveErrors.incrementAndGet()
+                            // Notify callback that video data was received
+                            callback.onMessage(header.type.id, null, 0)
+                        } catch (e: Exception) {
+                            log("Video processing error (non-fatal): ${e.message}")
+                            receiveErrors.incrementAndGet()
+                        }
+                        continue
+                    }
+
+                    // AUDIO_DATA with PCM: read straight into the target AudioRingBuffer.
+                    // Requires the demux buffer to be drained at the payload boundary (the adapter
+                    // sends the header as its own transfer); otherwise the payload is already partly
+                    // read ahead and takes the regular view path below.
+                    if (header.type == com.carlink.protocol.MessageType.AUDIO_DATA &&
+                        audioProcessor != null && header.length >= AUDIO_HEADER_SIZE + AUDIO_PACKET_CHUNK &&
+                        demux.isDrained
+                    ) {
+                        if (audioScratch.size < header.length) {
+                            audioScratch = ByteArray(maxOf(header.length, audioScratch.size * 2))
+                        }
+                        try {
+                            val outcome = readAudioIntoRing(demux, header.length, audioScratch, audioProcessor, timeout, isActive)
+                            if (outcome != AUDIO_FAILED) traffic.onPayload(header.type, header.length, headerNs)
+                            when (outcome) {
+                                // PCM already in the ring — signal only, like direct video
+                                AUDIO_DIRECT -> callback.onMessage(header.type.id, null, 0)
+                                AUDIO_FALLBACK -> callback.onMessage(header.type.id, audioScratch, 0, header.length)
+                                else -> log("Audio read failed: lastResult=${demux.lastReadResult}")
                             }
+                        } catch (e: Exception) {
+                            log("Audio processing error (non-fatal): ${e.message}")
+                            receiveErrors.incrementAndGet()
                         }
                         continue
                     }
 
-                    // Read payload for non-video messages (audio, commands, media metadata, etc.)
-                    // For AUDIO_DATA: reuse pre-allocated audioBuffer to avoid per-packet allocation
-                    val isAudio = header.type == com.carlink.protocol.MessageType.AUDIO_DATA
+                    // Non-video messages (audio, commands, media metadata, etc.)
+                    // Payload is delivered as a view into the demux buffer — no per-message allocation
+                    // or copy. Oversized payloads (large album art) go into a pooled lease that is
+                    // returned once the callback is done with it.
+                    var payload: ByteArray? = null
+                    var payloadOffset = 0
                     var dataLength = 0
-                    val payload: ByteArray? =
-                        if (header.length > 0) {
-                            val payloadBuffer = if (isAudio) {
-                                // Grow audioBuffer if needed (doubling strategy)
-                                if (header.length > audioBuffer.size) {
-                                    audioBuffer = ByteArray(maxOf(header.length, audioBuffer.size * 2))
-                                }
-                                audioBuffer
-                            } else {
-                                ByteArray(header.length)
-                            }
-                            var totalRead = 0
-                            while (totalRead < header.length && _isReadingLoopActive.get()) {
-                                val chunkRead = read(chunkBuffer, timeout)
-                                if (chunkRead > 0) {
-                                    val bytesToCopy = minOf(chunkRead, header.length - totalRead)
-                                    System.arraycopy(chunkBuffer, 0, payloadBuffer, totalRead, bytesToCopy)
-                                    totalRead += bytesToCopy
-                                } else if (chunkRead == -1) {
-                                    // Timeout
-                                    break
-                                }
-                            }
-                            if (totalRead == header.length) {
-                                dataLength = totalRead
-                                payloadBuffer
-                            } else {
-                                null
+                    var consumeAfter = 0
+                    var lease: PayloadBufferPool.Lease? = null
+                    if (header.length > 0) {
+                        if (header.length <= demux.maxBufferedPayload) {
+                            val offset = demux.bufferPayload(header.length, timeout, isActive)
+                            if (offset >= 0) {
+                                payload = demux.buffer
+                                payloadOffset = offset
+                                dataLength = header.length
+                                consumeAfter = header.length
                             }
                         } else {
-                            null
+                            lease = PayloadBufferPool.acquire(header.length)
+                            if (demux.readPayloadInto(lease.buffer, 0, header.length, timeout, isActive) == header.length) {
+                                payload = lease.buffer
+                                dataLength = header.length
+                            }
                         }
+                    }
+
+                    traffic.onPayload(header.type, dataLength, headerNs)
 
                     // Deliver message to callback
                     try {
-                        callback.onMessage(header.type.id, payload, dataLength)
+                        callback.onMessage(header.type.id, payload, payloadOffset, dataLength)
                     } catch (e: Exception) {
                         log("Message callback error: ${e.message}")
+                    } finally {
+                        demux.consume(consumeAfter)
+                        lease?.release()
                     }
                 }
             } catch (e: Exception) {
@@ -541,8 +626,10 @@ class UsbDeviceWrapper(
                     callback.onError(e.message ?: "Unknown error")
                 }
             } finally {
+                source.close()
                 _isReadingLoopActive.set(false)
-                log("Reading loop stopped")
+                log("Reading loop stopped (read=${source.getStats()}, framing=${demux.getStats()})")
+                logTraffic()
             }
         }.apply {
             name = "USB-ReadLoop"
@@ -554,7 +641,7 @@ class UsbDeviceWrapper(
     /**
      * Stop the reading loop.
      */
-    fun stopReadingLoop() {
+    override fun stopReadingLoop() {
         if (!_isReadingLoopActive.getAndSet(false)) return
         try {
             readLoopThread?.join(1000)
@@ -567,7 +654,7 @@ class UsbDeviceWrapper(
     /**
      * Get performance statistics.
      */
-    fun getPerformanceStats(): Map<String, Any> =
+    override fun getPerformanceStats(): Map<String, Any> =
         mapOf(
             "bytesSent" to bytesSent.get(),
             "bytesReceived" to bytesReceived.get(),
@@ -575,10 +662,187 @@ class UsbDeviceWrapper(
             "receiveCount" to receiveCount.get(),
             "sendErrors" to sendErrors.get(),
             "receiveErrors" to receiveErrors.get(),
+            "writeQueues" to writeScheduler.getStats(),
+            "readEngine" to (readSource?.getStats() ?: emptyMap<String, Any>()),
+            "framing" to (demuxer?.getStats() ?: emptyMap<String, Any>()),
+            "payloadPool" to PayloadBufferPool.getStats(),
+            "traffic" to traffic.snapshot(),
+            "capture" to (captureRecorder?.getStats() ?: emptyMap<String, Any>()),
+            "audioIngest" to
+                mapOf(
+                    "directPackets" to audioDirectPackets,
+                    "fallbackPackets" to audioFallbackPackets,
+                    "directBytes" to audioDirectBytes,
+                    "copiedBytes" to audioCopiedBytes,
+                ),
         )
 
     // ==================== Private Methods ====================
 
+    private fun logTraffic() {
+        val lines = traffic.summaryLines()
+        if (lines.isEmpty()) return
+        log("Traffic histograms (cumulative this session):")
+        lines.forEach { log("  $it") }
+    }
+
+    private fun createReadSource(): UsbReadSource? {
+        val conn = connection ?: return null
+        val endpoint = inEndpoint ?: return null
+        return when (readEngine) {
+            UsbReadEngine.SYNC -> BulkTransferReadSource(conn, endpoint)
+            UsbReadEngine.ASYNC ->
+                UsbRequestReadSource(conn, endpoint).takeIf { it.open() } ?: run {
+                    log("UsbRequest setup failed, falling back to SYNC engine")
+                    BulkTransferReadSource(conn, endpoint)
+                }
+        }
+    }
+
+    /**
+     * Read one AUDIO_DATA payload with its PCM going straight into a ring region.
+     *
+     * USB constraint: a bulk IN request shorter than the remaining transfer must be a whole
+     * number of max packets, or the transfer overflows. So:
+     * 1. First 512 bytes (one packet) → scratch: 12-byte sub-header + first 500 PCM bytes (copied)
+     * 2. Whole packets directly into the region up to its wrap point
+     * 3. One packet straddling the wrap → scratch, split-copied
+     * 4. Rest directly into the region after the wrap (exact length ends the transfer)
+     * Copy per packet drops from the whole payload (~11.5KB) to at most ~1KB.
+     *
+     * @return AUDIO_DIRECT if committed, AUDIO_FALLBACK if [scratch] holds the full payload,
+     *         AUDIO_FAILED on read failure (reservation aborted, rest of the payload skipped)
+     */
+    private fun readAudioIntoRing(
+        demux: UsbStreamDemuxer,
+        payloadLength: Int,
+        scratch: ByteArray,
+        processor: AudioDataProcessor,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): Int {
+        val first = demux.readRaw(scratch, 0, AUDIO_PACKET_CHUNK, timeout, isActive)
+        if (first < AUDIO_PACKET_CHUNK) {
+            return abandonAudio(demux, payloadLength, first, timeout, isActive)
+        }
+        val decodeType = readIntLE(scratch, 0)
+        val audioType = readIntLE(scratch, 8)
+        val pcmLength = payloadLength - AUDIO_HEADER_SIZE
+
+        val region = processor.reserveAudio(audioType, decodeType, pcmLength)
+        if (region == null) {
+            // Stream not ready for in-place writes — finish the payload in scratch
+            val rest = payloadLength - AUDIO_PACKET_CHUNK
+            val read = demux.readRaw(scratch, AUDIO_PACKET_CHUNK, rest, timeout, isActive)
+            if (read < rest) return abandonAudio(demux, payloadLength, AUDIO_PACKET_CHUNK + read, timeout, isActive)
+            audioFallbackPackets++
+            return AUDIO_FALLBACK
+        }
+
+        val ring = region.buffer
+        var copied = AUDIO_PACKET_CHUNK - AUDIO_HEADER_SIZE
+        var pos = copyIntoRegion(scratch, AUDIO_HEADER_SIZE, copied, region, 0)
+        while (pos < pcmLength) {
+            val remaining = pcmLength - pos
+            val physical = (region.offset + pos) % ring.size
+            val contiguous = ring.size - physical
+            val request =
+                when {
+                    remaining <= contiguous -> remaining
+                    contiguous >= AUDIO_PACKET_CHUNK -> contiguous / AUDIO_PACKET_CHUNK * AUDIO_PACKET_CHUNK
+                    else -> 0 // straddles the wrap point
+                }
+            val wanted = if (request > 0) request else minOf(AUDIO_PACKET_CHUNK, remaining)
+            val read =
+                if (request > 0) {
+                    demux.readRaw(ring, physical, request, timeout, isActive)
+                } else {
+                    demux.readRaw(scratch, 0, wanted, timeout, isActive)
+                }
+            if (read < wanted) {
+                processor.abortAudio(region)
+                return abandonAudio(demux, payloadLength, AUDIO_HEADER_SIZE + pos + read, timeout, isActive)
+            }
+            if (request > 0) {
+                pos += request
+            } else {
+                pos = copyIntoRegion(scratch, 0, wanted, region, pos)
+                copied += wanted
+            }
+        }
+
+        processor.commitAudio(region, audioType, decodeType)
+        audioDirectPackets++
+        audioDirectBytes += pcmLength - copied
+        audioCopiedBytes += copied
+        return AUDIO_DIRECT
+    }
+
+    /**
+     * A read inside an AUDIO_DATA payload came up short after [consumed] of its [payloadLength]
+     * bytes. Skip the rest so the next read starts at a header instead of mid-payload (which
+     * would cost a resync and the messages behind it).
+     *
+     * @return AUDIO_FAILED
+     */
+    private fun abandonAudio(
+        demux: UsbStreamDemuxer,
+        payloadLength: Int,
+        consumed: Int,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): Int {
+        val rest = payloadLength - consumed
+        if (rest > 0 && isActive()) {
+            val skipped = demux.skipPayload(rest, timeout, isActive)
+            if (skipped < rest) log("Audio payload skip incomplete: $skipped/$rest bytes")
+        }
+        return AUDIO_FAILED
+    }
+
+    /**
+     * Copy into a ring region at logical position [pos], wrapping at the end of its buffer.
+     * @return New logical position
+     */
+    private fun copyIntoRegion(
+        src: ByteArray,
+        srcOffset: Int,
+        length: Int,
+        region: AudioRingBuffer.Reservation,
+        pos: Int,
+    ): Int {
+        val ring = region.buffer
+        val physical = (region.offset + pos) % ring.size
+        val first = minOf(length, ring.size - physical)
+        System.arraycopy(src, srcOffset, ring, physical, first)
+        if (length > first) {
+            System.arraycopy(src, srcOffset + first, ring, 0, length - first)
+        }
+        return pos + length
+    }
+
+    /**
+     * Single read from the active source with receive accounting.
+     */
+    private fun readChunk(
+        source: UsbReadSource,
+        buffer: ByteArray,
+        offset: Int,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        val result = source.read(buffer, offset, length, timeout)
+        if (result >= 0) {
+            bytesReceived.addAndGet(result.toLong())
+            receiveCount.incrementAndGet()
+            captureRecorder?.onReceived(buffer, offset, result)
+        } else if (result != -1) {
+            // -1 is timeout, not an error
+            receiveErrors.incrementAndGet()
+        }
+        return result
+    }
+
     private fun claimBulkInterface(): Boolean {
         for (i in 0 until device.interfaceCount) {
             val iface = device.getInterface(i)
@@ -646,10 +910,7 @@ class UsbDeviceWrapper(
          */
         fun extractPtsFromHeader(buffer: ByteArray, offset: Int = 0): Int {
             if (buffer.size < offset + 16) return 0
-            return (buffer[offset + 12].toInt() and 0xFF) or
-                ((buffer[offset + 13].toInt() and 0xFF) shl 8) or
-                ((buffer[offset + 14].toInt() and 0xFF) shl 16) or
-                ((buffer[offset + 15].toInt() and 0xFF) shl 24)
+            return readIntLE(buffer, offset + 12)
         }
     }
 }
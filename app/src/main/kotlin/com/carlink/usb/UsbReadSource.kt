@@ -0,0 +1,242 @@
+package com.carlink.usb
+
+import android.hardware.usb.UsbDeviceConnection
+import android.hardware.usb.UsbEndpoint
+import android.hardware.usb.UsbRequest
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeoutException
+
+/**
+ * USB IN read engine used by the reading loop.
+ */
+enum class UsbReadEngine {
+    /** One synchronous bulkTransfer at a time (original path). */
+    SYNC,
+
+    /** N UsbRequests kept queued on the IN endpoint, completions drained in order. */
+    ASYNC,
+}
+
+/**
+ * Byte source for the USB reading loop.
+ *
+ * read() semantics are the same for both engines: copy up to [length] bytes into
+ * [buffer] at [offset] and return the count, -1 on timeout, or < -1 on error.
+ * Only the reading loop thread calls read().
+ */
+interface UsbReadSource {
+    val engine: UsbReadEngine
+
+    fun read(
+        buffer: ByteArray,
+        offset: Int,
+        length: Int,
+        timeout: Int,
+    ): Int
+
+    fun close()
+
+    fun getStats(): Map<String, Any>
+}
+
+/**
+ * Transfer throughput and completion jitter, shared by both engines so they
+ * can be compared on the same counters.
+ *
+ * Jitter is the RFC 3550 running estimate over inter-completion gaps:
+ * J += (|gap - previousGap| - J) / 16. Written by the read thread only.
+ */
+internal class ReadSourceStats {
+    @Volatile private var transfers = 0L
+    @Volatile private var bytes = 0L
+    @Volatile private var firstTransferNs = 0L
+    @Volatile private var lastTransferNs = 0L
+    @Volatile private var maxGapNs = 0L
+    @Volatile private var jitterNs = 0.0
+    private var previousGapNs = -1L
+
+    fun onTransfer(byteCount: Int) {
+        val now = System.nanoTime()
+        if (transfers == 0L) {
+            firstTransferNs = now
+        } else {
+            val gap = now - lastTransferNs
+            if (gap > maxGapNs) maxGapNs = gap
+            if (previousGapNs >= 0) {
+                jitterNs += (Math.abs(gap - previousGapNs) - jitterNs) / 16.0
+            }
+            previousGapNs = gap
+        }
+        lastTransferNs = now
+        transfers++
+        bytes += byteCount
+    }
+
+    fun toMap(engine: UsbReadEngine): Map<String, Any> {
+        val activeNs = lastTransferNs - firstTransferNs
+        return mapOf(
+            "engine" to engine.name,
+            "transfers" to transfers,
+            "bytes" to bytes,
+            "bytesPerTransfer" to if (transfers > 0) bytes / transfers else 0L,
+            "throughputKBps" to if (activeNs > 0) bytes * 1_000_000_000.0 / activeNs / 1024.0 else 0.0,
+            "jitterUs" to (jitterNs / 1000).toLong(),
+            "maxGapUs" to maxGapNs / 1000,
+        )
+    }
+}
+
+/**
+ * Synchronous engine: each read() is one bulkTransfer of exactly [length] bytes.
+ */
+class BulkTransferReadSource(
+    private val connection: UsbDeviceConnection,
+    private val endpoint: UsbEndpoint,
+) : UsbReadSource {
+    private val stats = ReadSourceStats()
+
+    override val engine = UsbReadEngine.SYNC
+
+    override fun read(
+        buffer: ByteArray,
+        offset: Int,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        val result = connection.bulkTransfer(endpoint, buffer, offset, length, timeout)
+        if (result > 0) stats.onTransfer(result)
+        return result
+    }
+
+    override fun close() {
+        // Connection is owned by UsbDeviceWrapper
+    }
+
+    override fun getStats(): Map<String, Any> = stats.toMap(engine)
+}
+
+/**
+ * Pipelined engine: keeps [depth] UsbRequests queued on the IN endpoint so the
+ * host controller always has a buffer to complete into, even while the read
+ * thread is busy delivering the previous message.
+ *
+ * ```
+ * queued:  [req0][req1][req2][req3]   ← each backed by a pooled direct ByteBuffer
+ *            │ completes (requestWait)
+ *            ▼
+ * current: req0 data ──read()──► caller's array (partial reads keep the remainder)
+ *            │ drained
+ *            ▼
+ *          re-queued at the back
+ * ```
+ *
+ * Requests on one endpoint complete in queue order, so the byte stream stays ordered.
+ * Each completion is one device transfer (short packet ends it), so a 16-byte header
+ * transfer still arrives on its own; a transfer larger than the caller's [length] is
+ * handed out across several read() calls instead of overflowing.
+ */
+class UsbRequestReadSource(
+    private val connection: UsbDeviceConnection,
+    private val endpoint: UsbEndpoint,
+    private val depth: Int = DEFAULT_DEPTH,
+    private val transferSize: Int = DEFAULT_TRANSFER_SIZE,
+) : UsbReadSource {
+    private val requests = ArrayList<UsbRequest>(depth)
+    private var current: UsbRequest? = null
+    private var currentData: ByteBuffer? = null
+    private val stats = ReadSourceStats()
+
+    override val engine = UsbReadEngine.ASYNC
+
+    /**
+     * Allocate the buffer pool and queue all requests.
+     *
+     * @return false if any request could not be initialized or queued
+     */
+    fun open(): Boolean {
+        repeat(depth) {
+            val request = UsbRequest()
+            if (!request.initialize(connection, endpoint)) {
+                request.close()
+                close()
+                return false
+            }
+            request.clientData = ByteBuffer.allocateDirect(transferSize)
+            requests.add(request)
+            if (!enqueue(request)) {
+                close()
+                return false
+            }
+        }
+        return true
+    }
+
+    override fun read(
+        buffer: ByteArray,
+        offset: Int,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        var data = currentData
+        while (data == null || !data.hasRemaining()) {
+            // Previous transfer fully consumed — hand its buffer back to the bus
+            current?.let { if (!enqueue(it)) return ERROR_QUEUE }
+            current = null
+            currentData = null
+
+            val completed =
+                try {
+                    connection.requestWait(timeout.toLong())
+                } catch (_: TimeoutException) {
+                    return -1
+                } ?: return ERROR_WAIT
+
+            data = completed.clientData as ByteBuffer
+            data.flip() // position was set to bytes transferred
+            current = completed
+            currentData = data
+            if (data.hasRemaining()) stats.onTransfer(data.remaining())
+        }
+
+        val count = minOf(length, data.remaining())
+        data.get(buffer, offset, count)
+        return count
+    }
+
+    override fun close() {
+        for (request in requests) {
+            try {
+                request.cancel()
+                request.close()
+            } catch (_: Exception) {
+                // Connection may already be gone
+            }
+        }
+        requests.clear()
+        current = null
+        currentData = null
+    }
+
+    override fun getStats(): Map<String, Any> =
+        stats.toMap(engine) +
+            mapOf(
+                "depth" to depth,
+                "transferSize" to transferSize,
+            )
+
+    private fun enqueue(request: UsbRequest): Boolean {
+        val buffer = request.clientData as ByteBuffer
+        buffer.clear()
+        return request.queue(buffer)
+    }
+
+    companion object {
+        const val DEFAULT_DEPTH = 4
+
+        // Multiple of the 512-byte high-speed max packet size; matches the sync chunk size
+        const val DEFAULT_TRANSFER_SIZE = 16384
+
+        private const val ERROR_QUEUE = -2
+        private const val ERROR_WAIT = -3
+    }
+}
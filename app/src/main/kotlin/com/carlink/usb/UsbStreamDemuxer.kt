@@ -0,0 +1,381 @@
+package com.carlink.usb
+
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.HeaderParseException
+import com.carlink.protocol.MessageHeader
+import com.carlink.protocol.MessageParser
+import com.carlink.protocol.PROTOCOL_MAGIC
+import com.carlink.protocol.readIntLE
+
+/**
+ * Read-ahead framing layer for the CPC200 byte stream.
+ *
+ * PROBLEM:
+ * The reading loop issued one transfer per header and one or more per payload, so every
+ * small message (command, heartbeat echo, 13-byte audio command) cost 2+ USB round-trips,
+ * and non-video payloads were copied again out of a scratch chunk buffer.
+ *
+ * DESIGN:
+ * ```
+ *  buffer:  [ consumed | unread messages ........ | free ............ ]
+ *           0          readPos                    writePos            capacity
+ * ```
+ * - Every fill is a READ_SIZE (16KB, a multiple of the 512-byte max packet) transfer into
+ *   the free tail, so a transfer can never overflow the request and may carry several
+ *   messages at once.
+ * - Complete messages are sliced out as (buffer, offset, length) views — no per-message copy.
+ * - When the buffer drains exactly, positions reset to 0 (the common case: the adapter ends
+ *   transfers on message boundaries). Otherwise the unread remainder is compacted to the
+ *   front only when the tail is too short for the next fill.
+ * - Payloads that cannot fit in the buffer are streamed into a caller-supplied array via
+ *   [readPayloadInto]: whole READ_SIZE chunks go directly into the destination, only the
+ *   final partial chunk passes through the buffer.
+ *
+ *
+ * RESYNC:
+ * A header with a bad magic, bad type check or implausible length means the stream is
+ * misaligned (partial payload read, dropped transfer). Instead of discarding 16 bytes and
+ * hoping, the buffered bytes are scanned for PROTOCOL_MAGIC followed by a matching
+ * type/~type pair and a plausible length, and reading resumes there. Bytes skipped and
+ * time from detection to the next valid header are counted per resync.
+ *
+ * Views returned by [bufferPayload] are valid until the next call on this demuxer.
+ * Only the reading loop thread may use an instance.
+ *
+ * @param reader Raw read: (buffer, offset, length, timeoutMs) → bytes read, -1 timeout, < -1 error
+ * @param maxPayload Largest payload length accepted as a valid header
+ * @param onResync Called after realignment with (reason, bytesSkipped, elapsedUs)
+ */
+class UsbStreamDemuxer(
+    private val reader: (ByteArray, Int, Int, Int) -> Int,
+    capacity: Int = DEFAULT_CAPACITY,
+    private val maxPayload: Int = Int.MAX_VALUE,
+    private val onResync: ((String, Long, Long) -> Unit)? = null,
+) {
+    val buffer = ByteArray(capacity)
+    private var readPos = 0
+    private var writePos = 0
+
+    /** Result of the last failed read (-1 timeout, < -1 error, 0 stopped). */
+    var lastReadResult = 0
+        private set
+
+    /** Largest payload that [bufferPayload] can hold contiguously. */
+    val maxBufferedPayload: Int get() = buffer.size - READ_SIZE - HEADER_SIZE
+
+    /** True when no read-ahead bytes are pending — the next byte comes from a new read. */
+    val isDrained: Boolean get() = buffered == 0
+
+    // Metrics — written by the read thread, read by stats queries
+    @Volatile private var transfers = 0L
+    @Volatile private var bytesRead = 0L
+    @Volatile private var messages = 0L
+    @Volatile private var compactions = 0L
+    @Volatile private var compactedBytes = 0L
+    @Volatile private var maxMessagesPerTransfer = 0
+    private var messagesSinceFill = 0
+
+    // Resync — in progress while resyncStartNs != 0
+    @Volatile private var resyncs = 0L
+    @Volatile private var resyncBytesSkipped = 0L
+    @Volatile private var lastResyncUs = 0L
+    @Volatile private var maxResyncUs = 0L
+    private var resyncStartNs = 0L
+    private var resyncSkipped = 0L
+    private var resyncReason = ""
+
+    private val buffered: Int get() = writePos - readPos
+
+    /**
+     * Read and parse the next valid 16-byte header, resynchronizing past corrupt bytes.
+     * On success the header bytes are consumed.
+     *
+     * @return Parsed header, or null if the read timed out or failed (see [lastReadResult]).
+     *         A resync interrupted by a failed read continues on the next call.
+     */
+    fun readHeader(
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): MessageHeader? {
+        while (true) {
+            if (!fill(HEADER_SIZE, timeout, isActive)) return null
+
+            val header =
+                try {
+                    MessageParser.parseHeader(buffer, readPos)
+                } catch (e: HeaderParseException) {
+                    beginResync(e.message ?: "invalid header")
+                    null
+                }
+
+            if (header != null) {
+                if (header.length in 0..maxPayload) {
+                    consume(HEADER_SIZE)
+                    if (resyncStartNs != 0L) finishResync()
+
+                    messages++
+                    messagesSinceFill++
+                    if (messagesSinceFill > maxMessagesPerTransfer) maxMessagesPerTransfer = messagesSinceFill
+                    return header
+                }
+                beginResync("implausible length ${header.length}")
+            }
+
+            scanForHeader()
+        }
+    }
+
+    /**
+     * Make [length] payload bytes available contiguously in [buffer].
+     * Caller must [consume] them after use.
+     *
+     * @return Offset of the payload in [buffer], or -1 if the read timed out or failed
+     */
+    fun bufferPayload(
+        length: Int,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): Int {
+        require(length <= maxBufferedPayload) { "Payload $length exceeds demux buffer" }
+        return if (fill(length, timeout, isActive)) readPos else -1
+    }
+
+    /**
+     * Advance past [length] bytes that have been delivered.
+     */
+    fun consume(length: Int) {
+        readPos += length
+        if (readPos >= writePos) {
+            readPos = 0
+            writePos = 0
+        }
+    }
+
+    /**
+     * Stream a payload into [dst], bypassing [buffer] for all whole READ_SIZE chunks.
+     *
+     * @return Bytes written to dst (== length on success, less on timeout/failure)
+     */
+    fun readPayloadInto(
+        dst: ByteArray,
+        dstOffset: Int,
+        length: Int,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): Int {
+        // Anything already read ahead
+        var done = minOf(buffered, length)
+        if (done > 0) {
+            System.arraycopy(buffer, readPos, dst, dstOffset, done)
+            consume(done)
+        }
+
+        // Whole chunks directly into the destination — request never exceeds what remains,
+        // so a transfer cannot spill bytes of the next message into dst
+        while (length - done >= READ_SIZE && isActive()) {
+            val result = reader(dst, dstOffset + done, READ_SIZE, timeout)
+            if (result < 0) {
+                lastReadResult = result
+                return done
+            }
+            if (result > 0) onTransfer(result)
+            done += result
+        }
+
+        // Final partial chunk through the read-ahead buffer (may also pick up following messages)
+        val tail = length - done
+        if (tail > 0) {
+            val available = if (fill(tail, timeout, isActive)) tail else minOf(buffered, tail)
+            copyOut(dst, dstOffset + done, available)
+            done += available
+        }
+        return done
+    }
+
+    /**
+     * Read exactly [length] bytes straight into [dst], bypassing the read-ahead buffer.
+     *
+     * Only valid when [isDrained]. The caller must pick lengths a transfer cannot overflow:
+     * whole max-packet multiples, or exactly the rest of the current transfer.
+     *
+     * @return Bytes read (== length on success)
+     */
+    fun readRaw(
+        dst: ByteArray,
+        dstOffset: Int,
+        length: Int,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): Int {
+        check(buffered == 0) { "readRaw with $buffered bytes buffered" }
+        var done = 0
+        while (done < length && isActive()) {
+            val result = reader(dst, dstOffset + done, length - done, timeout)
+            if (result < 0) {
+                lastReadResult = result
+                break
+            }
+            if (result > 0) onTransfer(result)
+            done += result
+        }
+        return done
+    }
+
+    /**
+     * Read and discard a payload nobody will consume.
+     *
+     * @return Bytes skipped (== length on success)
+     */
+    fun skipPayload(
+        length: Int,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): Int {
+        var done = 0
+        while (done < length) {
+            val wanted = minOf(length - done, READ_SIZE)
+            val ok = fill(wanted, timeout, isActive)
+            val available = minOf(buffered, wanted)
+            consume(available)
+            done += available
+            if (!ok) break
+        }
+        return done
+    }
+
+    /**
+     * Get framing statistics.
+     */
+    fun getStats(): Map<String, Any> {
+        val t = transfers
+        val m = messages
+        return mapOf(
+            "transfers" to t,
+            "messages" to m,
+            "bytesRead" to bytesRead,
+            "transfersPerMessage" to if (m > 0) t.toDouble() / m else 0.0,
+            "bytesPerTransfer" to if (t > 0) bytesRead / t else 0L,
+            "maxMessagesPerTransfer" to maxMessagesPerTransfer,
+            "compactions" to compactions,
+            "compactedBytes" to compactedBytes,
+            "resyncs" to resyncs,
+            "resyncBytesSkipped" to resyncBytesSkipped,
+            "lastResyncUs" to lastResyncUs,
+            "maxResyncUs" to maxResyncUs,
+        )
+    }
+
+    // ==================== Private Methods ====================
+
+    /**
+     * Read until at least [count] unread bytes are buffered.
+     */
+    private fun fill(
+        count: Int,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): Boolean {
+        while (buffered < count) {
+            if (!isActive()) {
+                lastReadResult = 0
+                return false
+            }
+            if (buffer.size - writePos < READ_SIZE) compact()
+
+            val result = reader(buffer, writePos, READ_SIZE, timeout)
+            if (result < 0) {
+                lastReadResult = result
+                return false
+            }
+            if (result > 0) {
+                writePos += result
+                onTransfer(result)
+            }
+        }
+        return true
+    }
+
+    private fun beginResync(reason: String) {
+        if (resyncStartNs != 0L) return
+        resyncStartNs = System.nanoTime()
+        resyncSkipped = 0
+        resyncReason = reason
+    }
+
+    private fun finishResync() {
+        val elapsedUs = (System.nanoTime() - resyncStartNs) / 1000
+        resyncs++
+        resyncBytesSkipped += resyncSkipped
+        lastResyncUs = elapsedUs
+        if (elapsedUs > maxResyncUs) maxResyncUs = elapsedUs
+        resyncStartNs = 0
+        onResync?.invoke(resyncReason, resyncSkipped, elapsedUs)
+    }
+
+    /**
+     * Advance [readPos] past the corrupt header to the next candidate header start.
+     *
+     * A candidate is PROTOCOL_MAGIC followed by type/~type and a plausible length. If a
+     * magic is found too close to the end of the buffered data to verify, stop there and
+     * let the next fill complete it. With no candidate, keep the last 3 bytes (a magic may
+     * straddle the next transfer) and drop the rest.
+     */
+    private fun scanForHeader() {
+        var pos = readPos + 1
+        var target = -1
+        while (pos + 4 <= writePos) {
+            if (readIntLE(buffer, pos) == PROTOCOL_MAGIC) {
+                if (writePos - pos < HEADER_SIZE) {
+                    target = pos // incomplete — verify after the next fill
+                    break
+                }
+                val length = readIntLE(buffer, pos + 4)
+                val type = readIntLE(buffer, pos + 8)
+                if (readIntLE(buffer, pos + 12) == type.inv() && length in 0..maxPayload) {
+                    target = pos
+                    break
+                }
+            }
+            pos++
+        }
+        if (target < 0) target = maxOf(readPos + 1, writePos - 3)
+
+        resyncSkipped += target - readPos
+        consume(target - readPos)
+    }
+
+    private fun compact() {
+        val remaining = buffered
+        if (remaining > 0) {
+            System.arraycopy(buffer, readPos, buffer, 0, remaining)
+            compactedBytes += remaining
+        }
+        compactions++
+        readPos = 0
+        writePos = remaining
+    }
+
+    private fun copyOut(
+        dst: ByteArray,
+        dstOffset: Int,
+        length: Int,
+    ) {
+        if (length <= 0) return
+        System.arraycopy(buffer, readPos, dst, dstOffset, length)
+        consume(length)
+    }
+
+    private fun onTransfer(bytes: Int) {
+        transfers++
+        bytesRead += bytes
+        messagesSinceFill = 0
+    }
+
+    companion object {
+        /** Transfer size for every read — multiple of the 512-byte high-speed max packet. */
+        const val READ_SIZE = 16384
+
+        /** 256KB holds every non-video message except large album art. */
+        const val DEFAULT_CAPACITY = 256 * 1024
+    }
+}
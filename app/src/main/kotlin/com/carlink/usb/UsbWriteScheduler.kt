@@ -0,0 +1,476 @@
+package com.carlink.usb
+
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Priority classes for outbound USB writes. Lower ordinal is served first.
+ *
+ * @param capacity Maximum queued writes for this class
+ * @param dropOldest When full: true = discard the oldest queued write (newer data supersedes it),
+ *                   false = reject the incoming write (caller sees send failure)
+ * @param flushImmediately With coalescing on, a write of this class ends the batch window at once
+ */
+enum class WritePriority(
+    val capacity: Int,
+    val dropOldest: Boolean,
+    val flushImmediately: Boolean,
+) {
+    TOUCH(64, false, true),       // MULTI_TOUCH — directly user-perceived, never reorder or drop queued events
+    MIC(16, true, false),         // Microphone PCM every 20ms — stale audio is worthless, keep newest
+    KEYFRAME(2, true, true),      // FRAME (IDR request) — one pending request is as good as many
+    HEARTBEAT(2, true, false),    // Keepalive — one pending heartbeat is as good as many
+    CONFIG(128, false, false),    // Commands, SEND_FILE, init sequence — must all arrive, in order
+}
+
+/**
+ * Outbound batching settings: pack several queued messages into one bulk transfer.
+ *
+ * @param maxBatchBytes Upper bound for one packed transfer; larger writes are sent alone
+ * @param latencyBudgetUs Longest a write may wait for others to join its batch
+ *                        (not applied when a [WritePriority.flushImmediately] write is in it)
+ */
+data class WriteCoalescing(
+    val maxBatchBytes: Int = 16 * 1024,
+    val latencyBudgetUs: Long = 2000,
+)
+
+/**
+ * Single-writer USB output scheduler.
+ *
+ * PROBLEM:
+ * bulkTransfer() was called directly from 4+ threads (HeartbeatTimer, mic Timer,
+ * frame interval coroutine, UI thread for touch). Writers contended on the OUT endpoint,
+ * and a 1000ms write timeout on one stalled every other writer behind it in arbitrary order.
+ *
+ * DESIGN:
+ * ```
+ * Producers (any thread)            USB-Writer thread
+ *   submit(TOUCH)     ──┐
+ *   submit(MIC)       ──┤   per-class bounded     ┌─► highest non-empty class first
+ *   submit(KEYFRAME)  ──┼─► FIFO queues (lock) ───┤   FIFO within a class
+ *   submit(HEARTBEAT) ──┤                         └─► bulkTransfer (only caller)
+ *   submit(CONFIG)    ──┘
+ * ```
+ * submit() never touches the USB endpoint — it enqueues and returns immediately.
+ *
+ * COALESCING (optional, off by default — see [coalescing]):
+ * CPC200 messages are self-framing, so several can share one bulk transfer. With coalescing
+ * on, the writer keeps taking queued writes (still highest class first) into one buffer
+ * until [WriteCoalescing.maxBatchBytes] is reached or the first write has waited
+ * [WriteCoalescing.latencyBudgetUs]. Touch and keyframe requests close the window at once.
+ * Each transfer then pays the JNI/URB cost once for the whole batch.
+ *
+ * METRICS (per class): enqueued, written, failed, dropped, current/max queue depth,
+ * average/max wait time from submit() to the start of the transfer, writes sent inside a
+ * batch and the average/max time spent waiting in the batch window. Totals: transfers and
+ * transfers saved by coalescing.
+ *
+ * @param transfer Raw write: (data, length, timeoutMs) → bytes written, or negative on error
+ */
+class UsbWriteScheduler(
+    private val transfer: (ByteArray, Int, Int) -> Int,
+    private val logCallback: (String) -> Unit,
+) {
+    private class PendingWrite(
+        val data: ByteArray,
+        val length: Int,
+        val timeout: Int,
+        val enqueuedNs: Long,
+        val priority: WritePriority,
+        val onComplete: ((Boolean) -> Unit)?,
+    )
+
+    private val classCount = WritePriority.entries.size
+    private val lock = ReentrantLock()
+    private val notEmpty = lock.newCondition()
+    private val queues = Array(classCount) { ArrayDeque<PendingWrite>(WritePriority.entries[it].capacity) }
+    private var pendingCount = 0 // guarded by lock
+
+    @Volatile private var running = false
+    @Volatile private var writerThread: Thread? = null
+
+    /** Batching settings; null sends every write as its own transfer. Takes effect on the next write. */
+    @Volatile var coalescing: WriteCoalescing? = null
+
+    // Writer thread only
+    private val batch = ArrayList<PendingWrite>()
+    private var batchBuffer = ByteArray(0)
+    private var batchOpenedNs = 0L
+
+    // Per-class metrics — indexed by WritePriority.ordinal
+    private val enqueued = AtomicLongArray(classCount)
+    private val written = AtomicLongArray(classCount)
+    private val failed = AtomicLongArray(classCount)
+    private val dropped = AtomicLongArray(classCount)
+    private val maxDepth = AtomicIntegerArray(classCount)
+    private val totalWaitNs = AtomicLongArray(classCount)
+    private val maxWaitNs = AtomicLongArray(classCount)
+    private val batched = AtomicLongArray(classCount)
+    private val windowed = AtomicLongArray(classCount)
+    private val batchWaitNs = AtomicLongArray(classCount)
+    private val maxBatchWaitNs = AtomicLongArray(classCount)
+    @Volatile private var transfers = 0L
+    @Volatile private var transfersSaved = 0L
+
+    val isRunning: Boolean get() = running
+
+    /**
+     * Start the writer thread. Safe to call if already running.
+     */
+    fun start() {
+        if (running) return
+        running = true
+
+        Thread {
+            raiseWriterPriority()
+            log("Writer thread started")
+            writerLoop()
+            log("Writer thread stopped")
+        }.apply {
+            name = "USB-Writer"
+            isDaemon = true
+            start()
+        }.also { writerThread = it }
+    }
+
+    /**
+     * Stop the writer thread and discard anything still queued.
+     * Waits for an in-flight transfer to finish (bounded by its timeout).
+     */
+    fun stop() {
+        if (!running) return
+        lock.withLock {
+            running = false
+            notEmpty.signalAll()
+        }
+        try {
+            writerThread?.join(1500)
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        writerThread = null
+
+        val discarded =
+            lock.withLock {
+                val entries = ArrayList<PendingWrite>(pendingCount)
+                queues.forEach {
+                    entries.addAll(it)
+                    it.clear()
+                }
+                pendingCount = 0
+                entries
+            }
+        if (discarded.isNotEmpty()) {
+            discarded.forEach { complete(it, false) }
+            log("Discarded ${discarded.size} queued writes on stop")
+        }
+    }
+
+    /**
+     * Queue data for the writer thread. Never blocks on USB.
+     *
+     * true means queued, not transferred: the outcome is only known through [onComplete]
+     * (or the written/failed/dropped counters).
+     *
+     * The array must not be modified until [onComplete] runs (or, without one, after submission).
+     *
+     * @param onComplete Called once the write is finished with: true = transferred in full,
+     *                   false = failed, dropped for a newer write or discarded on stop. Runs on
+     *                   the writer thread (or the thread that dropped/discarded it); not called
+     *                   when submit() returns false.
+     * @return true if queued, false if rejected (scheduler stopped or class queue full)
+     */
+    fun submit(
+        data: ByteArray,
+        priority: WritePriority,
+        timeout: Int,
+        length: Int = data.size,
+        onComplete: ((Boolean) -> Unit)? = null,
+    ): Boolean {
+        val cls = priority.ordinal
+        val entry = PendingWrite(data, length, timeout, System.nanoTime(), priority, onComplete)
+        var evicted: PendingWrite? = null
+
+        lock.withLock {
+            if (!running) return false
+
+            val queue = queues[cls]
+            if (queue.size >= priority.capacity) {
+                dropped.incrementAndGet(cls)
+                if (!priority.dropOldest) return false
+                evicted = queue.pollFirst()
+                pendingCount--
+            }
+
+            queue.addLast(entry)
+            pendingCount++
+            enqueued.incrementAndGet(cls)
+            if (queue.size > maxDepth.get(cls)) maxDepth.set(cls, queue.size)
+            notEmpty.signal()
+        }
+        evicted?.let { complete(it, false) }
+        return true
+    }
+
+    /**
+     * Get per-class queue statistics plus transfer totals.
+     */
+    fun getStats(): Map<String, Any> {
+        val depths = lock.withLock { IntArray(classCount) { queues[it].size } }
+        val perClass: Map<String, Any> =
+            WritePriority.entries.associate { priority ->
+                val cls = priority.ordinal
+                val started = written.get(cls) + failed.get(cls)
+                val inWindow = windowed.get(cls)
+                priority.name to
+                    mapOf(
+                        "enqueued" to enqueued.get(cls),
+                        "written" to written.get(cls),
+                        "failed" to failed.get(cls),
+                        "dropped" to dropped.get(cls),
+                        "depth" to depths[cls],
+                        "maxDepth" to maxDepth.get(cls),
+                        "avgWaitUs" to if (started > 0) totalWaitNs.get(cls) / started / 1000 else 0L,
+                        "maxWaitUs" to maxWaitNs.get(cls) / 1000,
+                        "batched" to batched.get(cls),
+                        "avgBatchWaitUs" to if (inWindow > 0) batchWaitNs.get(cls) / inWindow / 1000 else 0L,
+                        "maxBatchWaitUs" to maxBatchWaitNs.get(cls) / 1000,
+                    )
+            }
+        return perClass +
+            mapOf(
+                "coalescing" to (coalescing?.toString() ?: "off"),
+                "transfers" to transfers,
+                "transfersSaved" to transfersSaved,
+            )
+    }
+
+    // ==================== Private Methods ====================
+
+    /**
+     * Same priority as USB-ReadLoop: touch and mic latency are as critical as reads.
+     * Off-device (StreamTransport on a plain JVM, unit tests against android.jar) the call throws
+     * NoClassDefFoundError or a "Stub!"/"not mocked" RuntimeException — keep the default priority
+     * rather than letting the writer thread die with running still true.
+     */
+    private fun raiseWriterPriority() {
+        try {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_DISPLAY - 2)
+        } catch (e: LinkageError) {
+            log("Writer priority unchanged (no Android runtime): $e")
+        } catch (e: RuntimeException) {
+            log("Writer priority unchanged (no Android runtime): $e")
+        }
+    }
+
+    private fun writerLoop() {
+        while (true) {
+            val config = coalescing
+            val entry: PendingWrite =
+                try {
+                    lock.withLock {
+                        while (running && pendingCount == 0) {
+                            notEmpty.await()
+                        }
+                        if (!running) return
+                        val first = pollHighest()
+                        if (config != null && first.length < config.maxBatchBytes) {
+                            collectBatch(first, config)
+                        }
+                        first
+                    }
+                } catch (_: InterruptedException) {
+                    failPendingOnInterrupt()
+                    Thread.currentThread().interrupt() // After the callbacks, so they run uninterrupted
+                    return
+                }
+
+            if (batch.isNotEmpty()) {
+                writeBatch()
+            } else {
+                recordStart(entry, System.nanoTime())
+                val result = transferSafely(entry.data, entry.length, entry.timeout)
+                recordResult(entry, result == entry.length, result)
+            }
+        }
+    }
+
+    /**
+     * Fill [batch] starting with [first], waiting up to the latency budget for more writes.
+     * Called with the lock held; the wait releases it so producers can keep submitting.
+     */
+    private fun collectBatch(
+        first: PendingWrite,
+        config: WriteCoalescing,
+    ) {
+        batchOpenedNs = System.nanoTime()
+        batch.add(first)
+        var bytes = first.length
+        val deadlineNs = first.enqueuedNs + config.latencyBudgetUs * 1000
+        var flushNow = first.priority.flushImmediately
+
+        while (true) {
+            // Take whatever is ready, highest class first, while it fits
+            while (pendingCount > 0) {
+                val next = peekHighest() ?: break
+                if (bytes + next.length > config.maxBatchBytes) {
+                    flushNow = true // Full for this one — send what we have
+                    break
+                }
+                pollHighest()
+                batch.add(next)
+                bytes += next.length
+                if (next.priority.flushImmediately) flushNow = true
+            }
+
+            val remainingNs = deadlineNs - System.nanoTime()
+            if (flushNow || remainingNs <= 0 || bytes >= config.maxBatchBytes || !running) return
+            notEmpty.awaitNanos(remainingNs)
+        }
+    }
+
+    /**
+     * Writer thread interrupted while waiting: nothing will drain the queues any more. Stop
+     * accepting writes and fail everything not yet transferred (batch in the making included),
+     * so callers see each one as failed instead of waiting for a transfer that never comes.
+     */
+    private fun failPendingOnInterrupt() {
+        val abandoned = ArrayList<PendingWrite>(batch)
+        batch.clear()
+        lock.withLock {
+            running = false
+            queues.forEach {
+                abandoned.addAll(it)
+                it.clear()
+            }
+            pendingCount = 0
+        }
+        for (entry in abandoned) {
+            failed.incrementAndGet(entry.priority.ordinal)
+            complete(entry, false)
+        }
+        log("Writer thread interrupted: ${abandoned.size} queued writes failed, scheduler stopped")
+    }
+
+    /**
+     * Send everything collected by [collectBatch] as one transfer. A batch of one (nobody
+     * joined within the budget) is sent from the caller's array without copying.
+     */
+    private fun writeBatch() {
+        var bytes = 0
+        var timeout = 0
+        for (entry in batch) {
+            bytes += entry.length
+            timeout = maxOf(timeout, entry.timeout)
+        }
+
+        val startNs = System.nanoTime()
+        val shared = batch.size > 1
+        if (shared && batchBuffer.size < bytes) {
+            batchBuffer = ByteArray(maxOf(bytes, coalescing?.maxBatchBytes ?: bytes))
+        }
+        var pos = 0
+        for (entry in batch) {
+            if (shared) {
+                System.arraycopy(entry.data, 0, batchBuffer, pos, entry.length)
+                pos += entry.length
+                batched.incrementAndGet(entry.priority.ordinal)
+            }
+            recordStart(entry, startNs)
+
+            // Added latency: time held in the batch window after it was ready to go alone
+            val cls = entry.priority.ordinal
+            windowed.incrementAndGet(cls)
+            val windowNs = startNs - maxOf(entry.enqueuedNs, batchOpenedNs)
+            batchWaitNs.addAndGet(cls, windowNs)
+            if (windowNs > maxBatchWaitNs.get(cls)) maxBatchWaitNs.set(cls, windowNs)
+        }
+
+        val first = batch[0]
+        val result =
+            if (shared) transferSafely(batchBuffer, bytes, timeout) else transferSafely(first.data, first.length, first.timeout)
+        val ok = result == bytes
+        for (entry in batch) recordResult(entry, ok, result)
+        transfersSaved += batch.size - 1
+        batch.clear()
+    }
+
+    private fun pollHighest(): PendingWrite {
+        for (i in 0 until classCount) {
+            val entry = queues[i].pollFirst()
+            if (entry != null) {
+                pendingCount--
+                return entry
+            }
+        }
+        throw IllegalStateException("pendingCount=$pendingCount but all queues empty")
+    }
+
+    private fun peekHighest(): PendingWrite? {
+        for (i in 0 until classCount) {
+            queues[i].peekFirst()?.let { return it }
+        }
+        return null
+    }
+
+    private fun transferSafely(
+        data: ByteArray,
+        length: Int,
+        timeout: Int,
+    ): Int {
+        transfers++
+        return try {
+            transfer(data, length, timeout)
+        } catch (e: Exception) {
+            log("Write error: ${e.message}")
+            -1
+        }
+    }
+
+    private fun recordStart(
+        entry: PendingWrite,
+        startNs: Long,
+    ) {
+        val cls = entry.priority.ordinal
+        val waitNs = startNs - entry.enqueuedNs
+        totalWaitNs.addAndGet(cls, waitNs)
+        if (waitNs > maxWaitNs.get(cls)) maxWaitNs.set(cls, waitNs)
+    }
+
+    private fun recordResult(
+        entry: PendingWrite,
+        ok: Boolean,
+        result: Int,
+    ) {
+        val cls = entry.priority.ordinal
+        if (ok) {
+            written.incrementAndGet(cls)
+        } else {
+            val failures = failed.incrementAndGet(cls)
+            if (failures == 1L || failures % 100 == 0L) {
+                log("Write incomplete (${entry.priority.name}): $result/${entry.length} bytes, failures=$failures")
+            }
+        }
+        complete(entry, ok)
+    }
+
+    private fun complete(
+        entry: PendingWrite,
+        ok: Boolean,
+    ) {
+        val onComplete = entry.onComplete ?: return
+        try {
+            onComplete(ok)
+        } catch (e: Exception) {
+            log("Write completion callback failed: ${e.message}")
+        }
+    }
+
+    private fun log(message: String) {
+        logCallback("[USB] [WRITER] $message")
+    }
+}
@@ -0,0 +1,95 @@
+package com.carlink.usb
+
+import com.carlink.protocol.readIntLE
+import com.carlink.transport.Transport.VideoDataProcessor
+
+/** Bytes in front of the H.264 data of a VIDEO_DATA payload: width, height, encoderState, pts, flags */
+internal const val VIDEO_HEADER_SIZE = 20
+
+/**
+ * Reads VIDEO_DATA payloads into a [VideoDataProcessor]'s frame lease: the 20-byte video
+ * header into a small array, then the H.264 data straight into the borrowed buffer. Only the
+ * bytes already read ahead with the header (at most one transfer) are copied.
+ *
+ * Shared by the USB and stream transports' read loops; one instance per loop, read loop
+ * thread only.
+ *
+ * Every path consumes the whole payload. A frame that cannot be fed, or whose read comes up
+ * short, is skipped to its end, so the next read starts at a header instead of mid-payload
+ * (which would cost a resync and the messages behind it).
+ */
+internal class VideoLeaseReader(
+    private val logCallback: (String) -> Unit,
+) {
+    private val videoHeader = ByteArray(VIDEO_HEADER_SIZE)
+
+    /**
+     * Read one VIDEO_DATA payload of [payloadLength] bytes from [demux].
+     *
+     * @return H.264 bytes committed to [processor] (0 if the frame was dropped)
+     */
+    fun read(
+        demux: UsbStreamDemuxer,
+        payloadLength: Int,
+        processor: VideoDataProcessor,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ): Int {
+        if (payloadLength <= VIDEO_HEADER_SIZE) {
+            // No H.264 data — nothing to feed
+            demux.skipPayload(payloadLength, timeout, isActive)
+            return 0
+        }
+
+        val headerRead = demux.readPayloadInto(videoHeader, 0, VIDEO_HEADER_SIZE, timeout, isActive)
+        if (headerRead < VIDEO_HEADER_SIZE) {
+            log("Incomplete video header: got=$headerRead bytes, lastResult=${demux.lastReadResult}")
+            skipRest(demux, payloadLength - headerRead, timeout, isActive)
+            return 0
+        }
+        val sourcePts = readIntLE(videoHeader, 12)
+        val h264Length = payloadLength - VIDEO_HEADER_SIZE
+
+        val slot = processor.borrowFrameBuffer(h264Length)
+        if (slot == null) {
+            // Dropped (oversized, staging busy, renderer absent) — keep the stream aligned
+            demux.skipPayload(h264Length, timeout, isActive)
+            return 0
+        }
+
+        val totalRead =
+            try {
+                demux.readPayloadInto(slot, 0, h264Length, timeout, isActive)
+            } catch (e: Exception) {
+                processor.abortFrame()
+                throw e
+            }
+
+        // Feed even on partial read (same policy as the copy path)
+        if (totalRead > 0) {
+            processor.commitFrame(totalRead, sourcePts)
+        } else {
+            processor.abortFrame()
+        }
+        if (totalRead < h264Length) {
+            log("Read failed: got=$totalRead/$h264Length, lastResult=${demux.lastReadResult}")
+            skipRest(demux, h264Length - totalRead, timeout, isActive)
+        }
+        return totalRead
+    }
+
+    private fun skipRest(
+        demux: UsbStreamDemuxer,
+        rest: Int,
+        timeout: Int,
+        isActive: () -> Boolean,
+    ) {
+        if (rest <= 0 || !isActive()) return
+        val skipped = demux.skipPayload(rest, timeout, isActive)
+        if (skipped < rest) log("Video payload skip incomplete: $skipped/$rest bytes")
+    }
+
+    private fun log(message: String) {
+        logCallback("[VIDEO_READ] $message")
+    }
+}
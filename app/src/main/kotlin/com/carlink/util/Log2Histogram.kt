@@ -0,0 +1,106 @@
+package com.carlink.util
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Fixed-memory, lock-free histogram with power-of-two buckets.
+ *
+ * Bucket i counts values in [2^(i-1), 2^i) (bucket 0 holds 0), so 64 buckets cover every
+ * non-negative Long with at most 2x resolution error — enough to tell a 200us read from a
+ * 20ms stall. record() is a handful of atomic increments; no allocation, no locks, safe
+ * from any thread. Percentiles are reported as the upper bound of the bucket they fall in.
+ *
+ * Where 2x is too coarse (percentiles that are compared run to run), [subBucketBits] splits
+ * every power of two into 2^subBucketBits linear sub-buckets: 3 bits bounds the error to
+ * 12.5% for 8x the memory (488 buckets, ~4 KB). Values below 2^subBucketBits are exact.
+ */
+class Log2Histogram(
+    private val subBucketBits: Int = 0,
+) {
+    init {
+        require(subBucketBits in 0..MAX_SUB_BUCKET_BITS) { "subBucketBits must be 0..$MAX_SUB_BUCKET_BITS: $subBucketBits" }
+    }
+
+    private val subBuckets = 1 shl subBucketBits
+    private val bucketCount = (64 - subBucketBits) * subBuckets
+    private val buckets = AtomicLongArray(bucketCount)
+    private val count = AtomicLong(0)
+    private val sum = AtomicLong(0)
+    private val max = AtomicLong(0)
+
+    val total: Long get() = count.get()
+    val maximum: Long get() = max.get()
+
+    fun record(value: Long) {
+        val v = if (value < 0) 0L else value
+        buckets.incrementAndGet(bucketOf(v))
+        count.incrementAndGet()
+        sum.addAndGet(v)
+        var current = max.get()
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get()
+        }
+    }
+
+    /**
+     * Upper bound of the bucket containing the [fraction] quantile (0.0–1.0), or 0 if empty.
+     */
+    fun percentile(fraction: Double): Long {
+        val n = count.get()
+        if (n == 0L) return 0
+        val rank = maxOf(1L, Math.ceil(n * fraction).toLong())
+        var seen = 0L
+        for (i in 0 until bucketCount) {
+            seen += buckets.get(i)
+            if (seen >= rank) return minOf(upperBound(i), max.get())
+        }
+        return max.get()
+    }
+
+    /**
+     * Consistent-enough summary for stats maps. Values are in the unit passed to record(),
+     * divided by [divisor] (e.g. 1000 to report ns as us).
+     */
+    fun snapshot(divisor: Long = 1): Map<String, Long> {
+        val n = count.get()
+        return mapOf(
+            "count" to n,
+            "mean" to if (n > 0) sum.get() / n / divisor else 0L,
+            "p50" to percentile(0.50) / divisor,
+            "p90" to percentile(0.90) / divisor,
+            "p95" to percentile(0.95) / divisor,
+            "p99" to percentile(0.99) / divisor,
+            "max" to max.get() / divisor,
+        )
+    }
+
+    fun reset() {
+        for (i in 0 until bucketCount) buckets.set(i, 0)
+        count.set(0)
+        sum.set(0)
+        max.set(0)
+    }
+
+    /**
+     * Values below [subBuckets] get a bucket each. Above, the bit length picks the power of
+     * two and the [subBucketBits] bits after the leading one pick the linear sub-bucket
+     * (with 0 bits this is just the bit length, 0..63).
+     */
+    private fun bucketOf(value: Long): Int {
+        if (value < subBuckets) return value.toInt()
+        val shift = 63 - java.lang.Long.numberOfLeadingZeros(value) - subBucketBits
+        return shift * subBuckets + (value ushr shift).toInt()
+    }
+
+    private fun upperBound(bucket: Int): Long {
+        if (bucket < subBuckets) return bucket.toLong()
+        val shift = bucket / subBuckets - 1
+        val lower = (subBuckets + bucket % subBuckets).toLong() shl shift
+        return lower + ((1L shl shift) - 1) // Top bucket ends at Long.MAX_VALUE
+    }
+
+    companion object {
+        private const val MAX_SUB_BUCKET_BITS = 6
+    }
+}
@@ -0,0 +1,139 @@
+package com.carlink.util
+
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Size-class pool for large, short-lived message payloads.
+ *
+ * PROBLEM:
+ * Payloads that do not fit the USB demux buffer (album art, hundreds of KB) were read into a
+ * fresh ByteArray each time and dropped right after parsing — large young-gen churn that
+ * feeds the periodic GC pauses.
+ *
+ * DESIGN:
+ * ```
+ * acquire(300KB) → class 512KB → free list hit? reuse : allocate (miss)
+ *                                      │
+ *  lease.release() ────────────────────┘ back to free list (bounded; excess left to GC)
+ * ```
+ * - Size classes are powers of two from 64KB to 2MB (the protocol's max payload).
+ *   Requests above the largest class are allocated exactly and never pooled.
+ * - At most [MAX_FREE_SMALL] buffers are kept per class up to 512KB and [MAX_FREE_LARGE]
+ *   above, so the pool never holds more than ~5MB.
+ * - A leased buffer may be larger than requested; only [Lease.length] bytes are meaningful.
+ *   Nothing may keep a reference to [Lease.buffer] after release().
+ */
+object PayloadBufferPool {
+    private const val MIN_CLASS_SHIFT = 16 // 64KB
+    private const val MAX_CLASS_SHIFT = 21 // 2MB
+    private const val CLASS_COUNT = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1
+    private const val MAX_FREE_SMALL = 2
+    private const val MAX_FREE_LARGE = 1
+    private const val LAST_SMALL_SHIFT = 19 // 512KB
+
+    private val freeLists = Array(CLASS_COUNT) { ArrayDeque<ByteArray>(MAX_FREE_SMALL) }
+
+    // Metrics
+    private val acquires = AtomicLong(0)
+    private val hits = AtomicLong(0)
+    private val misses = AtomicLong(0)
+    private val oversize = AtomicLong(0)
+    private val bytesReused = AtomicLong(0)
+    private val releases = AtomicLong(0)
+    private val discards = AtomicLong(0)
+
+    /**
+     * A buffer on loan from the pool. Release exactly once when the payload is no longer needed;
+     * further release() calls are ignored.
+     */
+    class Lease internal constructor(
+        val buffer: ByteArray,
+        val length: Int,
+        internal val sizeClass: Int,
+    ) {
+        @Volatile private var released = false
+
+        fun release() {
+            if (released) return
+            released = true
+            recycle(this)
+        }
+    }
+
+    /**
+     * Lease a buffer of at least [length] bytes.
+     */
+    fun acquire(length: Int): Lease {
+        require(length >= 0) { "Negative length $length" }
+        acquires.incrementAndGet()
+
+        val cls = sizeClassFor(length)
+        if (cls < 0) {
+            oversize.incrementAndGet()
+            return Lease(ByteArray(length), length, -1)
+        }
+
+        val pooled = synchronized(freeLists) { freeLists[cls].pollFirst() }
+        if (pooled != null) {
+            hits.incrementAndGet()
+            bytesReused.addAndGet(pooled.size.toLong())
+            return Lease(pooled, length, cls)
+        }
+
+        misses.incrementAndGet()
+        return Lease(ByteArray(1 shl (cls + MIN_CLASS_SHIFT)), length, cls)
+    }
+
+    /**
+     * Drop all pooled buffers (e.g. on disconnect). Outstanding leases are unaffected.
+     */
+    fun clear() {
+        synchronized(freeLists) { freeLists.forEach { it.clear() } }
+    }
+
+    fun getStats(): Map<String, Any> {
+        val pooledBytes =
+            synchronized(freeLists) {
+                freeLists.sumOf { list -> list.sumOf { it.size.toLong() } }
+            }
+        val total = acquires.get()
+        return mapOf(
+            "acquires" to total,
+            "allocationsAvoided" to hits.get(),
+            "poolMisses" to misses.get(),
+            "oversize" to oversize.get(),
+            "hitRate" to if (total > 0) hits.get().toDouble() / total else 0.0,
+            "bytesReused" to bytesReused.get(),
+            "releases" to releases.get(),
+            "discards" to discards.get(),
+            "pooledBytes" to pooledBytes,
+        )
+    }
+
+    private fun recycle(lease: Lease) {
+        releases.incrementAndGet()
+        val cls = lease.sizeClass
+        if (cls < 0) return
+
+        val limit = if (cls + MIN_CLASS_SHIFT <= LAST_SMALL_SHIFT) MAX_FREE_SMALL else MAX_FREE_LARGE
+        val kept =
+            synchronized(freeLists) {
+                val list = freeLists[cls]
+                if (list.size < limit) {
+                    list.addLast(lease.buffer)
+                    true
+                } else {
+                    false
+                }
+            }
+        if (!kept) discards.incrementAndGet()
+    }
+
+    /** Smallest class index whose buffer holds [length] bytes, or -1 if above the largest class. */
+    private fun sizeClassFor(length: Int): Int {
+        if (length <= 1 shl MIN_CLASS_SHIFT) return 0
+        val shift = 32 - Integer.numberOfLeadingZeros(length - 1) // ceil(log2(length))
+        return if (shift > MAX_CLASS_SHIFT) -1 else shift - MIN_CLASS_SHIFT
+    }
+}
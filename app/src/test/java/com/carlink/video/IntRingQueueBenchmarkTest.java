@@ -0,0 +1,140 @@
+package com.carlink.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.carlink.util.Log2Histogram;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Microbenchmark of {@link IntRingQueue} against the previous ConcurrentLinkedQueue&lt;Integer&gt;
+ * for the codec input-index handoff.
+ *
+ * Both queues run the same two-thread scenario as H264Renderer: a producer standing in for
+ * onInputBufferAvailable and a consumer standing in for the feeder thread.
+ *  - paced: one index per 16.67ms (60 fps callbacks); offer cost (ns) on the callback thread
+ *    and offer → poll handoff latency (us)
+ *  - burst: unpaced offers for raw throughput (ns per handed-over index) and bytes allocated
+ *    per offer on the callback thread
+ *
+ * Results are printed; the test asserts only that every index arrives in order and that the
+ * ring allocates nothing per offer.
+ */
+public class IntRingQueueBenchmarkTest {
+    private static final long FRAME_INTERVAL_NS = 16_666_667L;  // 60 fps
+    private static final int INDEX_RANGE = 32;                  // Typical decoder input buffer count
+    private static final int PACED_FRAMES = 120;                // 2 s per queue
+    private static final int BURST_OPS = 200_000;
+
+    private interface IndexQueue {
+        boolean offer(int value);
+        int poll();  // IntRingQueue.EMPTY if none
+    }
+
+    private static final class Run {
+        long elapsedNs;
+        long producerBytes = -1;  // -1 where the JVM cannot count thread allocations
+    }
+
+    @Test
+    public void ringHandsOverAt60FpsWithoutAllocating() throws InterruptedException {
+        String ring = measure("IntRingQueue", ringQueue());
+        String boxed = measure("ConcurrentLinkedQueue<Integer>", boxedQueue());
+        System.out.println(ring);
+        System.out.println(boxed);
+    }
+
+    private String measure(String name, IndexQueue queue) throws InterruptedException {
+        // Burst first: also warms up both paths
+        Run burst = handOver(queue, BURST_OPS, 0, null, null);
+
+        Log2Histogram offerNs = new Log2Histogram();
+        Log2Histogram handoffNs = new Log2Histogram();
+        handOver(queue, PACED_FRAMES, FRAME_INTERVAL_NS, offerNs, handoffNs);
+        assertEquals(PACED_FRAMES, offerNs.getTotal());
+
+        long bytesPerOffer = burst.producerBytes >= 0 ? burst.producerBytes / BURST_OPS : -1;
+        if (name.equals("IntRingQueue") && bytesPerOffer >= 0) {
+            assertTrue("ring allocated " + bytesPerOffer + " B per offer", bytesPerOffer == 0);
+        }
+        return name + ": burst " + burst.elapsedNs / BURST_OPS + " ns/index, " + bytesPerOffer + " B/offer"
+                + " | 60 fps offer p50/p99/max " + offerNs.percentile(0.50) + "/" + offerNs.percentile(0.99)
+                + "/" + offerNs.getMaximum() + " ns, handoff p50/p99/max " + handoffNs.percentile(0.50) / 1000
+                + "/" + handoffNs.percentile(0.99) / 1000 + "/" + handoffNs.getMaximum() / 1000 + " us";
+    }
+
+    /** Hand [count] indices from a producer thread to this thread, checking their order. */
+    private static Run handOver(IndexQueue queue, int count, long intervalNs,
+                                Log2Histogram offerNs, Log2Histogram handoffNs)
+            throws InterruptedException {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean threads =
+                mx instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) mx : null;
+        long[] offeredAt = new long[INDEX_RANGE];
+        Run run = new Run();
+        long start = System.nanoTime();
+
+        Thread producer = new Thread(() -> {
+            long id = Thread.currentThread().getId();
+            long bytesBefore = threads != null ? threads.getThreadAllocatedBytes(id) : -1;
+            for (int i = 0; i < count; i++) {
+                if (intervalNs > 0) {
+                    long due = start + i * intervalNs;
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                int index = i % INDEX_RANGE;
+                long t0 = System.nanoTime();
+                offeredAt[index] = t0;
+                while (!queue.offer(index)) {
+                    Thread.yield();  // Bounded queue full (burst only)
+                }
+                if (offerNs != null) offerNs.record(System.nanoTime() - t0);
+            }
+            if (bytesBefore >= 0) run.producerBytes = threads.getThreadAllocatedBytes(id) - bytesBefore;
+        }, "Bench-Callback");
+        producer.start();
+
+        int received = 0;
+        while (received < count) {
+            int index = queue.poll();
+            if (index == IntRingQueue.EMPTY) {
+                Thread.yield();
+                continue;
+            }
+            if (handoffNs != null) handoffNs.record(System.nanoTime() - offeredAt[index]);
+            assertEquals("index out of order", received % INDEX_RANGE, index);
+            received++;
+        }
+        run.elapsedNs = System.nanoTime() - start;
+        producer.join();
+        return run;
+    }
+
+    private static IndexQueue ringQueue() {
+        IntRingQueue queue = new IntRingQueue(64);
+        return new IndexQueue() {
+            @Override public boolean offer(int value) { return queue.offer(value); }
+            @Override public int poll() { return queue.poll(); }
+        };
+    }
+
+    private static IndexQueue boxedQueue() {
+        ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>();
+        return new IndexQueue() {
+            @Override public boolean offer(int value) { return queue.offer(value); }
+            @Override public int poll() {
+                Integer value = queue.poll();
+                return value == null ? IntRingQueue.EMPTY : value;
+            }
+        };
+    }
+}
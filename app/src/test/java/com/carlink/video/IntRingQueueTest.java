@@ -0,0 +1,122 @@
+package com.carlink.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class IntRingQueueTest {
+
+    @Test
+    public void pollReturnsValuesInOrderAcrossWrapAround() {
+        IntRingQueue queue = new IntRingQueue(4);
+        int next = 0;
+        int expected = 0;
+        // 3 in, 2 out per round: head and tail cross the end of the array many times
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 3 && queue.size() < 4; i++) {
+                assertTrue(queue.offer(next++));
+            }
+            assertEquals(expected++, queue.poll());
+            assertEquals(expected++, queue.poll());
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(expected++, queue.poll());
+        }
+        assertEquals(next, expected);
+        assertEquals(IntRingQueue.EMPTY, queue.poll());
+    }
+
+    @Test
+    public void fullAndEmptyBoundaries() {
+        IntRingQueue queue = new IntRingQueue(4);
+        assertTrue(queue.isEmpty());
+        assertEquals(IntRingQueue.EMPTY, queue.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse("offer must fail when full", queue.offer(4));
+        assertEquals(4, queue.size());
+        assertFalse(queue.isEmpty());
+
+        assertEquals(0, queue.poll());
+        assertTrue("one slot freed", queue.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+        assertEquals(IntRingQueue.EMPTY, queue.poll());
+    }
+
+    @Test
+    public void clearDiscardsEverythingQueuedBefore() {
+        IntRingQueue queue = new IntRingQueue(8);
+        queue.offer(1);
+        queue.offer(2);
+        queue.poll();
+        queue.offer(3);
+
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+        assertEquals(IntRingQueue.EMPTY, queue.poll());
+
+        // New generation works normally and still has its full capacity
+        for (int i = 10; i < 18; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(18));
+        for (int i = 10; i < 18; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void invalidCapacityIsRejected() {
+        for (int capacity : new int[] {0, -4, 3, 12}) {
+            try {
+                new IntRingQueue(capacity);
+                throw new AssertionError("capacity " + capacity + " accepted");
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        }
+    }
+
+    /**
+     * H264Renderer.hasInputIndex() relies on isEmpty(): a clear() racing with a producer that is
+     * mid-offer can leave a stale entry behind (size() counts it), but isEmpty() must never
+     * report an entry that poll() then refuses to return.
+     */
+    @Test
+    public void isEmptyNeverReportsStaleEntriesWhileProducerRuns() throws InterruptedException {
+        IntRingQueue queue = new IntRingQueue(8);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Thread producer = new Thread(() -> {
+            int value = 0;
+            while (!stop.get()) {
+                if (queue.offer(value)) value = (value + 1) & 0xFFFF;
+            }
+        }, "IntRingQueueTest-Producer");
+        producer.start();
+        try {
+            for (int i = 0; i < 200_000; i++) {
+                if ((i & 7) == 0) queue.clear();
+                if (!queue.isEmpty()) {
+                    assertNotEquals("isEmpty() false but poll() empty at iteration " + i,
+                            IntRingQueue.EMPTY, queue.poll());
+                }
+            }
+        } finally {
+            stop.set(true);
+            producer.join();
+        }
+    }
+}
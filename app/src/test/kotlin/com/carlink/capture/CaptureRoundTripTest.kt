@@ -0,0 +1,180 @@
+package com.carlink.capture
+
+import com.carlink.protocol.AUDIO_SUBHEADER_SIZE
+import com.carlink.protocol.AudioCommand
+import com.carlink.protocol.AudioDataView
+import com.carlink.protocol.CommandMapping
+import com.carlink.protocol.CommandMessage
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.Message
+import com.carlink.protocol.MessageType
+import com.carlink.protocol.PROTOCOL_MAGIC
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.random.Random
+
+/**
+ * [CaptureRecorder] → .bin/.json → [CaptureReplaySource] → [CaptureReplayer] round trip.
+ *
+ * Synthetic transfers shaped like the adapter's go through the recorder tap, including a
+ * header split across two transfers and a payload transfer too large for the ring (dropped,
+ * so the next transfer is flagged as a gap). The capture is then opened and replayed with
+ * [ReplayTiming.MaxThroughput] into a sink that keeps copies of what it was given: packet
+ * kinds, payload bytes and order must match what was sent, minus the frame cut by the gap.
+ */
+class CaptureRoundTripTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val random = Random(7)
+
+    /** What the recording sink saw, one entry per call */
+    private sealed class Delivered {
+        data class Video(
+            val bytes: List<Byte>,
+        ) : Delivered()
+
+        data class Audio(
+            val kind: AudioDataView.Kind,
+            val decodeType: Int,
+            val audioType: Int,
+            val command: AudioCommand,
+            val pcm: List<Byte>,
+        ) : Delivered()
+
+        data class Other(
+            val type: MessageType,
+            val command: CommandMapping?,
+        ) : Delivered()
+    }
+
+    private class RecordingSink : CaptureReplaySink {
+        val delivered = ArrayList<Delivered>()
+
+        override fun onVideo(
+            data: ByteArray,
+            offset: Int,
+            length: Int,
+        ) {
+            delivered.add(Delivered.Video(data.copyOfRange(offset, offset + length).toList()))
+        }
+
+        override fun onAudio(view: AudioDataView) {
+            val pcm = view.data?.copyOfRange(view.dataOffset, view.dataOffset + view.dataLength)?.toList() ?: emptyList()
+            delivered.add(Delivered.Audio(view.kind, view.decodeType, view.audioType, view.command, pcm))
+        }
+
+        override fun onMessage(message: Message) {
+            delivered.add(Delivered.Other(message.header.type, (message as? CommandMessage)?.command))
+        }
+    }
+
+    @Test
+    fun recordedTransfersReplayInOrder() {
+        val directory = folder.newFolder("captures")
+        val recorder = CaptureRecorder(CaptureConfig(directory, ringBytes = RING_BYTES, overheadBudget = 1.0)) {}
+        recorder.start()
+
+        // 1. VIDEO_DATA: header transfer, then payload (20-byte video header + H.264)
+        val h264 = random.nextBytes(300)
+        val videoPayload = ByteArray(VIDEO_HEADER_SIZE) + h264
+        recorder.tap(header(MessageType.VIDEO_DATA, videoPayload.size))
+        recorder.tap(videoPayload)
+
+        // 2. AUDIO_DATA PCM with its header split across two transfers
+        val pcm = random.nextBytes(256)
+        val audioHeader = header(MessageType.AUDIO_DATA, AUDIO_SUBHEADER_SIZE + pcm.size)
+        recorder.tap(audioHeader.copyOfRange(0, 7))
+        recorder.tap(audioHeader.copyOfRange(7, HEADER_SIZE))
+        recorder.tap(audioSubheader(decodeType = 5, audioType = 1) + pcm)
+
+        // 3. Forced gap: this payload cannot fit the ring, so its frame is never completed
+        recorder.tap(header(MessageType.VIDEO_DATA, RING_BYTES + 1000))
+        recorder.tap(random.nextBytes(RING_BYTES + 1000))
+
+        // 4. COMMAND, header and payload in one transfer (first transfer after the gap)
+        recorder.tap(header(MessageType.COMMAND, 4) + intLE(CommandMapping.FRAME.id))
+
+        // 5. AUDIO_DATA command, 6. zero-length HEARTBEAT
+        val naviStart = byteArrayOf(AudioCommand.AUDIO_NAVI_START.id.toByte())
+        recorder.tap(header(MessageType.AUDIO_DATA, AUDIO_SUBHEADER_SIZE + 1) + audioSubheader(2, 2) + naviStart)
+        recorder.tap(header(MessageType.HEARTBEAT, 0))
+
+        recorder.close()
+        val stats = recorder.getStats()
+        assertEquals(1L, stats["droppedTransfers"])
+        assertEquals(1, stats["gaps"])
+        assertEquals(0L, stats["invalidHeaderBytes"])
+
+        val bin = directory.listFiles { file -> file.name.endsWith(".bin") }!!.single()
+        CaptureReplaySource.open(bin).use { source ->
+            val expectedTypes =
+                listOf(MessageType.VIDEO_DATA, MessageType.AUDIO_DATA, MessageType.COMMAND, MessageType.AUDIO_DATA, MessageType.HEARTBEAT)
+            assertEquals(expectedTypes.map { it.id }, (0 until source.size).map { source.type(it) })
+            assertEquals(
+                listOf(videoPayload.size, AUDIO_SUBHEADER_SIZE + pcm.size, 4, AUDIO_SUBHEADER_SIZE + 1, 0).map { it + HEADER_SIZE },
+                (0 until source.size).map { source.length(it) },
+            )
+            val timestamps = (0 until source.size).map { source.timestampUs(it) }
+            assertEquals(timestamps.sorted(), timestamps)
+
+            val sink = RecordingSink()
+            val replay = CaptureReplayer(source, sink, ReplayTiming.MaxThroughput).run()
+            assertEquals(5, replay["packets"])
+
+            assertEquals(
+                listOf(
+                    Delivered.Video(h264.toList()),
+                    Delivered.Audio(AudioDataView.Kind.PCM, 5, 1, AudioCommand.UNKNOWN, pcm.toList()),
+                    Delivered.Other(MessageType.COMMAND, CommandMapping.FRAME),
+                    Delivered.Audio(AudioDataView.Kind.COMMAND, 2, 2, AudioCommand.AUDIO_NAVI_START, emptyList()),
+                    Delivered.Other(MessageType.HEARTBEAT, null),
+                ),
+                sink.delivered,
+            )
+        }
+
+        // The .bin is the stream as received, minus the dropped transfer
+        val expectedBin = header(MessageType.VIDEO_DATA, videoPayload.size) + videoPayload + audioHeader
+        assertArrayEquals(expectedBin, bin.readBytes().copyOfRange(0, expectedBin.size))
+    }
+
+    private fun CaptureRecorder.tap(transfer: ByteArray) = onReceived(transfer, 0, transfer.size)
+
+    private fun header(
+        type: MessageType,
+        length: Int,
+    ): ByteArray =
+        ByteBuffer
+            .allocate(HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(PROTOCOL_MAGIC)
+            .putInt(length)
+            .putInt(type.id)
+            .putInt(type.id.inv())
+            .array()
+
+    private fun audioSubheader(
+        decodeType: Int,
+        audioType: Int,
+    ): ByteArray =
+        ByteBuffer
+            .allocate(AUDIO_SUBHEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(decodeType)
+            .putFloat(1.0f)
+            .putInt(audioType)
+            .array()
+
+    private fun intLE(value: Int): ByteArray = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array()
+
+    private companion object {
+        const val RING_BYTES = 64 * 1024
+        const val VIDEO_HEADER_SIZE = 20
+    }
+}
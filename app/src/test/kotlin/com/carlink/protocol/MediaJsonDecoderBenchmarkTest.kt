@@ -0,0 +1,124 @@
+package com.carlink.protocol
+
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.charset.StandardCharsets
+import java.util.Locale
+
+/**
+ * Timed comparison of [MediaJsonDecoder] with the org.json path it replaced.
+ *
+ * Both paths decode the same NaviJSON and MEDIA_DATA payloads (partial guidance updates,
+ * now-playing updates, each followed by the trailing NUL). The org.json path reproduces what
+ * parseMediaData used to do: String copy, JSONObject, Map<String, Any>, then typed reads with
+ * casts like the consumers did. Time and allocated bytes per decode are printed for both; the
+ * test asserts only that the two agree on every key and that the streaming path allocates less.
+ */
+class MediaJsonDecoderBenchmarkTest {
+    private val samples =
+        listOf(
+            """{"NaviStatus":1,"NaviRemainDistance":350}""",
+            """{"NaviRemainDistance":120,"NaviTimeToDestination":842,"NaviDistanceToDestination":10250}""",
+            """{"NaviManeuverType":11,"NaviOrderType":1,"NaviTurnAngle":90,"NaviTurnSide":0,"NaviJunctionType":0,""" +
+                """"NaviRoadName":"Main Street","NaviRemainDistance":480}""",
+            """{"NaviStatus":1,"NaviAPPName":"Apple Maps","NaviDestinationName":"Café \"Le Nord\"","NaviRoadName":"Rue de l’Église"}""",
+            """{"NaviStatus":0}""",
+            """{"MediaSongName":"Song Title","MediaArtistName":"Artist","MediaAlbumName":"Album","MediaAPPName":"Music",""" +
+                """"MediaSongDuration":215000,"MediaSongPlayTime":1520,"MediaLyrics":"","MediaPlayStatus":1}""",
+            """{ "MediaSongPlayTime" : 2520 , "MediaSongName" : "東京\/Tokyo" }""",
+        ).map { (it + "\u0000").toByteArray(StandardCharsets.UTF_8) }
+
+    private val fields = MediaJsonFields()
+    private var sink = 0L // Keeps the JIT from discarding the work
+
+    private class Run(
+        val nsPerDecode: Long,
+        val bytesPerDecode: Long,
+    )
+
+    @Test
+    fun streamingDecoderMatchesOrgJsonAndAllocatesLess() {
+        for (sample in samples) {
+            assertTrue(MediaJsonDecoder.decode(sample, 0, sample.size, fields))
+            val reference = decodeOrgJson(sample)
+            for (key in MediaJsonKey.entries) {
+                val actual: Any? = if (key.isString) fields.string(key) else if (fields.has(key)) fields.intOr(key, 0) else null
+                assertEquals("${key.jsonName} in ${String(sample, StandardCharsets.UTF_8)}", reference[key.jsonName], actual)
+            }
+        }
+
+        val streamingPass = {
+            for (sample in samples) {
+                MediaJsonDecoder.decode(sample, 0, sample.size, fields)
+                sink += fields.intOr(MediaJsonKey.NAVI_REMAIN_DISTANCE, 0)
+            }
+        }
+        val orgJsonPass = {
+            for (sample in samples) {
+                sink += (decodeOrgJson(sample)["NaviRemainDistance"] as? Int) ?: 0
+            }
+        }
+
+        // Warm-up (JIT), then measure
+        measure(streamingPass)
+        measure(orgJsonPass)
+        val streaming = measure(streamingPass)
+        val orgJson = measure(orgJsonPass)
+
+        println(
+            String.format(
+                Locale.US,
+                "MediaJsonDecoder: %d ns, %d B per decode | org.json: %d ns, %d B per decode | %.1fx faster (%d payloads, sink %d)",
+                streaming.nsPerDecode,
+                streaming.bytesPerDecode,
+                orgJson.nsPerDecode,
+                orgJson.bytesPerDecode,
+                orgJson.nsPerDecode.toDouble() / maxOf(1L, streaming.nsPerDecode),
+                ITERATIONS.toLong() * samples.size,
+                sink,
+            ),
+        )
+        if (streaming.bytesPerDecode >= 0 && orgJson.bytesPerDecode >= 0) {
+            assertTrue("streaming path allocates more than org.json", streaming.bytesPerDecode < orgJson.bytesPerDecode)
+        }
+    }
+
+    /**
+     * Old parseMediaData path plus the consumers' casts, reduced to typed values.
+     */
+    private fun decodeOrgJson(sample: ByteArray): Map<String, Any> {
+        val json = JSONObject(String(sample, 0, sample.size - 1, StandardCharsets.UTF_8).trim('\u0000'))
+        val payload = json.keys().asSequence().associateWith { json.get(it) }
+        val typed = HashMap<String, Any>()
+        for (key in MediaJsonKey.entries) {
+            val value = payload[key.jsonName] ?: continue
+            if (key.isString) {
+                (value as? String)?.let { typed[key.jsonName] = it }
+            } else {
+                (value as? Number)?.let { typed[key.jsonName] = it.toInt() }
+            }
+        }
+        return typed
+    }
+
+    /** [ITERATIONS] passes of [pass]; bytes are -1 where the JVM cannot count thread allocations. */
+    private fun measure(pass: () -> Unit): Run {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+        val bytesBefore = threads?.getThreadAllocatedBytes(threadId) ?: -1L
+        val start = System.nanoTime()
+        repeat(ITERATIONS) { pass() }
+        val elapsedNs = System.nanoTime() - start
+        val bytes = if (bytesBefore >= 0) threads!!.getThreadAllocatedBytes(threadId) - bytesBefore else -1L
+
+        val decodes = ITERATIONS.toLong() * samples.size
+        return Run(elapsedNs / decodes, if (bytes >= 0) bytes / decodes else -1L)
+    }
+
+    private companion object {
+        const val ITERATIONS = 20000
+    }
+}
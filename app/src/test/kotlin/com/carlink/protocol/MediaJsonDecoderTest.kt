@@ -0,0 +1,146 @@
+package com.carlink.protocol
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.charset.StandardCharsets
+
+/**
+ * [MediaJsonDecoder] over payloads shaped like the adapter's: partial NaviJSON updates during
+ * guidance and MEDIA_DATA now-playing updates, each followed by the trailing NUL.
+ */
+class MediaJsonDecoderTest {
+    private val fields = MediaJsonFields()
+
+    private fun decode(json: String): Boolean {
+        val bytes = (json + "\u0000").toByteArray(StandardCharsets.UTF_8)
+        return MediaJsonDecoder.decode(bytes, 0, bytes.size, fields)
+    }
+
+    @Test
+    fun partialNaviUpdateSetsOnlyItsKeys() {
+        assertTrue(decode("""{"NaviRemainDistance":120,"NaviTimeToDestination":842,"NaviDistanceToDestination":10250}"""))
+
+        assertEquals(120, fields.intOr(MediaJsonKey.NAVI_REMAIN_DISTANCE, -1))
+        assertEquals(842, fields.intOr(MediaJsonKey.NAVI_TIME_TO_DESTINATION, -1))
+        assertEquals(10250, fields.intOr(MediaJsonKey.NAVI_DISTANCE_TO_DESTINATION, -1))
+        assertFalse(fields.has(MediaJsonKey.NAVI_STATUS))
+        assertEquals(-1, fields.intOr(MediaJsonKey.NAVI_STATUS, -1))
+        assertNull(fields.string(MediaJsonKey.NAVI_ROAD_NAME))
+        assertEquals(0, fields.unknownKeys)
+    }
+
+    @Test
+    fun maneuverUpdateDecodesEveryNaviKey() {
+        assertTrue(
+            decode(
+                """{"NaviStatus":1,"NaviManeuverType":11,"NaviOrderType":1,"NaviTurnAngle":-90,"NaviTurnSide":0,""" +
+                    """"NaviJunctionType":0,"NaviRoadName":"Main Street","NaviRemainDistance":480,""" +
+                    """"NaviAPPName":"Apple Maps","NaviDestinationName":"Home"}""",
+            ),
+        )
+
+        assertEquals(1, fields.intOr(MediaJsonKey.NAVI_STATUS, -1))
+        assertEquals(11, fields.intOr(MediaJsonKey.NAVI_MANEUVER_TYPE, -1))
+        assertEquals(1, fields.intOr(MediaJsonKey.NAVI_ORDER_TYPE, -1))
+        assertEquals(-90, fields.intOr(MediaJsonKey.NAVI_TURN_ANGLE, 0))
+        assertEquals(0, fields.intOr(MediaJsonKey.NAVI_TURN_SIDE, -1))
+        assertEquals(0, fields.intOr(MediaJsonKey.NAVI_JUNCTION_TYPE, -1))
+        assertEquals(480, fields.intOr(MediaJsonKey.NAVI_REMAIN_DISTANCE, -1))
+        assertEquals("Main Street", fields.string(MediaJsonKey.NAVI_ROAD_NAME))
+        assertEquals("Apple Maps", fields.string(MediaJsonKey.NAVI_APP_NAME))
+        assertEquals("Home", fields.string(MediaJsonKey.NAVI_DESTINATION_NAME))
+    }
+
+    @Test
+    fun mediaDataSkipsUnknownKeys() {
+        assertTrue(
+            decode(
+                """{"MediaSongName":"Song Title","MediaArtistName":"Artist","MediaAlbumName":"Album","MediaAPPName":"Music",""" +
+                    """"MediaSongDuration":215000,"MediaSongPlayTime":1520,"MediaLyrics":"","MediaPlayStatus":1}""",
+            ),
+        )
+
+        assertEquals("Song Title", fields.string(MediaJsonKey.MEDIA_SONG_NAME))
+        assertEquals("Artist", fields.string(MediaJsonKey.MEDIA_ARTIST_NAME))
+        assertEquals("Album", fields.string(MediaJsonKey.MEDIA_ALBUM_NAME))
+        assertEquals("Music", fields.string(MediaJsonKey.MEDIA_APP_NAME))
+        assertEquals(4, fields.unknownKeys)
+        assertFalse(fields.has(MediaJsonKey.NAVI_STATUS))
+    }
+
+    @Test
+    fun escapesAndUnicodeAreDecoded() {
+        assertTrue(
+            decode(
+                """{"NaviDestinationName":"Café \"Le Nord\"","NaviRoadName":"Rue de l’Église\n",""" +
+                    """"MediaSongName":"東京\/Tokyo","MediaArtistName":"Édith\tPiaf","MediaAlbumName":"a\\b",""" +
+                    """"NaviAPPName":"\u00c9cole \u6771\u4EAC"}""",
+            ),
+        )
+
+        assertEquals("Café \"Le Nord\"", fields.string(MediaJsonKey.NAVI_DESTINATION_NAME))
+        assertEquals("Rue de l’Église\n", fields.string(MediaJsonKey.NAVI_ROAD_NAME))
+        assertEquals("東京/Tokyo", fields.string(MediaJsonKey.MEDIA_SONG_NAME))
+        assertEquals("Édith\tPiaf", fields.string(MediaJsonKey.MEDIA_ARTIST_NAME))
+        assertEquals("a\\b", fields.string(MediaJsonKey.MEDIA_ALBUM_NAME))
+        assertEquals("École 東京", fields.string(MediaJsonKey.NAVI_APP_NAME))
+    }
+
+    @Test
+    fun nestedValuesAreSkippedStructurally() {
+        assertTrue(
+            decode(
+                """{"Extra":{"NaviStatus":9,"list":[1,{"x":"}"}],"s":"]"},"NaviStatus":1,""" +
+                    """"Lanes":[[0,1],[2]],"Flag":true,"Nothing":null,"MediaSongName":"After"}""",
+            ),
+        )
+
+        assertEquals(1, fields.intOr(MediaJsonKey.NAVI_STATUS, -1))
+        assertEquals("After", fields.string(MediaJsonKey.MEDIA_SONG_NAME))
+        assertEquals(4, fields.unknownKeys)
+    }
+
+    @Test
+    fun mismatchedValueTypesAreTreatedAsAbsent() {
+        assertTrue(decode("""{"NaviStatus":"1","NaviRoadName":42,"NaviRemainDistance":12.9,"NaviTurnAngle":1e2}"""))
+
+        assertFalse(fields.has(MediaJsonKey.NAVI_STATUS))
+        assertNull(fields.string(MediaJsonKey.NAVI_ROAD_NAME))
+        assertEquals(12, fields.intOr(MediaJsonKey.NAVI_REMAIN_DISTANCE, -1))
+        assertEquals(100, fields.intOr(MediaJsonKey.NAVI_TURN_ANGLE, -1))
+    }
+
+    @Test
+    fun whitespaceAndEmptyObjectAreAccepted() {
+        assertTrue(decode(""" { "MediaSongPlayTime" : 2520 , "NaviStatus" : 0 } """))
+        assertEquals(0, fields.intOr(MediaJsonKey.NAVI_STATUS, -1))
+        assertEquals(1, fields.unknownKeys)
+
+        assertTrue(decode("{}"))
+        assertTrue(fields.isEmpty)
+        assertEquals(0, fields.unknownKeys)
+    }
+
+    @Test
+    fun malformedPayloadLeavesFieldsEmpty() {
+        assertTrue(decode("""{"NaviStatus":1}"""))
+
+        assertFalse(decode("""{"NaviStatus":1,"NaviRoadName":"unterminated}"""))
+        assertTrue(fields.isEmpty)
+        assertFalse(decode("""["NaviStatus",1]"""))
+        assertFalse(decode("""{"NaviStatus" 1}"""))
+        assertFalse(decode(""))
+    }
+
+    @Test
+    fun decodesAtAnOffsetWithinALargerBuffer() {
+        val json = """{"NaviRemainDistance":350}"""
+        val bytes = ("xxxx" + json + "yyyy").toByteArray(StandardCharsets.UTF_8)
+
+        assertTrue(MediaJsonDecoder.decode(bytes, 4, json.length, fields))
+        assertEquals(350, fields.intOr(MediaJsonKey.NAVI_REMAIN_DISTANCE, -1))
+    }
+}
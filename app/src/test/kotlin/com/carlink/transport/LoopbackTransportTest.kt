@@ -0,0 +1,198 @@
+package com.carlink.transport
+
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.MessageType
+import com.carlink.usb.WritePriority
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Round trips through [LoopbackTransport] on a plain JVM: the shared demuxer on the read side
+ * and the USB-Writer scheduler on the write side must both work without an Android runtime.
+ */
+class LoopbackTransportTest {
+    private class Received(
+        val type: Int,
+        val payload: ByteArray?,
+    )
+
+    private val received = LinkedBlockingQueue<Received>()
+    private val errors = LinkedBlockingQueue<String>()
+    private lateinit var transport: LoopbackTransport
+
+    private val callback =
+        object : Transport.ReadingLoopCallback {
+            override fun onMessage(
+                type: Int,
+                data: ByteArray?,
+                dataLength: Int,
+            ) {
+                received.put(Received(type, data?.copyOf(dataLength)))
+            }
+
+            override fun onMessage(
+                type: Int,
+                data: ByteArray?,
+                dataOffset: Int,
+                dataLength: Int,
+            ) {
+                received.put(Received(type, data?.copyOfRange(dataOffset, dataOffset + dataLength)))
+            }
+
+            override fun onError(error: String) {
+                errors.put(error)
+            }
+        }
+
+    @Before
+    fun setUp() {
+        transport = LoopbackTransport(logCallback = {})
+        assertTrue(transport.open())
+        transport.startReadingLoop(callback, timeout = 100)
+    }
+
+    @After
+    fun tearDown() {
+        transport.close()
+    }
+
+    @Test
+    fun adapterMessagesReachTheReadLoopInOrder() {
+        val payload = byteArrayOf(1, 2, 3, 4, 5)
+        transport.adapterSend(MessageType.COMMAND, payload)
+        transport.adapterSend(MessageType.HEARTBEAT)
+
+        val first = received.poll(2, TimeUnit.SECONDS)
+        assertNotNull("command not delivered", first)
+        assertEquals(MessageType.COMMAND.id, first!!.type)
+        assertArrayEquals(payload, first.payload)
+
+        val second = received.poll(2, TimeUnit.SECONDS)
+        assertNotNull("heartbeat not delivered", second)
+        assertEquals(MessageType.HEARTBEAT.id, second!!.type)
+        assertTrue(errors.isEmpty())
+    }
+
+    @Test
+    fun hostWritesReachTheAdapterThroughTheWriterThread() {
+        val frame = LoopbackTransport.encodeHeader(MessageType.HEARTBEAT.id, 0)
+        val touch = LoopbackTransport.encodeHeader(MessageType.COMMAND.id, 4) + byteArrayOf(9, 8, 7, 6)
+
+        assertTrue(transport.submitWrite(frame, WritePriority.HEARTBEAT))
+        assertTrue(transport.submitWrite(touch, WritePriority.TOUCH))
+
+        val writes = listOfNotNull(transport.adapterReceive(2000), transport.adapterReceive(2000))
+        assertEquals("writer thread did not send both writes", 2, writes.size)
+        assertTrue(writes.any { it.contentEquals(frame) })
+        assertTrue(writes.any { it.contentEquals(touch) })
+        // Counted after the write returns, so it may trail adapterReceive briefly
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2)
+        while (transport.getPerformanceStats()["bytesSent"] != HEADER_SIZE * 2 + 4L && System.nanoTime() < deadline) {
+            Thread.sleep(1)
+        }
+        assertEquals(HEADER_SIZE * 2 + 4L, transport.getPerformanceStats()["bytesSent"])
+    }
+
+    @Test
+    fun closeUnblocksAReadWaitingOnALongTimeout() {
+        val idle = LoopbackTransport(logCallback = {})
+        assertTrue(idle.open())
+        idle.startReadingLoop(callback, timeout = 10_000)
+        Thread.sleep(50) // Let the read loop block in readBytes
+
+        // The channel goes away before the join, so close() does not wait out the join timeout
+        val start = System.nanoTime()
+        idle.close()
+        val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        assertTrue("close took ${elapsedMs}ms", elapsedMs < 500)
+        assertFalse(idle.isReadingLoopActive)
+        assertTrue(errors.isEmpty())
+    }
+
+    @Test
+    fun videoPayloadCutShortIsSkippedWithoutResync() {
+        val committed = LinkedBlockingQueue<Pair<ByteArray, Int>>()
+        val processor =
+            object : Transport.VideoDataProcessor {
+                private val slot = ByteArray(1024)
+
+                override fun processVideoDirect(
+                    data: ByteArray,
+                    dataLength: Int,
+                    sourcePtsMs: Int,
+                ) = throw AssertionError("lease path expected")
+
+                override val supportsFrameLease: Boolean get() = true
+
+                override fun borrowFrameBuffer(length: Int): ByteArray = slot
+
+                override fun commitFrame(
+                    length: Int,
+                    sourcePtsMs: Int,
+                ) {
+                    committed.put(slot.copyOf(length) to sourcePtsMs)
+                }
+            }
+        val leased = LoopbackTransport(logCallback = {})
+        assertTrue(leased.open())
+        leased.startReadingLoop(callback, timeout = 200, videoProcessor = processor)
+        try {
+            // Video header cut short: the read times out after 10 of its 20 bytes, the rest arrives later
+            val cut = ByteArray(VIDEO_HEADER_SIZE + 8)
+            leased.adapterWrite(LoopbackTransport.encodeHeader(MessageType.VIDEO_DATA.id, cut.size))
+            leased.adapterWrite(cut.copyOfRange(0, 10))
+            Thread.sleep(300)
+            leased.adapterWrite(cut.copyOfRange(10, cut.size))
+            leased.adapterSend(MessageType.HEARTBEAT)
+
+            val h264 = byteArrayOf(0, 0, 0, 1, 0x65, 7, 7, 7)
+            val videoHeader = ByteArray(VIDEO_HEADER_SIZE).also { it[12] = 42 } // pts at offset 12
+            leased.adapterSend(MessageType.VIDEO_DATA, videoHeader + h264)
+
+            // The rest of the cut payload was skipped, not parsed as a header
+            assertEquals(MessageType.VIDEO_DATA.id, received.poll(2, TimeUnit.SECONDS)?.type)
+            assertEquals(MessageType.HEARTBEAT.id, received.poll(2, TimeUnit.SECONDS)?.type)
+            assertEquals(MessageType.VIDEO_DATA.id, received.poll(2, TimeUnit.SECONDS)?.type)
+            val frame = committed.poll(2, TimeUnit.SECONDS)
+            assertNotNull("intact frame not committed", frame)
+            assertArrayEquals(h264, frame!!.first)
+            assertEquals(42, frame.second)
+            assertTrue("cut frame committed", committed.isEmpty())
+
+            @Suppress("UNCHECKED_CAST")
+            val framing = leased.getPerformanceStats()["framing"] as Map<String, Any>
+            assertEquals(0L, (framing["resyncs"] as Number).toLong())
+        } finally {
+            leased.close()
+        }
+    }
+
+    @Test
+    fun requestAndReplyRoundTrip() {
+        // Host asks, fake adapter answers what it received: both directions in one exchange
+        val request = LoopbackTransport.encodeHeader(MessageType.COMMAND.id, 2) + byteArrayOf(0x12, 0x34)
+        assertTrue(transport.submitWrite(request))
+
+        val atAdapter = transport.adapterReceive(2000)
+        assertNotNull("request not written", atAdapter)
+        transport.adapterSend(MessageType.COMMAND, atAdapter!!.copyOfRange(HEADER_SIZE, atAdapter.size))
+
+        val reply = received.poll(2, TimeUnit.SECONDS)
+        assertNotNull("reply not delivered", reply)
+        assertEquals(MessageType.COMMAND.id, reply!!.type)
+        assertArrayEquals(byteArrayOf(0x12, 0x34), reply.payload)
+    }
+
+    private companion object {
+        const val VIDEO_HEADER_SIZE = 20
+    }
+}
@@ -0,0 +1,186 @@
+package com.carlink.usb
+
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.MessageType
+import com.carlink.protocol.PROTOCOL_MAGIC
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.random.Random
+
+/**
+ * Corruption injection for [UsbStreamDemuxer] resync.
+ *
+ * A synthetic CPC200 stream shaped like the adapter's (each header its own transfer, payload
+ * in the next) is corrupted every [CORRUPT_EVERY] messages and read back through a demuxer
+ * over an in-memory reader. Every payload starts with its sequence number; a delivered message
+ * counts as intact only if its type and bytes match what was sent.
+ */
+class UsbStreamDemuxerResyncTest {
+    private enum class Corruption {
+        /** XOR one random header byte (bad magic, length or type check). */
+        FLIP_HEADER_BYTE,
+
+        /** 1-64 random bytes inserted before a header (stray transfer). */
+        INSERT_GARBAGE,
+
+        /** Payload transfer cut short — declared length swallows the next header. */
+        TRUNCATE_PAYLOAD,
+
+        /** Payload transfer lost entirely. */
+        DROP_TRANSFER,
+    }
+
+    private class Result(
+        val intactSeqs: List<Int>,
+        val stats: Map<String, Any>,
+    )
+
+    @Test
+    fun recoversFromFlippedHeaderByte() = assertRecovers(Corruption.FLIP_HEADER_BYTE)
+
+    @Test
+    fun recoversFromInsertedGarbage() = assertRecovers(Corruption.INSERT_GARBAGE)
+
+    @Test
+    fun recoversFromTruncatedPayload() = assertRecovers(Corruption.TRUNCATE_PAYLOAD)
+
+    @Test
+    fun recoversFromDroppedTransfer() = assertRecovers(Corruption.DROP_TRANSFER)
+
+    @Test
+    fun cleanStreamNeedsNoResync() {
+        val result = run(corruption = null)
+
+        assertEquals((0 until MESSAGE_COUNT).toList(), result.intactSeqs)
+        assertEquals(0L, (result.stats["resyncs"] as Number).toLong())
+    }
+
+    /**
+     * Delivery must resume after every corruption point, and once it has, every intact message
+     * up to the next corruption point must arrive in order: realignment may cost the messages
+     * the damaged header's length swallowed, never one after the first resumed message.
+     */
+    private fun assertRecovers(corruption: Corruption) {
+        val result = run(corruption)
+        val resyncs = (result.stats["resyncs"] as Number).toLong()
+        assertTrue("$corruption: no resync recorded", resyncs > 0)
+
+        val seqs = result.intactSeqs
+        assertEquals("$corruption: out of order or duplicated", seqs.distinct().sorted(), seqs)
+        assertTrue("$corruption: clean prefix lost", seqs.take(CORRUPT_EVERY) == (0 until CORRUPT_EVERY).toList())
+
+        for (start in CORRUPT_EVERY until MESSAGE_COUNT step CORRUPT_EVERY) {
+            val end = minOf(start + CORRUPT_EVERY, MESSAGE_COUNT)
+            val segment = seqs.filter { it in start until end }
+            assertTrue("$corruption: delivery did not resume after seq $start", segment.isNotEmpty())
+            assertEquals(
+                "$corruption: intact message lost after recovery at seq $start",
+                (segment.first() until end).toList(),
+                segment,
+            )
+        }
+    }
+
+    private fun run(corruption: Corruption?): Result {
+        val random = Random(SEED)
+        val transfers = ArrayList<ByteArray>(MESSAGE_COUNT * 2)
+        val sent = ArrayList<ByteArray>(MESSAGE_COUNT)
+
+        for (seq in 0 until MESSAGE_COUNT) {
+            val length = PAYLOAD_SIZES[random.nextInt(PAYLOAD_SIZES.size)]
+            val header = encodeHeader(length, MessageType.AUDIO_DATA.id)
+            val payload = random.nextBytes(length)
+            ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).putInt(0, seq)
+            sent.add(payload)
+
+            var payloadTransfer: ByteArray? = payload
+            if (corruption != null && seq > 0 && seq % CORRUPT_EVERY == 0) {
+                when (corruption) {
+                    Corruption.FLIP_HEADER_BYTE -> {
+                        val i = random.nextInt(HEADER_SIZE)
+                        header[i] = (header[i].toInt() xor (1 + random.nextInt(255))).toByte()
+                    }
+                    Corruption.INSERT_GARBAGE -> transfers.add(random.nextBytes(1 + random.nextInt(64)))
+                    Corruption.TRUNCATE_PAYLOAD -> payloadTransfer = payload.copyOf(maxOf(1, length / 2))
+                    Corruption.DROP_TRANSFER -> payloadTransfer = null
+                }
+            }
+            transfers.add(header)
+            payloadTransfer?.let { transfers.add(it) }
+        }
+
+        var transferIndex = 0
+        var transferPos = 0
+        val reader = { dst: ByteArray, off: Int, len: Int, _: Int ->
+            if (transferIndex >= transfers.size) {
+                -2 // end of stream
+            } else {
+                val current = transfers[transferIndex]
+                val count = minOf(len, current.size - transferPos)
+                System.arraycopy(current, transferPos, dst, off, count)
+                transferPos += count
+                if (transferPos == current.size) {
+                    transferIndex++
+                    transferPos = 0
+                }
+                count
+            }
+        }
+
+        val demux = UsbStreamDemuxer(reader, maxPayload = 2 * 1024 * 1024)
+        val isActive = { true }
+        val intact = ArrayList<Int>(MESSAGE_COUNT)
+        val scratch = ByteArray(64 * 1024)
+
+        while (true) {
+            val header = demux.readHeader(0, isActive) ?: break
+            val length = header.length
+            val offset: Int
+            val data: ByteArray
+            if (length <= demux.maxBufferedPayload) {
+                offset = demux.bufferPayload(length, 0, isActive)
+                if (offset < 0) break
+                data = demux.buffer
+            } else {
+                val target = if (length <= scratch.size) scratch else ByteArray(length)
+                if (demux.readPayloadInto(target, 0, length, 0, isActive) < length) break
+                offset = 0
+                data = target
+            }
+            if (header.type == MessageType.AUDIO_DATA && length >= 4) {
+                val seq = ByteBuffer.wrap(data, offset, 4).order(ByteOrder.LITTLE_ENDIAN).int
+                val expected = sent.getOrNull(seq)
+                if (expected != null && expected.size == length &&
+                    expected.contentEquals(data.copyOfRange(offset, offset + length))
+                ) {
+                    intact.add(seq)
+                }
+            }
+            if (data === demux.buffer) demux.consume(length)
+        }
+        return Result(intact, demux.getStats())
+    }
+
+    private fun encodeHeader(
+        length: Int,
+        type: Int,
+    ): ByteArray =
+        ByteBuffer
+            .allocate(HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(PROTOCOL_MAGIC)
+            .putInt(length)
+            .putInt(type)
+            .putInt(type.inv())
+            .array()
+
+    private companion object {
+        const val SEED = 1
+        const val MESSAGE_COUNT = 2000
+        const val CORRUPT_EVERY = 100
+        val PAYLOAD_SIZES = intArrayOf(4, 13, 1024, 11532)
+    }
+}
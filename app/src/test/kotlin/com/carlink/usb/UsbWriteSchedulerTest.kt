@@ -0,0 +1,128 @@
+package com.carlink.usb
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Completion contract of [UsbWriteScheduler.submit]: every queued write reports exactly once,
+ * whether it was transferred, superseded by a newer write or discarded on stop.
+ */
+class UsbWriteSchedulerTest {
+    private val gate = CountDownLatch(1)
+    private val transferring = CountDownLatch(1)
+    private val transferred = LinkedBlockingQueue<Int>()
+
+    // First transfer blocks on the gate, so later submissions stay queued
+    private val scheduler =
+        UsbWriteScheduler(
+            transfer = { data, length, _ ->
+                transferring.countDown()
+                gate.await(5, TimeUnit.SECONDS)
+                transferred.put(data[0].toInt())
+                length
+            },
+            logCallback = {},
+        )
+
+    @After
+    fun tearDown() {
+        gate.countDown()
+        scheduler.stop()
+    }
+
+    @Test
+    fun transferredWriteCompletesWithSuccess() {
+        scheduler.start()
+        val result = LinkedBlockingQueue<Boolean>()
+        gate.countDown()
+
+        assertTrue(scheduler.submit(byteArrayOf(1, 2, 3), WritePriority.CONFIG, 100) { result.put(it) })
+
+        assertEquals(true, result.poll(2, TimeUnit.SECONDS))
+        assertEquals(1, transferred.poll(2, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun supersededMicWriteCompletesWithFailure() {
+        scheduler.start()
+        assertTrue(scheduler.submit(byteArrayOf(0), WritePriority.CONFIG, 100))
+        assertTrue(transferring.await(2, TimeUnit.SECONDS))
+
+        val results = Array(WritePriority.MIC.capacity + 1) { LinkedBlockingQueue<Boolean>() }
+        for (i in results.indices) {
+            assertTrue(scheduler.submit(byteArrayOf(i.toByte()), WritePriority.MIC, 100) { results[i].put(it) })
+        }
+
+        // Queue full: the oldest MIC write was dropped for the newest and reported at once
+        assertEquals(false, results[0].poll(2, TimeUnit.SECONDS))
+        gate.countDown()
+        for (i in 1 until results.size) {
+            assertEquals("MIC write $i", true, results[i].poll(2, TimeUnit.SECONDS))
+        }
+    }
+
+    @Test
+    fun queuedWritesAreReportedWhenDiscardedOnStop() {
+        scheduler.start()
+        assertTrue(scheduler.submit(byteArrayOf(0), WritePriority.CONFIG, 100))
+        assertTrue(transferring.await(2, TimeUnit.SECONDS))
+
+        val results = LinkedBlockingQueue<Boolean>()
+        repeat(3) { assertTrue(scheduler.submit(byteArrayOf(1), WritePriority.CONFIG, 100) { ok -> results.put(ok) }) }
+
+        val stopper = Thread { scheduler.stop() }.apply { start() }
+        while (scheduler.isRunning) Thread.sleep(1)
+        gate.countDown()
+        stopper.join(3000)
+
+        // The writer exits after the in-flight transfer; the rest were never sent
+        repeat(3) { assertEquals(false, results.poll(2, TimeUnit.SECONDS)) }
+        assertTrue(results.isEmpty())
+    }
+
+    @Test
+    fun interruptedWriterFailsQueuedWritesAndStopsAccepting() {
+        val batching = UsbWriteScheduler(transfer = { _, length, _ -> length }, logCallback = {})
+        batching.coalescing = WriteCoalescing(latencyBudgetUs = 5_000_000)
+        batching.start()
+        val writer = awaitThread("USB-Writer")
+        val results = LinkedBlockingQueue<Boolean>()
+        assertTrue(batching.submit(byteArrayOf(1), WritePriority.CONFIG, 100) { results.put(it) })
+
+        // Interrupt while the write waits in the batch window: it is failed, not lost
+        while (writer.state != Thread.State.TIMED_WAITING) Thread.sleep(1)
+        writer.interrupt()
+
+        assertEquals(false, results.poll(2, TimeUnit.SECONDS))
+        writer.join(2000)
+        assertFalse(writer.isAlive)
+        assertFalse(batching.isRunning)
+        assertFalse(batching.submit(byteArrayOf(2), WritePriority.CONFIG, 100))
+        @Suppress("UNCHECKED_CAST")
+        val config = batching.getStats()["CONFIG"] as Map<String, Any>
+        assertEquals(1L, config["failed"])
+        assertEquals(0L, config["written"])
+    }
+
+    private fun awaitThread(name: String): Thread {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2)
+        while (System.nanoTime() < deadline) {
+            Thread.getAllStackTraces().keys.firstOrNull { it.name == name && it.isAlive }?.let { return it }
+            Thread.sleep(1)
+        }
+        throw AssertionError("$name thread not started")
+    }
+
+    @Test
+    fun rejectedWriteIsNotReported() {
+        var called = false
+        assertFalse(scheduler.submit(byteArrayOf(1), WritePriority.CONFIG, 100) { called = true })
+        assertFalse(called)
+    }
+}
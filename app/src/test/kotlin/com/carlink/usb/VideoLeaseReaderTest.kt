@@ -0,0 +1,147 @@
+package com.carlink.usb
+
+import com.carlink.protocol.HEADER_SIZE
+import com.carlink.protocol.MessageType
+import com.carlink.protocol.PROTOCOL_MAGIC
+import com.carlink.transport.Transport.VideoDataProcessor
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.ArrayDeque
+import kotlin.random.Random
+
+/**
+ * [VideoLeaseReader] over a scripted demuxer: whatever happens to a VIDEO_DATA payload
+ * (header cut short by a timeout, H.264 read cut short, frame refused), the payload is
+ * consumed to its end, so the next header is read in place without a resync.
+ */
+class VideoLeaseReaderTest {
+    private val random = Random(4)
+    private val transfers = ArrayDeque<ByteArray>()
+    private val committed = ArrayList<Pair<ByteArray, Int>>()
+    private var aborted = 0
+    private var refuse = false
+
+    private val processor =
+        object : VideoDataProcessor {
+            private var slot = ByteArray(0)
+
+            override fun processVideoDirect(
+                data: ByteArray,
+                dataLength: Int,
+                sourcePtsMs: Int,
+            ) = throw AssertionError("lease path expected")
+
+            override val supportsFrameLease get() = true
+
+            override fun borrowFrameBuffer(length: Int): ByteArray? = if (refuse) null else ByteArray(length).also { slot = it }
+
+            override fun commitFrame(
+                length: Int,
+                sourcePtsMs: Int,
+            ) {
+                committed.add(slot.copyOf(length) to sourcePtsMs)
+            }
+
+            override fun abortFrame() {
+                aborted++
+            }
+        }
+
+    // Each read returns the next scripted transfer; an empty one stands for a timeout
+    private val demux =
+        UsbStreamDemuxer(reader = { buffer, offset, length, _ ->
+            val transfer = transfers.poll() ?: ByteArray(0)
+            if (transfer.isEmpty()) {
+                -1
+            } else {
+                require(transfer.size <= length) { "scripted transfer larger than the read" }
+                System.arraycopy(transfer, 0, buffer, offset, transfer.size)
+                transfer.size
+            }
+        })
+    private val reader = VideoLeaseReader {}
+
+    @Test
+    fun incompleteVideoHeaderSkipsTheRestOfThePayload() {
+        val payload = videoPayload(pts = 7, h264 = random.nextBytes(8))
+        script(payload.copyOfRange(0, 10), TIMEOUT, payload.copyOfRange(10, payload.size))
+
+        assertEquals(0, readVideo(payload.size))
+        assertEquals(0, committed.size)
+        assertNextHeaderIntact()
+    }
+
+    @Test
+    fun shortH264ReadCommitsWhatArrivedAndSkipsTheRest() {
+        val h264 = random.nextBytes(300)
+        val payload = videoPayload(pts = 42, h264 = h264)
+        script(payload.copyOfRange(0, VIDEO_HEADER_SIZE + 100), TIMEOUT, payload.copyOfRange(VIDEO_HEADER_SIZE + 100, payload.size))
+
+        assertEquals(100, readVideo(payload.size))
+        assertEquals(1, committed.size)
+        assertArrayEquals(h264.copyOf(100), committed[0].first)
+        assertEquals(42, committed[0].second)
+        assertNextHeaderIntact()
+    }
+
+    @Test
+    fun refusedFrameIsSkipped() {
+        refuse = true
+        val payload = videoPayload(pts = 1, h264 = random.nextBytes(64))
+        script(payload)
+
+        assertEquals(0, readVideo(payload.size))
+        assertEquals(0, committed.size + aborted)
+        assertNextHeaderIntact()
+    }
+
+    private fun readVideo(payloadLength: Int): Int = reader.read(demux, payloadLength, processor, 100) { true }
+
+    private fun script(vararg parts: ByteArray) {
+        transfers.addAll(parts)
+        transfers.add(header(MessageType.HEARTBEAT, 0))
+    }
+
+    private fun assertNextHeaderIntact() {
+        val next = demux.readHeader(100) { true }
+        assertNotNull("next header not read", next)
+        assertEquals(MessageType.HEARTBEAT, next!!.type)
+        assertEquals(0L, (demux.getStats()["resyncs"] as Number).toLong())
+    }
+
+    private fun videoPayload(
+        pts: Int,
+        h264: ByteArray,
+    ): ByteArray =
+        ByteBuffer
+            .allocate(VIDEO_HEADER_SIZE + h264.size)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(1920)
+            .putInt(1080)
+            .putInt(0)
+            .putInt(pts)
+            .putInt(0)
+            .put(h264)
+            .array()
+
+    private fun header(
+        type: MessageType,
+        length: Int,
+    ): ByteArray =
+        ByteBuffer
+            .allocate(HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(PROTOCOL_MAGIC)
+            .putInt(length)
+            .putInt(type.id)
+            .putInt(type.id.inv())
+            .array()
+
+    private companion object {
+        val TIMEOUT = ByteArray(0)
+    }
+}
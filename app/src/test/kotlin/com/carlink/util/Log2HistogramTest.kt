@@ -0,0 +1,47 @@
+package com.carlink.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Percentile resolution of [Log2Histogram]: plain power-of-two buckets report the bucket's
+ * upper bound (up to 2x high), linear sub-buckets tighten that to 1 / 2^subBucketBits.
+ */
+class Log2HistogramTest {
+    @Test
+    fun plainBucketsReportThePowerOfTwoUpperBound() {
+        val histogram = Log2Histogram()
+        histogram.record(1025)
+        histogram.record(3000)
+
+        assertEquals(2047L, histogram.percentile(0.50))
+        assertEquals(3000L, histogram.percentile(1.0)) // Capped at the maximum
+    }
+
+    @Test
+    fun subBucketsBoundThePercentileError() {
+        val histogram = Log2Histogram(subBucketBits = 3)
+        for (value in 1L..100_000L) histogram.record(value)
+
+        for (fraction in listOf(0.10, 0.50, 0.90, 0.95, 0.99)) {
+            val exact = Math.ceil(100_000 * fraction).toLong()
+            val reported = histogram.percentile(fraction)
+            assertTrue("p$fraction: $reported < $exact", reported >= exact)
+            assertTrue("p$fraction: $reported more than 12.5% over $exact", reported <= exact + exact / 8)
+        }
+    }
+
+    @Test
+    fun smallValuesAreExactAndTheFullRangeIsCovered() {
+        val histogram = Log2Histogram(subBucketBits = 3)
+        histogram.record(0)
+        histogram.record(5)
+        histogram.record(Long.MAX_VALUE)
+
+        assertEquals(0L, histogram.percentile(0.30))
+        assertEquals(5L, histogram.percentile(0.60))
+        assertEquals(Long.MAX_VALUE, histogram.percentile(1.0))
+        assertEquals(3L, histogram.total)
+    }
+}